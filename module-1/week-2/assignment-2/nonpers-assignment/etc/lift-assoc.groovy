@@ -2,6 +2,10 @@ import org.lenskit.api.ItemBasedItemRecommender
 import org.lenskit.mooc.nonpers.assoc.LiftAssociationModelProvider
 import org.lenskit.mooc.nonpers.assoc.AssociationItemBasedItemRecommender
 import org.lenskit.mooc.nonpers.assoc.AssociationModel
+import org.lenskit.mooc.nonpers.assoc.BasketAggregation
 
 bind ItemBasedItemRecommender to AssociationItemBasedItemRecommender
 bind AssociationModel toProvider LiftAssociationModelProvider
+
+// uncomment to combine multi-item baskets by their strongest association rather than the sum
+// set BasketAggregation to 'max'
@@ -0,0 +1,40 @@
+package org.lenskit.mooc.nonpers.assoc;
+
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.mooc.nonpers.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for building the lift association model.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LiftAssociationModelBenchmark {
+    @Param(BenchmarkData.SYNTHETIC)
+    public String dataSource;
+    @Param("2000")
+    public int users;
+    @Param("1000")
+    public int items;
+    @Param("0.02")
+    public double density;
+
+    private DataAccessObject dao;
+
+    @Setup
+    public void loadData() throws IOException {
+        dao = BenchmarkData.load(dataSource, users, items, density);
+    }
+
+    @Benchmark
+    public AssociationModel buildModel() {
+        return new LiftAssociationModelProvider(dao, 0, 0).get();
+    }
+}
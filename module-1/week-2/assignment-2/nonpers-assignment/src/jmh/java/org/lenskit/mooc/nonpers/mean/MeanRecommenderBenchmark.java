@@ -0,0 +1,51 @@
+package org.lenskit.mooc.nonpers.mean;
+
+import org.lenskit.api.ResultList;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.mooc.nonpers.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for top-N recommendation with the item mean recommender.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MeanRecommenderBenchmark {
+    @Param(BenchmarkData.SYNTHETIC)
+    public String dataSource;
+    @Param("2000")
+    public int users;
+    @Param("1000")
+    public int items;
+    @Param("0.02")
+    public double density;
+    @Param("10")
+    public int listSize;
+
+    private MeanItemBasedItemRecommender recommender;
+    private long[] baskets;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        DataAccessObject dao = BenchmarkData.load(dataSource, users, items, density);
+        recommender = new MeanItemBasedItemRecommender(new ItemMeanModelProvider(dao).get());
+        baskets = dao.getEntityIds(CommonTypes.ITEM).toLongArray();
+    }
+
+    @Benchmark
+    public ResultList recommend() {
+        long item = baskets[next];
+        next = (next + 1) % baskets.length;
+        return recommender.recommendRelatedItemsWithDetails(Collections.singleton(item), listSize, null, null);
+    }
+}
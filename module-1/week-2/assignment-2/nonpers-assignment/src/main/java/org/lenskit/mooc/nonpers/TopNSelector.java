@@ -0,0 +1,174 @@
+package org.lenskit.mooc.nonpers;
+
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultList;
+import org.lenskit.results.Results;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Selects the highest-scoring items from a sequence of scored items.  The items and scores are kept in parallel
+ * primitive arrays arranged as a bounded min-heap, so selecting the top {@code n} of {@code m} items takes
+ * O(m log n) time and O(n) space, and only the selected items are turned into {@link Result} objects.
+ *
+ * <p>Items with equal scores are ranked by increasing item ID.  A selector is not thread-safe; to select in
+ * parallel, give each thread its own selector over part of the items, and {@linkplain #addAll(TopNSelector) merge}
+ * them when they are done.</p>
+ */
+public final class TopNSelector {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int limit;
+    private long[] items;
+    private double[] scores;
+    private int size;
+
+    /**
+     * Create a new selector.
+     * @param n The number of items to select.  If this is negative, all items are selected.
+     */
+    public TopNSelector(int n) {
+        limit = n;
+        int cap = n >= 0 ? Math.min(n, INITIAL_CAPACITY) : INITIAL_CAPACITY;
+        items = new long[cap];
+        scores = new double[cap];
+    }
+
+    /**
+     * Get the number of items currently selected.
+     * @return The number of items selected so far.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Offer an item to the selector.  It is kept if fewer than {@code n} items have been selected so far, or if it
+     * ranks above the lowest-ranked item selected so far (which is then dropped).
+     *
+     * @param item  The item ID.
+     * @param score The item's score.
+     */
+    public void offer(long item, double score) {
+        if (limit < 0 || size < limit) {
+            if (size == items.length) {
+                int cap = items.length * 2 + 1;
+                if (limit >= 0) {
+                    cap = Math.min(cap, limit);
+                }
+                items = Arrays.copyOf(items, cap);
+                scores = Arrays.copyOf(scores, cap);
+            }
+            items[size] = item;
+            scores[size] = score;
+            size++;
+            if (limit >= 0) {
+                siftUp(size - 1);
+            }
+        } else if (size > 0 && ranksAbove(item, score, items[0], scores[0])) {
+            items[0] = item;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Offer all the items selected by another selector to this one.
+     * @param other The other selector.
+     */
+    public void addAll(TopNSelector other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.items[i], other.scores[i]);
+        }
+    }
+
+    /**
+     * Get the selected items and clear the selector.
+     * @return The selected items, in decreasing order of score.
+     */
+    public ResultList finish() {
+        long[] rItems = items;
+        double[] rScores = scores;
+        it.unimi.dsi.fastutil.Arrays.quickSort(0, size, new AbstractIntComparator() {
+            @Override
+            public int compare(int i1, int i2) {
+                if (ranksAbove(rItems[i1], rScores[i1], rItems[i2], rScores[i2])) {
+                    return -1;
+                } else if (ranksAbove(rItems[i2], rScores[i2], rItems[i1], rScores[i1])) {
+                    return 1;
+                } else {
+                    return 0;
+                }
+            }
+        }, new Swapper() {
+            @Override
+            public void swap(int i, int j) {
+                swapEntries(i, j);
+            }
+        });
+
+        List<Result> results = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            results.add(Results.create(items[i], scores[i]));
+        }
+        size = 0;
+        return Results.newResultList(results);
+    }
+
+    /**
+     * Query whether one scored item ranks above another.
+     */
+    private static boolean ranksAbove(long item1, double score1, long item2, double score2) {
+        int cmp = Double.compare(score1, score2);
+        return cmp > 0 || (cmp == 0 && item1 < item2);
+    }
+
+    /**
+     * Move an entry up the heap until its parent ranks below it.
+     */
+    private void siftUp(int pos) {
+        while (pos > 0) {
+            int parent = (pos - 1) / 2;
+            if (!ranksAbove(items[parent], scores[parent], items[pos], scores[pos])) {
+                break;
+            }
+            swapEntries(pos, parent);
+            pos = parent;
+        }
+    }
+
+    /**
+     * Move an entry down the heap until both its children rank above it.
+     */
+    private void siftDown(int pos) {
+        while (true) {
+            int lowest = pos;
+            int left = 2 * pos + 1;
+            int right = left + 1;
+            if (left < size && ranksAbove(items[lowest], scores[lowest], items[left], scores[left])) {
+                lowest = left;
+            }
+            if (right < size && ranksAbove(items[lowest], scores[lowest], items[right], scores[right])) {
+                lowest = right;
+            }
+            if (lowest == pos) {
+                return;
+            }
+            swapEntries(pos, lowest);
+            pos = lowest;
+        }
+    }
+
+    private void swapEntries(int i, int j) {
+        long ti = items[i];
+        items[i] = items[j];
+        items[j] = ti;
+        double ts = scores[i];
+        scores[i] = scores[j];
+        scores[j] = ts;
+    }
+}
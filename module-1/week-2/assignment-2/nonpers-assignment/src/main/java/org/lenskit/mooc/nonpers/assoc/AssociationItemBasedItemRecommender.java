@@ -1,78 +1,230 @@
 package org.lenskit.mooc.nonpers.assoc;
 
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSortedSet;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
 import org.lenskit.basic.AbstractItemBasedItemRecommender;
+import org.lenskit.mooc.nonpers.TopNSelector;
 import org.lenskit.results.Results;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.SortedKeyIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * An item-based item scorer that uses association rules.
+ *
+ * <p>Baskets with more than one item are scored by combining each item's associations with all the basket items,
+ * as configured by the {@link BasketAggregation} parameter.  Basket items the model does not know are ignored.</p>
+ *
+ * <p>The basket items are never recommended, not even for a one-item basket, where the reference item would
+ * otherwise be listed among the items with no association to it.</p>
  */
 public class AssociationItemBasedItemRecommender extends AbstractItemBasedItemRecommender {
     private static final Logger logger = LoggerFactory.getLogger(AssociationItemBasedItemRecommender.class);
     private final AssociationModel model;
+    private final BasketScores.Aggregate aggregate;
 
     /**
-     * Construct the item scorer.
+     * Construct the item scorer.  Multi-item baskets are scored with the sum of the items' associations.
      *
      * @param m The association rule model.
      */
-    @Inject
     public AssociationItemBasedItemRecommender(AssociationModel m) {
+        this(m, "sum");
+    }
+
+    /**
+     * Construct the item scorer.
+     *
+     * @param m           The association rule model.
+     * @param aggregation How to combine the associations with the items of a multi-item basket ({@code sum},
+     *                    {@code max} or {@code mean}).
+     */
+    @Inject
+    public AssociationItemBasedItemRecommender(AssociationModel m, @BasketAggregation String aggregation) {
         model = m;
+        try {
+            aggregate = BasketScores.Aggregate.valueOf(aggregation.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown basket aggregation " + aggregation, e);
+        }
     }
 
     @Override
     public ResultList recommendRelatedItemsWithDetails(Set<Long> basket, int n, @Nullable Set<Long> candidates, @Nullable Set<Long> exclude) {
-        LongSet items;
-        if (candidates == null) {
-            items = model.getKnownItems();
-        } else {
-            items = LongUtils.asLongSet(candidates);
+        if (basket.isEmpty()) {
+            return Results.newResultList();
         }
 
-        if (exclude != null) {
-            items = LongUtils.setDifference(items, LongUtils.asLongSet(exclude));
+        // the basket items are never recommended back, whatever the size of the basket
+        LongSortedSet excluded = LongUtils.frozenSet(basket);
+        if (exclude != null && !exclude.isEmpty()) {
+            excluded = LongUtils.setUnion(excluded, LongUtils.frozenSet(exclude));
+        }
+        SortedKeyIndex index = model.getIndex();
+        if (basket.size() == 1 && candidates == null) {
+            int ref = index.tryGetIndex(basket.iterator().next());
+            return ref >= 0 ? recommendFromRanking(n, ref, excluded) : Results.newResultList();
         }
 
-        if (basket.isEmpty()) {
+        // basket items the model does not know have no associations, so they are skipped
+        int[] refs = new int[basket.size()];
+        int r = 0;
+        for (long item : basket) {
+            int ref = index.tryGetIndex(item);
+            if (ref >= 0) {
+                refs[r++] = ref;
+            }
+        }
+        if (r == 0) {
             return Results.newResultList();
-        } else if (basket.size() > 1) {
-            logger.warn("Reference set has more than 1 item, picking arbitrarily.");
+        } else if (r < refs.length) {
+            logger.debug("skipping {} unknown basket items", refs.length - r);
+            refs = Arrays.copyOf(refs, r);
         }
+        logger.debug("merging association rows for {} basket items", refs.length);
+        BasketScores scores = BasketScores.merge(model, refs, aggregate);
 
-        long refItem = basket.iterator().next();
+        if (candidates == null) {
+            return recommendFromScores(n, scores, excluded);
+        }
+
+        LongSet items = LongUtils.setDifference(LongUtils.asLongSet(candidates), excluded);
 
-        return recommendItems(n, refItem, items);
+        return recommendItems(n, scores, items);
     }
 
     /**
-     * Recommend items with an association rule.
+     * Recommend items from the reference item's ranked associations, when any known item may be recommended.  This
+     * reads the front of the ranking and stops as soon as it has {@code n} items, so it takes time proportional to
+     * {@code n} and the number of excluded items rather than to the number of known items.
      *
-     * @param n          The number of recommendations to produce.
-     * @param refItem    The reference item.
-     * @param candidates The candidate items (set of items that can possibly be recommended).
+     * @param n       The number of recommendations to produce.  If this is negative, produce all of them.
+     * @param ref     The position of the reference item.
+     * @param exclude The items that may not be recommended.
+     * @return The list of results.
+     */
+    private ResultList recommendFromRanking(int n, int ref, LongSet exclude) {
+        SortedKeyIndex index = model.getIndex();
+        int rowSize = model.getRowSize(ref);
+        int limit = n >= 0 ? n : Integer.MAX_VALUE;
+        List<Result> results = new ArrayList<>();
+
+        // The stored associations are nonzero, so the positive ones come first...
+        int rank = 0;
+        for (; rank < rowSize && results.size() < limit; rank++) {
+            int k = model.getRankedEntry(ref, rank);
+            double score = model.getRowScore(ref, k);
+            if (score <= 0) {
+                break;
+            }
+            addResult(results, index.getKey(model.getRowItem(ref, k)), score, exclude);
+        }
+
+        // ...then the items with no stored association, which score 0, in order of ID...
+        int k = 0;
+        for (int item = 0; item < index.size() && results.size() < limit; item++) {
+            while (k < rowSize && model.getRowItem(ref, k) < item) {
+                k++;
+            }
+            if (k >= rowSize || model.getRowItem(ref, k) != item) {
+                addResult(results, index.getKey(item), 0, exclude);
+            }
+        }
+
+        // ...and the negative ones last.
+        for (; rank < rowSize && results.size() < limit; rank++) {
+            int e = model.getRankedEntry(ref, rank);
+            addResult(results, index.getKey(model.getRowItem(ref, e)), model.getRowScore(ref, e), exclude);
+        }
+
+        return Results.newResultList(results);
+    }
+
+    private static void addResult(List<Result> results, long item, double score, LongSet exclude) {
+        if (!exclude.contains(item)) {
+            results.add(Results.create(item, score));
+        }
+    }
+
+    /**
+     * Recommend items from a basket's combined scores, when any known item may be recommended.  Like
+     * {@link #recommendFromRanking(int, int, LongSet)}, this ranks the items with positive scores, then those
+     * scoring 0, then those with negative scores.
+     *
+     * @param n       The number of recommendations to produce.  If this is negative, produce all of them.
+     * @param scores  The combined scores of the basket.
+     * @param exclude The items that may not be recommended.
      * @return The list of results.
      */
-    private ResultList recommendItems(int n, long refItem, LongSet candidates) {
-        List<Result> results = candidates.stream()
-                .filter(model::hasItem)
-                .map(e -> Results.create(e, model.getItemAssociation(refItem, e)))
-                .sorted((o1, o2) -> Double.compare(o1.getScore(), o2.getScore()) * -1)
-                .limit(n)
-                .collect(Collectors.toList());
+    private ResultList recommendFromScores(int n, BasketScores scores, LongSet exclude) {
+        SortedKeyIndex index = model.getIndex();
+        int limit = n >= 0 ? n : Integer.MAX_VALUE;
+
+        TopNSelector positive = new TopNSelector(n);
+        for (int k = 0; k < scores.size(); k++) {
+            long item = index.getKey(scores.getItem(k));
+            if (Double.compare(scores.getScore(k), 0) > 0 && !exclude.contains(item)) {
+                positive.offer(item, scores.getScore(k));
+            }
+        }
+        List<Result> results = new ArrayList<>(positive.finish());
+
+        int k = 0;
+        for (int item = 0; item < index.size() && results.size() < limit; item++) {
+            while (k < scores.size() && scores.getItem(k) < item) {
+                k++;
+            }
+            if (k >= scores.size() || scores.getItem(k) != item || Double.compare(scores.getScore(k), 0) == 0) {
+                addResult(results, index.getKey(item), 0, exclude);
+            }
+        }
+
+        if (results.size() < limit) {
+            TopNSelector negative = new TopNSelector(n >= 0 ? limit - results.size() : -1);
+            for (k = 0; k < scores.size(); k++) {
+                long item = index.getKey(scores.getItem(k));
+                if (Double.compare(scores.getScore(k), 0) < 0 && !exclude.contains(item)) {
+                    negative.offer(item, scores.getScore(k));
+                }
+            }
+            results.addAll(negative.finish());
+        }
 
         return Results.newResultList(results);
     }
+
+    /**
+     * Recommend items from a set of candidates with a basket's combined scores.
+     *
+     * @param n          The number of recommendations to produce.  If this is negative, produce all of them.
+     * @param scores     The combined scores of the basket.
+     * @param candidates The candidate items (set of items that can possibly be recommended).
+     * @return The list of results.
+     */
+    private ResultList recommendItems(int n, BasketScores scores, LongSet candidates) {
+        SortedKeyIndex index = model.getIndex();
+        TopNSelector selector = new TopNSelector(n);
+        LongIterator iter = candidates.iterator();
+        while (iter.hasNext()) {
+            long item = iter.nextLong();
+            int pos = index.tryGetIndex(item);
+            if (pos >= 0) {
+                selector.offer(item, scores.lookup(pos));
+            }
+        }
+
+        return selector.finish();
+    }
 }
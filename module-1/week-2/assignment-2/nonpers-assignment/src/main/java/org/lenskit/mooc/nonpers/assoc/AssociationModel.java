@@ -3,55 +3,66 @@ package org.lenskit.mooc.nonpers.assoc;
 import com.google.common.base.Preconditions;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.inject.Shareable;
+import org.lenskit.util.collections.LongUtils;
 import org.lenskit.util.keys.SortedKeyIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
  * An association rule model, storing item-item association scores.
  *
  * <p>You <strong>should note</strong> need to change this class.  It has some internal optimizations to reduce
- * the memory requirements after the model is built.</p>
+ * the memory requirements after the model is built: each reference item only stores its nonzero associations, as
+ * sorted arrays of item positions and scores.  Each row also stores the ranking of its entries by decreasing score,
+ * so recommenders can read a reference item's strongest associations without sorting them.</p>
  */
 @Shareable
 public class AssociationModel implements Serializable {
     private static final Logger logger = LoggerFactory.getLogger(AssociationModel.class);
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 3L;
 
     private final SortedKeyIndex index;
-    private final double[][] scores;
+    private final int[][] rowItems;
+    private final double[][] rowScores;
+    private final int[][] rowRanks;
 
     /**
      * Construct a new association model.
      * @param assocScores The association scores.  The outer map's keys are the X items, and the inner map's keys are
      *                    the Y items.  So {@code assocScores.get(x).get(y)} should return the score for {@code y}
-     *                    with respect to {@code x}.
+     *                    with respect to {@code x}.  Pairs that are missing from the map have a score of 0.
      */
     public AssociationModel(Map<Long, ? extends Map<Long,Double>> assocScores) {
         index = SortedKeyIndex.fromCollection(assocScores.keySet());
         int n = index.size();
-        logger.debug("transforming input map for {} items into log data", n);
-        scores = new double[n][n];
-        for (int i = 0; i < n; i++) {
-            long itemX = index.getKey(i);
-            for (int j = 0; j < n; j++) {
-                if (i == j) {
-                    continue; // skip self-similarities
-                }
-
-                long itemY = index.getKey(j);
-                Double score = assocScores.get(itemX).get(itemY);
-                if (score == null) {
-                    logger.error("no score found for items {} and {}", itemX, itemY);
-                    String msg = String.format("no score found for x=%d, y=%d", itemX, itemY);
-                    throw new IllegalArgumentException(msg);
-                }
-                scores[i][j] = score;
-            }
+        logger.debug("transforming input map for {} items into sparse rows", n);
+        AssociationModelBuilder builder = new AssociationModelBuilder(index, 0, Double.NEGATIVE_INFINITY);
+        for (Map.Entry<Long, ? extends Map<Long, Double>> e: assocScores.entrySet()) {
+            builder.addRow(e.getKey(), LongUtils.frozenMap(e.getValue()));
         }
+        AssociationModel built = builder.build();
+        rowItems = built.rowItems;
+        rowScores = built.rowScores;
+        rowRanks = built.rowRanks;
+    }
+
+    /**
+     * Construct a new association model from sparse rows.  Use {@link AssociationModelBuilder} to build them.
+     * @param idx The item index.
+     * @param items The positions of the items associated with each reference item, sorted in increasing order.
+     * @param scores The association scores, parallel to {@code items}.
+     * @param ranks The entries of each row (as offsets into {@code items} and {@code scores}), ordered by decreasing
+     *              score and then by item.
+     */
+    AssociationModel(SortedKeyIndex idx, int[][] items, double[][] scores, int[][] ranks) {
+        index = idx;
+        rowItems = items;
+        rowScores = scores;
+        rowRanks = ranks;
     }
 
     /**
@@ -75,16 +86,64 @@ public class AssociationModel implements Serializable {
      * Get the association between two items.
      * @param ref The reference item (X).
      * @param item The item to score (Y).
-     * @return The score between X and Y.
+     * @return The score between X and Y, or 0 if the model does not store an association between them.
      * @throws IllegalArgumentException if either item is invalid.
      */
     public double getItemAssociation(long ref, long item) {
         // look up item positions
         int refIndex = index.tryGetIndex(ref);
-        Preconditions.checkArgument(refIndex >= 0, "unknown reference item %d", ref);
+        Preconditions.checkArgument(refIndex >= 0, "unknown reference item %s", ref);
         int itemIndex = index.tryGetIndex(item);
-        Preconditions.checkArgument(itemIndex >= 0, "unknown target item %d", item);
+        Preconditions.checkArgument(itemIndex >= 0, "unknown target item %s", item);
+
+        int pos = Arrays.binarySearch(rowItems[refIndex], itemIndex);
+        return pos >= 0 ? rowScores[refIndex][pos] : 0;
+    }
 
-        return scores[refIndex][itemIndex];
+    /**
+     * Get the item index.
+     * @return The index of the items known to the model.
+     */
+    SortedKeyIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the number of associations stored for a reference item.
+     * @param refIndex The position of the reference item.
+     * @return The number of items with a stored (nonzero) association.
+     */
+    int getRowSize(int refIndex) {
+        return rowItems[refIndex].length;
+    }
+
+    /**
+     * Get an item stored in a reference item's row.
+     * @param refIndex The position of the reference item.
+     * @param k The offset of the entry in the row, which is in increasing order of item position.
+     * @return The position of the associated item.
+     */
+    int getRowItem(int refIndex, int k) {
+        return rowItems[refIndex][k];
+    }
+
+    /**
+     * Get an association score stored in a reference item's row.
+     * @param refIndex The position of the reference item.
+     * @param k The offset of the entry in the row.
+     * @return The association score.
+     */
+    double getRowScore(int refIndex, int k) {
+        return rowScores[refIndex][k];
+    }
+
+    /**
+     * Get the entry of a reference item's row with a given rank.
+     * @param refIndex The position of the reference item.
+     * @param rank The rank, where 0 is the highest-scoring entry.
+     * @return The offset of the entry in the row.
+     */
+    int getRankedEntry(int refIndex, int rank) {
+        return rowRanks[refIndex][rank];
     }
 }
@@ -0,0 +1,188 @@
+package org.lenskit.mooc.nonpers.assoc;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.util.Arrays;
+
+/**
+ * Builder for sparse {@linkplain AssociationModel association models}.  Rows are added one reference item at a time,
+ * and each row is truncated to the configured size and threshold as it is added, so the full association matrix is
+ * never held in memory.
+ */
+public class AssociationModelBuilder {
+    private static final int[] EMPTY_ITEMS = new int[0];
+    private static final double[] EMPTY_SCORES = new double[0];
+
+    private final SortedKeyIndex index;
+    private final int maxRowSize;
+    private final double threshold;
+    private final int[][] rowItems;
+    private final double[][] rowScores;
+    private final int[][] rowRanks;
+
+    private int[] workItems = EMPTY_ITEMS;
+    private double[] workScores = EMPTY_SCORES;
+
+    /**
+     * Create a new model builder.
+     *
+     * @param idx       The index of items known to the model.
+     * @param size      The maximum number of associations to keep per reference item, or 0 to keep all of them.
+     * @param threshold The score an association must exceed to be kept.
+     */
+    public AssociationModelBuilder(SortedKeyIndex idx, int size, double threshold) {
+        Preconditions.checkArgument(size >= 0, "negative model size %s", size);
+        index = idx;
+        maxRowSize = size;
+        this.threshold = threshold;
+        rowItems = new int[idx.size()][];
+        rowScores = new double[idx.size()][];
+        rowRanks = new int[idx.size()][];
+    }
+
+    /**
+     * Get the item index used by this builder.
+     * @return The item index.
+     */
+    public SortedKeyIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Set the associations for a reference item.
+     *
+     * @param ref    The reference item (X).
+     * @param scores The association scores for the other items (Y) with respect to {@code ref}.
+     * @return The builder (for chaining).
+     * @throws IllegalArgumentException if {@code ref} is not in the builder's index.
+     */
+    public AssociationModelBuilder addRow(long ref, Long2DoubleMap scores) {
+        int refIndex = index.tryGetIndex(ref);
+        Preconditions.checkArgument(refIndex >= 0, "unknown reference item %s", ref);
+
+        ensureCapacity(scores.size());
+        int n = 0;
+        for (Long2DoubleMap.Entry e : scores.long2DoubleEntrySet()) {
+            int itemIndex = index.tryGetIndex(e.getLongKey());
+            if (itemIndex >= 0) {
+                workItems[n] = itemIndex;
+                workScores[n] = e.getDoubleValue();
+                n++;
+            }
+        }
+
+        return addRow(refIndex, workItems, workScores, n);
+    }
+
+    /**
+     * Set the associations for a reference item by position.  The first {@code n} entries of the arrays are
+     * the item positions and scores; the arrays may be reordered and reused by the caller afterwards.  If the row
+     * is longer than the model size, the highest-scoring entries are kept, and of entries with equal scores, those
+     * with the lowest item positions.
+     *
+     * @param refIndex The position of the reference item in the index.
+     * @param items    The positions of the associated items.
+     * @param scores   The association scores, parallel to {@code items}.
+     * @param n        The number of entries to use.
+     * @return The builder (for chaining).
+     */
+    AssociationModelBuilder addRow(int refIndex, int[] items, double[] scores, int n) {
+        // drop self-associations and scores that do not clear the threshold
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (items[i] != refIndex && scores[i] > threshold && scores[i] != 0) {
+                items[kept] = items[i];
+                scores[kept] = scores[i];
+                kept++;
+            }
+        }
+
+        if (maxRowSize > 0 && kept > maxRowSize) {
+            it.unimi.dsi.fastutil.Arrays.quickSort(0, kept, new AbstractIntComparator() {
+                @Override
+                public int compare(int i1, int i2) {
+                    // break ties by item position, so the same items are kept whatever order they came in
+                    int cmp = Double.compare(scores[i2], scores[i1]);
+                    return cmp != 0 ? cmp : Integer.compare(items[i1], items[i2]);
+                }
+            }, new ArraySwapper(items, scores));
+            kept = maxRowSize;
+        }
+
+        int[] rItems = Arrays.copyOf(items, kept);
+        double[] rScores = Arrays.copyOf(scores, kept);
+        // rows are stored in item order so they can be binary-searched
+        it.unimi.dsi.fastutil.Arrays.quickSort(0, kept, new AbstractIntComparator() {
+            @Override
+            public int compare(int i1, int i2) {
+                return Integer.compare(rItems[i1], rItems[i2]);
+            }
+        }, new ArraySwapper(rItems, rScores));
+        // and ranked by decreasing score (then by item), so the best associations can be read off the front
+        int[] rRanks = new int[kept];
+        for (int i = 0; i < kept; i++) {
+            rRanks[i] = i;
+        }
+        IntArrays.quickSort(rRanks, new AbstractIntComparator() {
+            @Override
+            public int compare(int i1, int i2) {
+                int cmp = Double.compare(rScores[i2], rScores[i1]);
+                return cmp != 0 ? cmp : Integer.compare(i1, i2);
+            }
+        });
+        rowItems[refIndex] = rItems;
+        rowScores[refIndex] = rScores;
+        rowRanks[refIndex] = rRanks;
+        return this;
+    }
+
+    /**
+     * Build the association model.
+     * @return The association model.
+     */
+    public AssociationModel build() {
+        for (int i = 0; i < rowItems.length; i++) {
+            if (rowItems[i] == null) {
+                rowItems[i] = EMPTY_ITEMS;
+                rowScores[i] = EMPTY_SCORES;
+                rowRanks[i] = EMPTY_ITEMS;
+            }
+        }
+        return new AssociationModel(index, rowItems, rowScores, rowRanks);
+    }
+
+    private void ensureCapacity(int n) {
+        if (workItems.length < n) {
+            workItems = new int[n];
+            workScores = new double[n];
+        }
+    }
+
+    /**
+     * Swap entries in parallel item and score arrays.
+     */
+    private static class ArraySwapper implements Swapper {
+        private final int[] items;
+        private final double[] scores;
+
+        ArraySwapper(int[] items, double[] scores) {
+            this.items = items;
+            this.scores = scores;
+        }
+
+        @Override
+        public void swap(int i, int j) {
+            int ti = items[i];
+            items[i] = items[j];
+            items[j] = ti;
+            double ts = scores[i];
+            scores[i] = scores[j];
+            scores[j] = ts;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.lenskit.mooc.nonpers.assoc;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * The maximum number of associations to keep for each reference item in an {@link AssociationModel}.  Only the
+ * highest-scoring associations are kept; a value of 0 keeps every association above the
+ * {@linkplain AssociationThreshold threshold}.
+ */
+@Documented
+@DefaultInteger(0)
+@Parameter(Integer.class)
+@Qualifier
+@Target({ElementType.METHOD, ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface AssociationModelSize {
+}
@@ -0,0 +1,20 @@
+package org.lenskit.mooc.nonpers.assoc;
+
+import org.grouplens.grapht.annotation.DefaultDouble;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * The minimum score an association must exceed to be stored in an {@link AssociationModel}.  Associations that are
+ * not stored have a score of 0.
+ */
+@Documented
+@DefaultDouble(0.0)
+@Parameter(Double.class)
+@Qualifier
+@Target({ElementType.METHOD, ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface AssociationThreshold {
+}
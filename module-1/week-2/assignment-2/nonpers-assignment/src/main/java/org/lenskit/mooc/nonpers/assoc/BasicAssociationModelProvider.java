@@ -1,83 +1,65 @@
 package org.lenskit.mooc.nonpers.assoc;
 
-import it.unimi.dsi.fastutil.longs.*;
 import org.lenskit.data.dao.DataAccessObject;
-import org.lenskit.data.entities.CommonAttributes;
-import org.lenskit.data.ratings.Rating;
 import org.lenskit.inject.Transient;
-import org.lenskit.util.IdBox;
-import org.lenskit.util.collections.LongUtils;
-import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.SortedKeyIndex;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
-import java.util.List;
 
 /**
  * Build a model for basic association rules.  This class computes the association for all pairs of items.
  */
 public class BasicAssociationModelProvider implements Provider<AssociationModel> {
     private final DataAccessObject dao;
+    private final int modelSize;
+    private final double threshold;
 
+    /**
+     * Construct the model provider.
+     *
+     * @param dao       The data access object.
+     * @param size      The number of associations to keep for each reference item (0 to keep all).
+     * @param threshold The minimum association score to keep.
+     */
     @Inject
-    public BasicAssociationModelProvider(@Transient DataAccessObject dao) {
+    public BasicAssociationModelProvider(@Transient DataAccessObject dao,
+                                         @AssociationModelSize int size,
+                                         @AssociationThreshold double threshold) {
         this.dao = dao;
+        modelSize = size;
+        this.threshold = threshold;
     }
 
     @Override
     public AssociationModel get() {
-        // First step: map each item to the set of users who have rated it.
+        // First step: count how many users rated each item, and each pair of items.
+        // This takes a single pass over the ratings, grouped by user.
+        ItemCooccurrences counts = ItemCooccurrences.count(dao);
+        SortedKeyIndex index = counts.getItemIndex();
 
-        // This map will map each item ID to the set of users who have rated it.
-        Long2ObjectMap<LongSortedSet> itemUsers = new Long2ObjectOpenHashMap<>();
-        LongSet allUsers = new LongOpenHashSet();
-
-        // Open a stream, grouping ratings by item ID
-        try (ObjectStream<IdBox<List<Rating>>> ratingStream = dao.query(Rating.class)
-                                                                 .groupBy(CommonAttributes.ITEM_ID)
-                                                                 .stream()) {
-            // Process each item's ratings
-            for (IdBox<List<Rating>> item: ratingStream) {
-                // Build a set of users.  We build an array first, then convert to a set.
-                LongList users = new LongArrayList();
-                // Add each rating's user ID to the user sets
-                for (Rating r: item.getValue()) {
-                    long user = r.getUserId();
-                    users.add(user);
-                    allUsers.add(user);
-                }
-                // put this item's user set into the item user map
-                // a frozen set will be very efficient later
-                itemUsers.put(item.getId(), LongUtils.frozenSet(users));
-            }
-        }
-
-        // Second step: compute all association rules
-
-        // We need a map to store them
-        Long2ObjectMap<Long2DoubleMap> assocMatrix = new Long2ObjectOpenHashMap<>();
+        // Second step: compute all association rules, and store them in a sparse model builder one row at a time.
+        AssociationModelBuilder builder = new AssociationModelBuilder(index, modelSize, threshold);
+        // work arrays to hold the scores for each 'y' item; they are refilled for every 'x'
+        int[] yItems = new int[index.size()];
+        double[] yScores = new double[index.size()];
 
         // then loop over 'x' items
-        for (Long2ObjectMap.Entry<LongSortedSet> xEntry: itemUsers.long2ObjectEntrySet()) {
-            long xId = xEntry.getLongKey();
-            LongSortedSet xUsers = xEntry.getValue();
-
-            // set up a map to hold the scores for each 'y' item for this 'x'
-            Long2DoubleMap itemScores = new Long2DoubleOpenHashMap();
-
-            // loop over the 'y' items
-            for (Long2ObjectMap.Entry<LongSortedSet> yEntry: itemUsers.long2ObjectEntrySet()) {
-                long yId = yEntry.getLongKey();
-                LongSortedSet yUsers = yEntry.getValue();
+        for (int x = 0; x < index.size(); x++) {
+            int[] coItems = counts.getRowItems(x);
+            int[] coCounts = counts.getRowCounts(x);
+            double xCount = counts.getItemUserCount(x);
 
-                long yxUsersCount = yUsers.stream().filter(xUsers::contains).count();
-                itemScores.put(yId, (double) yxUsersCount / xUsers.size());
+            // loop over the 'y' items that share at least one user with 'x'; all others score 0
+            for (int k = 0; k < coItems.length; k++) {
+                yItems[k] = coItems[k];
+                yScores[k] = coCounts[k] / xCount;
             }
 
-            // save the score map to the main map
-            assocMatrix.put(xId, itemScores);
+            // truncate the scores and save them in the model
+            builder.addRow(x, yItems, yScores, coItems.length);
         }
 
-        return new AssociationModel(assocMatrix);
+        return builder.build();
     }
 }
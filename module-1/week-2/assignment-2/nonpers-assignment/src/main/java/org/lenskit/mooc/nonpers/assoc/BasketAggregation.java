@@ -0,0 +1,21 @@
+package org.lenskit.mooc.nonpers.assoc;
+
+import org.grouplens.grapht.annotation.DefaultString;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * How the {@link AssociationItemBasedItemRecommender} combines the association scores of a multi-item basket: one
+ * of {@code sum}, {@code max} or {@code mean}.  Items with no stored association to a basket item count as scoring
+ * 0 with respect to it.
+ */
+@Documented
+@DefaultString("sum")
+@Parameter(String.class)
+@Qualifier
+@Target({ElementType.METHOD, ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface BasketAggregation {
+}
@@ -0,0 +1,157 @@
+package org.lenskit.mooc.nonpers.assoc;
+
+import java.util.Arrays;
+
+/**
+ * The combined association scores of a basket of reference items, as a sparse row of item positions and scores.
+ * The rows of the basket items are merged with a k-way merge over their item positions, so the cost is proportional
+ * to the total length of the rows (times the log of the basket size) and no per-item lookups are needed.
+ *
+ * <p>Items that appear in none of the rows are not stored, and score 0 under every aggregate.</p>
+ */
+final class BasketScores {
+    /**
+     * Ways of combining the scores of an item with respect to each basket item.
+     */
+    enum Aggregate {
+        SUM, MAX, MEAN
+    }
+
+    private final int[] items;
+    private final double[] scores;
+    private final int size;
+
+    private BasketScores(int[] items, double[] scores, int size) {
+        this.items = items;
+        this.scores = scores;
+        this.size = size;
+    }
+
+    /**
+     * Merge the association rows of a basket.
+     *
+     * @param model The association model.
+     * @param refs  The positions of the basket items.
+     * @param agg   How to combine the scores for each item.
+     * @return The combined scores.
+     */
+    static BasketScores merge(AssociationModel model, int[] refs, Aggregate agg) {
+        int k = refs.length;
+        // cursors into each row, and a min-heap of rows keyed by the item under their cursor
+        int[] cursors = new int[k];
+        int[] heap = new int[k];
+        int heapSize = 0;
+        int total = 0;
+        for (int r = 0; r < k; r++) {
+            int len = model.getRowSize(refs[r]);
+            total += len;
+            if (len > 0) {
+                heap[heapSize++] = r;
+            }
+        }
+        for (int h = heapSize / 2 - 1; h >= 0; h--) {
+            siftDown(model, refs, cursors, heap, heapSize, h);
+        }
+
+        int[] items = new int[total];
+        double[] scores = new double[total];
+        int[] counts = new int[total];
+        int size = 0;
+        while (heapSize > 0) {
+            int r = heap[0];
+            int item = model.getRowItem(refs[r], cursors[r]);
+            double score = model.getRowScore(refs[r], cursors[r]);
+            cursors[r]++;
+            if (cursors[r] >= model.getRowSize(refs[r])) {
+                heap[0] = heap[--heapSize];
+            }
+            if (heapSize > 0) {
+                siftDown(model, refs, cursors, heap, heapSize, 0);
+            }
+
+            if (size > 0 && items[size - 1] == item) {
+                scores[size - 1] = agg == Aggregate.MAX
+                        ? Math.max(scores[size - 1], score)
+                        : scores[size - 1] + score;
+                counts[size - 1]++;
+            } else {
+                items[size] = item;
+                scores[size] = score;
+                counts[size] = 1;
+                size++;
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (agg == Aggregate.MEAN) {
+                scores[i] /= k;
+            } else if (agg == Aggregate.MAX && counts[i] < k) {
+                // some basket item has no stored association with this item, so it scores 0 there
+                scores[i] = Math.max(scores[i], 0);
+            }
+        }
+
+        return new BasketScores(items, scores, size);
+    }
+
+    private static void siftDown(AssociationModel model, int[] refs, int[] cursors, int[] heap, int heapSize, int h) {
+        while (true) {
+            int lowest = h;
+            int lowestItem = headItem(model, refs, cursors, heap[h]);
+            for (int c = 2 * h + 1; c <= 2 * h + 2 && c < heapSize; c++) {
+                int item = headItem(model, refs, cursors, heap[c]);
+                if (item < lowestItem) {
+                    lowest = c;
+                    lowestItem = item;
+                }
+            }
+            if (lowest == h) {
+                return;
+            }
+            int t = heap[h];
+            heap[h] = heap[lowest];
+            heap[lowest] = t;
+            h = lowest;
+        }
+    }
+
+    private static int headItem(AssociationModel model, int[] refs, int[] cursors, int r) {
+        return model.getRowItem(refs[r], cursors[r]);
+    }
+
+    /**
+     * Get the number of items with a stored score.
+     * @return The number of items that appear in at least one basket item's row.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get a stored item.
+     * @param k The offset of the entry, in increasing order of item position.
+     * @return The item's position.
+     */
+    int getItem(int k) {
+        return items[k];
+    }
+
+    /**
+     * Get a stored score.
+     * @param k The offset of the entry.
+     * @return The item's combined score.
+     */
+    double getScore(int k) {
+        return scores[k];
+    }
+
+    /**
+     * Look up the combined score of an item.
+     * @param item The item's position.
+     * @return The item's combined score, or 0 if it appears in none of the basket items' rows.
+     */
+    double lookup(int item) {
+        int k = Arrays.binarySearch(items, 0, size, item);
+        return k >= 0 ? scores[k] : 0;
+    }
+}
@@ -0,0 +1,199 @@
+package org.lenskit.mooc.nonpers.assoc;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.IdBox;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Item co-occurrence counts, computed in a single pass over the ratings grouped by user.  For every pair of items
+ * X and Y, this records the number of users who rated both of them; it also records the number of users who rated
+ * each item, and the total number of users.  These are the counts needed by the association rule metrics.
+ *
+ * <p>Items are identified by their position in the {@linkplain #getItemIndex() item index}.</p>
+ */
+public final class ItemCooccurrences {
+    private static final Logger logger = LoggerFactory.getLogger(ItemCooccurrences.class);
+
+    private final SortedKeyIndex index;
+    private final int userCount;
+    private final int[] itemUserCounts;
+    private final int[][] rowItems;
+    private final int[][] rowCounts;
+
+    private ItemCooccurrences(SortedKeyIndex idx, int users, int[] itemCounts, int[][] items, int[][] counts) {
+        index = idx;
+        userCount = users;
+        itemUserCounts = itemCounts;
+        rowItems = items;
+        rowCounts = counts;
+    }
+
+    /**
+     * Count item co-occurrences in the ratings of a DAO.
+     *
+     * @param dao The data access object.
+     * @return The co-occurrence counts of all rated items.
+     */
+    public static ItemCooccurrences count(DataAccessObject dao) {
+        // items get dense IDs in the order we first see them; we sort them out at the end
+        Long2IntMap denseIds = new Long2IntOpenHashMap();
+        denseIds.defaultReturnValue(-1);
+        LongArrayList itemIds = new LongArrayList();
+        List<Int2IntOpenHashMap> rows = new ArrayList<>();
+        int users = 0;
+        int[] userItems = new int[16];
+
+        try (ObjectStream<IdBox<List<Rating>>> ratingStream = dao.query(Rating.class)
+                                                                 .groupBy(CommonAttributes.USER_ID)
+                                                                 .stream()) {
+            for (IdBox<List<Rating>> user: ratingStream) {
+                List<Rating> ratings = user.getValue();
+                userItems = IntArrays.grow(userItems, ratings.size());
+                int n = 0;
+                for (Rating r: ratings) {
+                    long item = r.getItemId();
+                    int id = denseIds.get(item);
+                    if (id < 0) {
+                        id = itemIds.size();
+                        denseIds.put(item, id);
+                        itemIds.add(item);
+                        rows.add(new Int2IntOpenHashMap());
+                    }
+                    userItems[n++] = id;
+                }
+
+                // a user counts once per item, even if they rated it more than once
+                n = unique(userItems, n);
+                for (int i = 0; i < n; i++) {
+                    Int2IntOpenHashMap row = rows.get(userItems[i]);
+                    row.addTo(userItems[i], 1);
+                    for (int j = i + 1; j < n; j++) {
+                        row.addTo(userItems[j], 1);
+                        rows.get(userItems[j]).addTo(userItems[i], 1);
+                    }
+                }
+                users += 1;
+            }
+        }
+
+        // now re-key everything by position in the sorted item index
+        SortedKeyIndex idx = SortedKeyIndex.fromCollection(itemIds);
+        int nItems = idx.size();
+        int[] positions = new int[nItems];
+        for (int d = 0; d < nItems; d++) {
+            positions[d] = idx.getIndex(itemIds.getLong(d));
+        }
+
+        int[] itemCounts = new int[nItems];
+        int[][] items = new int[nItems][];
+        int[][] counts = new int[nItems][];
+        long pairs = 0;
+        for (int d = 0; d < nItems; d++) {
+            int pos = positions[d];
+            Int2IntOpenHashMap row = rows.get(d);
+            // the diagonal holds the number of users who rated the item
+            itemCounts[pos] = row.remove(d);
+            int[] rItems = new int[row.size()];
+            int[] rCounts = new int[row.size()];
+            int k = 0;
+            for (Int2IntMap.Entry e: row.int2IntEntrySet()) {
+                rItems[k] = positions[e.getIntKey()];
+                rCounts[k] = e.getIntValue();
+                k++;
+            }
+            items[pos] = rItems;
+            counts[pos] = rCounts;
+            pairs += k;
+            // release the hash row as soon as it is copied
+            rows.set(d, null);
+        }
+
+        logger.info("counted {} co-occurring item pairs for {} items from {} users", pairs, nItems, users);
+        return new ItemCooccurrences(idx, users, itemCounts, items, counts);
+    }
+
+    /**
+     * Sort the first {@code n} elements of an array and remove duplicates.
+     * @return The number of distinct elements, now at the front of the array.
+     */
+    private static int unique(int[] array, int n) {
+        if (n < 2) {
+            return n;
+        }
+        IntArrays.quickSort(array, 0, n);
+        int k = 1;
+        for (int i = 1; i < n; i++) {
+            if (array[i] != array[k - 1]) {
+                array[k++] = array[i];
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Get the index of items that have been counted.
+     * @return The item index.
+     */
+    public SortedKeyIndex getItemIndex() {
+        return index;
+    }
+
+    /**
+     * Get the number of users with at least one rating.
+     * @return The number of users.
+     */
+    public int getUserCount() {
+        return userCount;
+    }
+
+    /**
+     * Get the number of users who rated an item.
+     * @param item The position of the item in the item index.
+     * @return The number of users who rated the item.
+     */
+    public int getItemUserCount(int item) {
+        return itemUserCounts[item];
+    }
+
+    /**
+     * Get the number of items that co-occur with an item.
+     * @param item The position of the item in the item index.
+     * @return The number of other items rated by at least one of the same users.
+     */
+    public int getRowSize(int item) {
+        return rowItems[item].length;
+    }
+
+    /**
+     * Get the items that co-occur with an item.  The returned array is shared and must not be modified.
+     * @param item The position of the item in the item index.
+     * @return The positions of the items rated together with {@code item}.
+     */
+    public int[] getRowItems(int item) {
+        return rowItems[item];
+    }
+
+    /**
+     * Get the co-occurrence counts of an item.  The returned array is shared and must not be modified.
+     * @param item The position of the item in the item index.
+     * @return For each item in {@link #getRowItems(int)}, the number of users who rated both it and {@code item},
+     *         as a parallel array.
+     */
+    public int[] getRowCounts(int item) {
+        return rowCounts[item];
+    }
+}
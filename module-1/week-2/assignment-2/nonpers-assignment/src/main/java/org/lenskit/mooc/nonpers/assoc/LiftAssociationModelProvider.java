@@ -1,19 +1,13 @@
 package org.lenskit.mooc.nonpers.assoc;
 
-import it.unimi.dsi.fastutil.longs.*;
 import org.lenskit.data.dao.DataAccessObject;
-import org.lenskit.data.entities.CommonAttributes;
-import org.lenskit.data.ratings.Rating;
 import org.lenskit.inject.Transient;
-import org.lenskit.util.IdBox;
-import org.lenskit.util.collections.LongUtils;
-import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.SortedKeyIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
-import java.util.List;
 
 /**
  * Build an association rule model using a lift metric.
@@ -21,70 +15,57 @@ import java.util.List;
 public class LiftAssociationModelProvider implements Provider<AssociationModel> {
     private static final Logger logger = LoggerFactory.getLogger(LiftAssociationModelProvider.class);
     private final DataAccessObject dao;
-
+    private final int modelSize;
+    private final double threshold;
+
+    /**
+     * Construct the model provider.
+     *
+     * @param dao       The data access object.
+     * @param size      The number of associations to keep for each reference item (0 to keep all).
+     * @param threshold The minimum association score to keep.
+     */
     @Inject
-    public LiftAssociationModelProvider(@Transient DataAccessObject dao) {
+    public LiftAssociationModelProvider(@Transient DataAccessObject dao,
+                                        @AssociationModelSize int size,
+                                        @AssociationThreshold double threshold) {
         this.dao = dao;
+        modelSize = size;
+        this.threshold = threshold;
     }
 
     @Override
     public AssociationModel get() {
-        // First step: map each item to the set of users who have rated it.
-        // While we're at it, compute the set of all users.
-
-        // This set contains all users.
-        LongSet allUsers = new LongOpenHashSet();
-
-        // This map will map each item ID to the set of users who have rated it.
-        Long2ObjectMap<LongSortedSet> itemUsers = new Long2ObjectOpenHashMap<>();
-
-        // Open a stream, grouping ratings by item ID
-        try (ObjectStream<IdBox<List<Rating>>> ratingStream = dao.query(Rating.class)
-                                                                 .groupBy(CommonAttributes.ITEM_ID)
-                                                                 .stream()) {
-            // Process each item's ratings
-            for (IdBox<List<Rating>> item: ratingStream) {
-                // Build a set of users.  We build an array first, then convert to a set.
-                LongList users = new LongArrayList();
-                // Add each rating's user ID to the user sets
-                for (Rating r: item.getValue()) {
-                    long user = r.getUserId();
-                    users.add(user);
-                    allUsers.add(user);
-                }
-                // put this item's user set into the item user map
-                // a frozen set will be very efficient later
-                itemUsers.put(item.getId(), LongUtils.frozenSet(users));
-            }
-        }
-
-        // Second step: compute all association rules
-
-        // We need a map to store them
-        Long2ObjectMap<Long2DoubleMap> assocMatrix = new Long2ObjectOpenHashMap<>();
-
+        // First step: count how many users rated each item, and each pair of items.
+        // This takes a single pass over the ratings, grouped by user, and also counts all users.
+        ItemCooccurrences counts = ItemCooccurrences.count(dao);
+        SortedKeyIndex index = counts.getItemIndex();
+        double userCount = counts.getUserCount();
+
+        // Second step: compute all association rules, and store them in a sparse model builder one row at a time.
+        AssociationModelBuilder builder = new AssociationModelBuilder(index, modelSize, threshold);
+        // work arrays to hold the scores for each 'y' item; they are refilled for every 'x'
+        int[] yItems = new int[index.size()];
+        double[] yScores = new double[index.size()];
 
         // then loop over 'x' items
-        for (Long2ObjectMap.Entry<LongSortedSet> xEntry: itemUsers.long2ObjectEntrySet()) {
-            long xId = xEntry.getLongKey();
-            LongSortedSet xUsers = xEntry.getValue();
-
-            // set up a map to hold the scores for each 'y' item
-            Long2DoubleMap itemScores = new Long2DoubleOpenHashMap();
-
-            // TODO Compute lift association formulas for all other 'Y' items with respect to this 'X'
-            for (Long2ObjectMap.Entry<LongSortedSet> yEntry: itemUsers.long2ObjectEntrySet()) {
-                long yId = yEntry.getLongKey();
-                LongSortedSet yUsers = yEntry.getValue();
-
-                long yxUsersCount = yUsers.stream().filter(xUsers::contains).count();
-                itemScores.put(yId, (double) yxUsersCount / (xUsers.size() * yUsers.size()) * allUsers.size());
+        for (int x = 0; x < index.size(); x++) {
+            int[] coItems = counts.getRowItems(x);
+            int[] coCounts = counts.getRowCounts(x);
+            double xCount = counts.getItemUserCount(x);
+
+            // Compute lift association formulas for the 'Y' items that share at least one user with this 'X';
+            // all others score 0
+            for (int k = 0; k < coItems.length; k++) {
+                int y = coItems[k];
+                yItems[k] = y;
+                yScores[k] = coCounts[k] * userCount / (xCount * counts.getItemUserCount(y));
             }
 
-            // save the score map to the main map
-            assocMatrix.put(xId, itemScores);
+            // truncate the scores and save them in the model
+            builder.addRow(x, yItems, yScores, coItems.length);
         }
 
-        return new AssociationModel(assocMatrix);
+        return builder.build();
     }
 }
@@ -1,21 +1,14 @@
 package org.lenskit.mooc.nonpers.mean;
 
-import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
-import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import com.google.common.base.Preconditions;
 import org.lenskit.baseline.MeanDamping;
 import org.lenskit.data.dao.DataAccessObject;
-import org.lenskit.data.ratings.Rating;
 import org.lenskit.inject.Transient;
-import org.lenskit.util.io.ObjectStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.DoubleAccumulator;
-import java.util.function.*;
 
 /**
  * Provider class that builds the mean rating item scorer, computing damped item means from the
@@ -35,11 +28,15 @@ public class DampedItemMeanModelProvider implements Provider<ItemMeanModel> {
      * The damping factor.
      */
     private final double damping;
+    /**
+     * The number of threads to accumulate rating statistics with.
+     */
+    private final int threadCount;
 
     /**
      * Constructor for the mean item score provider.
      *
-     * <p>The {@code @Inject} annotation tells LensKit to use this constructor.
+     * <p>This accumulates the ratings on the calling thread.
      *
      * @param dao The data access object (DAO), where the builder will get ratings.  The {@code @Transient}
      *            annotation on this parameter means that the DAO will be used to build the model, but the
@@ -49,11 +46,28 @@ public class DampedItemMeanModelProvider implements Provider<ItemMeanModel> {
      *                assume.  It is provided as a parameter so that it can be reconfigured.  See the file
      *                {@code damped-mean.groovy} for how it is used.
      */
-    @Inject
     public DampedItemMeanModelProvider(@Transient DataAccessObject dao,
                                        @MeanDamping double damping) {
+        this(dao, damping, 1);
+    }
+
+    /**
+     * Constructor for the mean item score provider, accumulating the ratings with several threads.
+     *
+     * <p>The {@code @Inject} annotation tells LensKit to use this constructor.
+     *
+     * @param dao The data access object (DAO), where the builder will get ratings.
+     * @param damping The damping factor for Bayesian damping.
+     * @param threads The number of threads to accumulate rating statistics with (0 for one per processor).
+     */
+    @Inject
+    public DampedItemMeanModelProvider(@Transient DataAccessObject dao,
+                                       @MeanDamping double damping,
+                                       @MeanBuildThreads int threads) {
+        Preconditions.checkArgument(threads >= 0, "negative thread count %s", threads);
         this.dao = dao;
         this.damping = damping;
+        threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
     }
 
     /**
@@ -65,36 +79,13 @@ public class DampedItemMeanModelProvider implements Provider<ItemMeanModel> {
      */
     @Override
     public ItemMeanModel get() {
-        final Map<Long, DoubleAccumulator> sumRatings = new HashMap<>();
-        final Map<Long, Integer> itemCounts = new HashMap<>();
-        int globalCount = 0;
-
-        try (ObjectStream<Rating> ratings = dao.query(Rating.class).stream()) {
-
-            for (Rating r : ratings) {
-                globalCount = globalCount + 1;
-                sumRatings.computeIfAbsent(r.getItemId(), aLong -> new DoubleAccumulator(Double::sum, 0.0)).accumulate(r.getValue());
-
-                itemCounts.merge(r.getItemId(), 1, Integer::sum);
-            }
-        }
-
-        final Double globalMean = sumRatings.values().stream().map(DoubleAccumulator::get).reduce(0.0, Double::sum) / globalCount;
-
-        final Double d = this.damping;
-        final Long2DoubleOpenHashMap means = new Long2DoubleOpenHashMap();
+        // One pass over the ratings gives each item's rating count and sum, and the global mean
+        ItemRatingStats stats = ItemRatingStats.compute(dao, threadCount);
 
-        for (Map.Entry<Long, DoubleAccumulator> entry : sumRatings.entrySet()) {
-            Long itemId = entry.getKey();
-            DoubleAccumulator acc = entry.getValue();
-            int total = itemCounts.getOrDefault(itemId, 0);
-            if (total > 0) {
-                Double mean = (acc.get() + d * globalMean) / (total + damping);
-                means.put(itemId, mean);
-            }
-        }
+        // Each item's mean is computed as if it had `damping` extra ratings at the global mean
+        ItemMeanModel model = new ItemMeanModel(stats.getItemMeans(damping));
 
-        logger.info("computed mean ratings for {} items", means.size());
-        return new ItemMeanModel(means);
+        logger.info("computed mean ratings for {} items", stats.getItemIndex().size());
+        return model;
     }
 }
@@ -1,7 +1,11 @@
 package org.lenskit.mooc.nonpers.mean;
 
 import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongLists;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.inject.Shareable;
@@ -20,15 +24,19 @@ import java.util.Map;
  * <p>The {@link DefaultProvider} annotation tells LensKit to use a <em>provider class</em> &mdash; the mean item scorer
  * provider &mdash; to create instances of this class.</p>
  *
+ * <p>The model also ranks its items by decreasing mean rating when it is built, so recommenders that only need the
+ * highest-rated items can read them off the front of the ranking instead of sorting all items.</p>
+ *
  * <p>You <strong>should not</strong> need to make any changes to this class.</p>
  */
 @Shareable
 @Immutable
 @DefaultProvider(ItemMeanModelProvider.class)
 public class ItemMeanModel implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
     private final Long2DoubleMap itemMeans;
+    private final long[] rankedItems;
 
     /**
      * Construct a new item mean model.
@@ -36,6 +44,25 @@ public class ItemMeanModel implements Serializable {
      */
     public ItemMeanModel(Map<Long, Double> means) {
         itemMeans = LongUtils.frozenMap(means);
+
+        long[] items = itemMeans.keySet().toLongArray();
+        double[] values = itemMeans.values().toDoubleArray();
+        // rank by decreasing mean, breaking ties by increasing item ID
+        it.unimi.dsi.fastutil.Arrays.quickSort(0, items.length, new AbstractIntComparator() {
+            @Override
+            public int compare(int i1, int i2) {
+                int cmp = Double.compare(values[i2], values[i1]);
+                return cmp != 0 ? cmp : Long.compare(items[i1], items[i2]);
+            }
+        }, (i, j) -> {
+            long ti = items[i];
+            items[i] = items[j];
+            items[j] = ti;
+            double tv = values[i];
+            values[i] = values[j];
+            values[j] = tv;
+        });
+        rankedItems = items;
     }
 
     /**
@@ -46,6 +73,15 @@ public class ItemMeanModel implements Serializable {
         return itemMeans.keySet();
     }
 
+    /**
+     * Get the items known by the model, ranked by their mean ratings.
+     * @return The known items, in decreasing order of mean rating; items with the same mean are in increasing order
+     *         of ID.
+     */
+    public LongList getRankedItems() {
+        return LongLists.unmodifiable(LongArrayList.wrap(rankedItems));
+    }
+
     /**
      * Query whether this model knows about an item.
      * @param item The item ID.
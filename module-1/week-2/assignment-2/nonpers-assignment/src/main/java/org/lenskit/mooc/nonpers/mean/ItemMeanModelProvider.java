@@ -1,23 +1,13 @@
 package org.lenskit.mooc.nonpers.mean;
 
-import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
-import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import com.google.common.base.Preconditions;
 import org.lenskit.data.dao.DataAccessObject;
-import org.lenskit.data.ratings.Rating;
 import org.lenskit.inject.Transient;
-import org.lenskit.util.io.ObjectStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.DoubleAccumulator;
-import java.util.function.BiConsumer;
-import java.util.function.BiFunction;
-import java.util.function.DoubleBinaryOperator;
-import java.util.function.Function;
 
 /**
  * Provider class that builds the mean rating item scorer, computing item means from the
@@ -33,20 +23,39 @@ public class ItemMeanModelProvider implements Provider<ItemMeanModel> {
      * The data access object, to be used when computing the mean ratings.
      */
     private final DataAccessObject dao;
+    /**
+     * The number of threads to accumulate rating statistics with.
+     */
+    private final int threadCount;
 
     /**
      * Constructor for the mean item score provider.
      *
-     * <p>The {@code @Inject} annotation tells LensKit to use this constructor.
+     * <p>This accumulates the ratings on the calling thread.
      *
      * @param dao The data access object (DAO), where the builder will get ratings.  The {@code @Transient}
      *            annotation on this parameter means that the DAO will be used to build the model, but the
      *            model will <strong>not</strong> retain a reference to the DAO.  This is standard procedure
      *            for LensKit models.
      */
-    @Inject
     public ItemMeanModelProvider(@Transient DataAccessObject dao) {
+        this(dao, 1);
+    }
+
+    /**
+     * Constructor for the mean item score provider, accumulating the ratings with several threads.
+     *
+     * <p>The {@code @Inject} annotation tells LensKit to use this constructor.
+     *
+     * @param dao The data access object (DAO), where the builder will get ratings.
+     * @param threads The number of threads to accumulate rating statistics with (0 for one per processor).
+     */
+    @Inject
+    public ItemMeanModelProvider(@Transient DataAccessObject dao,
+                                 @MeanBuildThreads int threads) {
+        Preconditions.checkArgument(threads >= 0, "negative thread count %s", threads);
         this.dao = dao;
+        threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
     }
 
     /**
@@ -58,32 +67,11 @@ public class ItemMeanModelProvider implements Provider<ItemMeanModel> {
      */
     @Override
     public ItemMeanModel get() {
-        final Map<Long, DoubleAccumulator> sumRatings = new HashMap<>();
-        final Map<Long, Integer> itemCounts = new HashMap<>();
-
-        try (ObjectStream<Rating> ratings = dao.query(Rating.class).stream()) {
-            for (Rating r : ratings) {
-                sumRatings.computeIfAbsent(
-                        r.getItemId(),
-                        acc -> new DoubleAccumulator(Double::sum, 0.0)).accumulate(r.getValue());
-
-                itemCounts.merge(r.getItemId(), 1, Integer::sum);
-            }
-        }
-
-        final Long2DoubleOpenHashMap means = new Long2DoubleOpenHashMap();
-
-        for (Map.Entry<Long, DoubleAccumulator> entry : sumRatings.entrySet()) {
-            Long itemId = entry.getKey();
-            DoubleAccumulator acc = entry.getValue();
-            int total = itemCounts.getOrDefault(itemId, 0);
-            if (total > 0) {
-                Double mean = acc.get() / total;
-                means.put(itemId, mean);
-            }
-        }
+        // One pass over the ratings gives each item's rating count and sum
+        ItemRatingStats stats = ItemRatingStats.compute(dao, threadCount);
+        ItemMeanModel model = new ItemMeanModel(stats.getItemMeans(0));
 
-        logger.info("computed mean ratings for {} items", means.size());
-        return new ItemMeanModel(means);
+        logger.info("computed mean ratings for {} items", stats.getItemIndex().size());
+        return model;
     }
 }
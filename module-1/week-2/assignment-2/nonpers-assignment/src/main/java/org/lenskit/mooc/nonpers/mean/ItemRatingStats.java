@@ -0,0 +1,322 @@
+package org.lenskit.mooc.nonpers.mean;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Per-item rating statistics: the count, sum and sum of squares of each item's ratings, along with
+ * the same totals over all ratings.  They are computed in a single pass over the ratings, with
+ * primitive accumulators, and are enough to compute plain and damped item means as well as rating
+ * variances.
+ *
+ * <p>Items are identified by their position in the {@linkplain #getItemIndex() item index}.</p>
+ */
+public final class ItemRatingStats {
+    /**
+     * The number of ratings handed to a worker thread at a time.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    private final SortedKeyIndex index;
+    private final int[] counts;
+    private final double[] sums;
+    private final double[] sumSquares;
+    private final long totalCount;
+    private final double totalSum;
+    private final double totalSumSquares;
+
+    private ItemRatingStats(SortedKeyIndex idx, int[] counts, double[] sums, double[] sumSquares) {
+        index = idx;
+        this.counts = counts;
+        this.sums = sums;
+        this.sumSquares = sumSquares;
+        long n = 0;
+        double s = 0;
+        double ss = 0;
+        for (int i = 0; i < counts.length; i++) {
+            n += counts[i];
+            s += sums[i];
+            ss += sumSquares[i];
+        }
+        totalCount = n;
+        totalSum = s;
+        totalSumSquares = ss;
+    }
+
+    /**
+     * Compute the rating statistics of the items in a DAO.
+     *
+     * @param dao     The data access object.
+     * @param threads The number of threads to accumulate with.  With more than one thread, the
+     *                ratings are read in chunks by the calling thread and accumulated by a pool of
+     *                workers, each into its own partial statistics, which are merged at the end.
+     * @return The statistics of every rated item.
+     */
+    public static ItemRatingStats compute(DataAccessObject dao, int threads) {
+        Preconditions.checkArgument(threads > 0, "thread count %s is not positive", threads);
+        try (ObjectStream<Rating> ratings = dao.query(Rating.class).stream()) {
+            if (threads == 1) {
+                Accumulator acc = new Accumulator();
+                for (Rating r : ratings) {
+                    acc.add(r.getItemId(), r.getValue());
+                }
+                return acc.finish();
+            } else {
+                return computeParallel(ratings, threads);
+            }
+        }
+    }
+
+    private static ItemRatingStats computeParallel(ObjectStream<Rating> ratings, int threads) {
+        // each worker thread accumulates into its own partial statistics
+        List<Accumulator> partials = new CopyOnWriteArrayList<>();
+        ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(() -> {
+            Accumulator acc = new Accumulator();
+            partials.add(acc);
+            return acc;
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // bound the chunks waiting to be accumulated, so the stream does not run ahead of the workers
+        Semaphore pending = new Semaphore(threads * 2);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try {
+            long[] items = new long[CHUNK_SIZE];
+            double[] values = new double[CHUNK_SIZE];
+            int n = 0;
+            for (Rating r : ratings) {
+                items[n] = r.getItemId();
+                values[n] = r.getValue();
+                n += 1;
+                if (n == CHUNK_SIZE) {
+                    submit(pool, pending, failure, accumulators, items, values, n);
+                    if (failure.get() != null) {
+                        break;
+                    }
+                    items = new long[CHUNK_SIZE];
+                    values = new double[CHUNK_SIZE];
+                    n = 0;
+                }
+            }
+            if (n > 0 && failure.get() == null) {
+                submit(pool, pending, failure, accumulators, items, values, n);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        Throwable err = failure.get();
+        if (err != null) {
+            Throwables.propagateIfPossible(err);
+            throw new RuntimeException("error accumulating rating statistics", err);
+        }
+
+        Accumulator total = new Accumulator();
+        for (Accumulator acc : partials) {
+            total.merge(acc);
+        }
+        return total.finish();
+    }
+
+    /**
+     * Queue a chunk of ratings to be accumulated, waiting if too many chunks are already queued.
+     */
+    private static void submit(ExecutorService pool, Semaphore pending, AtomicReference<Throwable> failure,
+                               ThreadLocal<Accumulator> accumulators, long[] items, double[] values,
+                               int n) throws InterruptedException {
+        pending.acquire();
+        pool.execute(() -> {
+            try {
+                Accumulator acc = accumulators.get();
+                for (int i = 0; i < n; i++) {
+                    acc.add(items[i], values[i]);
+                }
+            } catch (Throwable th) {
+                failure.compareAndSet(null, th);
+            } finally {
+                pending.release();
+            }
+        });
+    }
+
+    /**
+     * Get the index of the rated items.
+     *
+     * @return The item index.
+     */
+    public SortedKeyIndex getItemIndex() {
+        return index;
+    }
+
+    /**
+     * Get the number of ratings of an item.
+     *
+     * @param i The item position.
+     * @return The number of ratings of the item.
+     */
+    public int getCount(int i) {
+        return counts[i];
+    }
+
+    /**
+     * Get the sum of an item's ratings.
+     *
+     * @param i The item position.
+     * @return The sum of the item's ratings.
+     */
+    public double getSum(int i) {
+        return sums[i];
+    }
+
+    /**
+     * Get the sum of the squares of an item's ratings.
+     *
+     * @param i The item position.
+     * @return The sum of the squares of the item's ratings.
+     */
+    public double getSumOfSquares(int i) {
+        return sumSquares[i];
+    }
+
+    /**
+     * Get the variance of an item's ratings.
+     *
+     * @param i The item position.
+     * @return The (population) variance of the item's ratings.
+     */
+    public double getVariance(int i) {
+        double mean = sums[i] / counts[i];
+        return Math.max(0, sumSquares[i] / counts[i] - mean * mean);
+    }
+
+    /**
+     * Get the total number of ratings.
+     *
+     * @return The number of ratings of all items.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Get the mean of all ratings.
+     *
+     * @return The global mean rating.
+     */
+    public double getGlobalMean() {
+        return totalSum / totalCount;
+    }
+
+    /**
+     * Get the variance of all ratings.
+     *
+     * @return The (population) variance of all ratings.
+     */
+    public double getGlobalVariance() {
+        double mean = getGlobalMean();
+        return Math.max(0, totalSumSquares / totalCount - mean * mean);
+    }
+
+    /**
+     * Compute item mean ratings.
+     *
+     * @param damping The number of global-mean ratings to add to each item's ratings (0 for plain
+     *                means).
+     * @return The mean rating of each rated item.
+     */
+    public Long2DoubleMap getItemMeans(double damping) {
+        double offset = damping > 0 ? damping * getGlobalMean() : 0;
+        double[] means = new double[counts.length];
+        for (int i = 0; i < means.length; i++) {
+            means[i] = (sums[i] + offset) / (counts[i] + damping);
+        }
+        return Long2DoubleSortedArrayMap.wrap(index, means);
+    }
+
+    /**
+     * Accumulator for the statistics of a stream of ratings, or of part of one.
+     */
+    private static class Accumulator {
+        private final Long2IntMap slots = new Long2IntOpenHashMap();
+        private final LongArrayList items = new LongArrayList();
+        private final IntArrayList counts = new IntArrayList();
+        private final DoubleArrayList sums = new DoubleArrayList();
+        private final DoubleArrayList sumSquares = new DoubleArrayList();
+
+        Accumulator() {
+            slots.defaultReturnValue(-1);
+        }
+
+        private int slot(long item) {
+            int slot = slots.get(item);
+            if (slot < 0) {
+                slot = items.size();
+                slots.put(item, slot);
+                items.add(item);
+                counts.add(0);
+                sums.add(0);
+                sumSquares.add(0);
+            }
+            return slot;
+        }
+
+        void add(long item, double value) {
+            int slot = slot(item);
+            counts.elements()[slot] += 1;
+            sums.elements()[slot] += value;
+            sumSquares.elements()[slot] += value * value;
+        }
+
+        void merge(Accumulator other) {
+            for (int k = 0; k < other.items.size(); k++) {
+                int slot = slot(other.items.getLong(k));
+                counts.elements()[slot] += other.counts.getInt(k);
+                sums.elements()[slot] += other.sums.getDouble(k);
+                sumSquares.elements()[slot] += other.sumSquares.getDouble(k);
+            }
+        }
+
+        ItemRatingStats finish() {
+            SortedKeyIndex idx = SortedKeyIndex.fromCollection(items);
+            int n = idx.size();
+            int[] c = new int[n];
+            double[] s = new double[n];
+            double[] ss = new double[n];
+            for (int k = 0; k < items.size(); k++) {
+                int i = idx.getIndex(items.getLong(k));
+                c[i] = counts.getInt(k);
+                s[i] = sums.getDouble(k);
+                ss[i] = sumSquares.getDouble(k);
+            }
+            return new ItemRatingStats(idx, c, s, ss);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.lenskit.mooc.nonpers.mean;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * The number of threads to accumulate item rating statistics with.  A value of 0 uses one thread
+ * per available processor; the default of 1 accumulates on the thread reading the ratings.
+ */
+@Documented
+@DefaultInteger(1)
+@Parameter(Integer.class)
+@Qualifier
+@Target({ElementType.METHOD, ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface MeanBuildThreads {
+}
@@ -1,10 +1,13 @@
 package org.lenskit.mooc.nonpers.mean;
 
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
-import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemBasedItemRecommender;
+import org.lenskit.mooc.nonpers.TopNSelector;
 import org.lenskit.results.Results;
 import org.lenskit.util.collections.LongUtils;
 import org.slf4j.Logger;
@@ -12,10 +15,9 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
-import java.util.*;
-import java.util.function.Function;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 /**
  * An item scorer that scores each item with its mean rating.
@@ -42,20 +44,32 @@ public class MeanItemBasedItemRecommender extends AbstractItemBasedItemRecommend
     /**
      * {@inheritDoc}
      * <p>
-     * This is the LensKit recommend method.  It takes several parameters; we implement it for you in terms of a
-     * simpler method ({@link #recommendItems(int, LongSet)}).
+     * This is the LensKit recommend method.  It takes several parameters; we implement it for you in terms of two
+     * simpler methods.  The basket does not affect the recommendations, so unless the candidates are few enough
+     * that scoring them directly is cheaper, this reads the top items off the model's precomputed ranking with
+     * {@link #recommendFromRanking(int, LongSet, LongSet)}; otherwise it scores the candidates with
+     * {@link #recommendItems(int, LongSet)}.
      */
     @Override
     public ResultList recommendRelatedItemsWithDetails(Set<Long> basket, int n, @Nullable Set<Long> candidates, @Nullable Set<Long> exclude) {
-        LongSet items;
+        LongSet excluded = exclude != null ? LongUtils.asLongSet(exclude) : LongSets.EMPTY_SET;
+
         if (candidates == null) {
-            items = model.getKnownItems();
-        } else {
-            items = LongUtils.asLongSet(candidates);
+            logger.info("computing {} recommendations from ranking of {} items", n, model.getKnownItems().size());
+            return recommendFromRanking(n, null, excluded);
+        }
+
+        LongSet items = LongUtils.asLongSet(candidates);
+        // Walking the ranking meets a candidate about every (known / candidates) items, so it finds n of them after
+        // about n * known / candidates steps; scoring the candidates directly takes one step per candidate.
+        long known = model.getKnownItems().size();
+        if (n >= 0 && n * known < (long) items.size() * items.size()) {
+            logger.info("computing {} recommendations from ranking of {} candidates", n, items.size());
+            return recommendFromRanking(n, items, excluded);
         }
 
         if (exclude != null) {
-            items = LongUtils.setDifference(items, LongUtils.asLongSet(exclude));
+            items = LongUtils.setDifference(items, excluded);
         }
 
         logger.info("computing {} recommendations from {} items", n, items.size());
@@ -64,33 +78,48 @@ public class MeanItemBasedItemRecommender extends AbstractItemBasedItemRecommend
     }
 
     /**
-     * Recommend some items from a set of candidate items.
+     * Recommend the first items in the model's ranking.  This stops as soon as it has found {@code n} items, so it
+     * takes time proportional to the number of items it has to skip rather than to the number of known items.
      *
-     * <p>Your code needs to obtain the mean rating, if one is available, for each item, and return a list of the
-     * {@code n} highest-rated items, in decreasing order of score.</p>
-     *
-     * <p>To create the {@link ResultMap} data structure, do the following:</p>
+     * @param n          The number of items to recommend.  If this is negative, then recommend all possible items.
+     * @param candidates The items that may be recommended, or {@code null} to allow all known items.
+     * @param exclude    The items that may not be recommended.
+     * @return The recommendations, in decreasing order of score.
+     */
+    private ResultList recommendFromRanking(int n, @Nullable LongSet candidates, LongSet exclude) {
+        LongList ranking = model.getRankedItems();
+        List<Result> results = new ArrayList<>(n >= 0 ? Math.min(n, ranking.size()) : ranking.size());
+        for (int i = 0; i < ranking.size() && (n < 0 || results.size() < n); i++) {
+            long item = ranking.getLong(i);
+            if ((candidates == null || candidates.contains(item)) && !exclude.contains(item)) {
+                results.add(Results.create(item, model.getMeanRating(item)));
+            }
+        }
+
+        return Results.newResultList(results);
+    }
+
+    /**
+     * Recommend some items from a set of candidate items.
      *
-     * <ol>
-     *     <li>Create a {@link List} to hold {@link Result} objects.</li>
-     *     <li>Create a result object for each item that can be scored.  Use {@link Results#create(long, double)} to
-     *     create the result object. If an item cannot be scored (because there is no mean available), ignore it and
-     *     do not add a result to the list.</li>
-     *     <li>Convert the list of results to a {@link ResultList} using {@link Results#newResultList(List)}.</li>
-     * </ol>
+     * <p>This scores each candidate that has a mean rating with that mean, and keeps only the {@code n} best in a
+     * {@link TopNSelector}, so only the recommended items are turned into {@link Result} objects.  Items without a
+     * mean rating are skipped.</p>
      *
      * @param n     The number of items to recommend.  If this is negative, then recommend all possible items.
      * @param items The items to score.
-     * @return A {@link ResultMap} containing the scores.
+     * @return A {@link ResultList} containing the recommendations, in decreasing order of score.
      */
     private ResultList recommendItems(int n, LongSet items) {
-        List<Result> results = items.stream()
-                .filter(model::hasItem)
-                .map(e -> Results.create(e, model.getMeanRating(e)))
-                .sorted((o1, o2) -> Double.compare(o1.getScore(), o2.getScore()) * -1)
-                .limit(n)
-                .collect(Collectors.toList());
+        TopNSelector selector = new TopNSelector(n);
+        LongIterator iter = items.iterator();
+        while (iter.hasNext()) {
+            long item = iter.nextLong();
+            if (model.hasItem(item)) {
+                selector.offer(item, model.getMeanRating(item));
+            }
+        }
 
-        return Results.newResultList(results);
+        return selector.finish();
     }
 }
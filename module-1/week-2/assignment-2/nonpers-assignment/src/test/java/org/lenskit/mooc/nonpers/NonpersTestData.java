@@ -0,0 +1,55 @@
+package org.lenskit.mooc.nonpers;
+
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Rating data for the non-personalized tests.
+ */
+public final class NonpersTestData {
+    private NonpersTestData() {
+    }
+
+    /**
+     * Create random half-star ratings.  Users and items are numbered from 1.
+     * @param seed The random seed.
+     * @param users The number of users.
+     * @param items The number of items.
+     * @param density The probability that a user rates an item.
+     * @return The ratings.
+     */
+    public static List<Entity> randomRatings(long seed, int users, int items, double density) {
+        Random rng = new Random(seed);
+        EntityFactory factory = new EntityFactory();
+        List<Entity> ratings = new ArrayList<>();
+        for (long user = 1; user <= users; user++) {
+            for (long item = 1; item <= items; item++) {
+                if (rng.nextDouble() < density) {
+                    ratings.add(factory.rating(user, item, 0.5 * (1 + rng.nextInt(10))));
+                }
+            }
+        }
+        return ratings;
+    }
+
+    /**
+     * Create a DAO over ratings, with the users and items derived from them.
+     * @param ratings The ratings.
+     * @return The data access object.
+     */
+    public static DataAccessObject createDAO(List<Entity> ratings) {
+        StaticDataSource data = new StaticDataSource("test");
+        data.addSource(ratings);
+        data.addDerivedEntity(CommonTypes.USER, CommonTypes.RATING, CommonAttributes.USER_ID);
+        data.addDerivedEntity(CommonTypes.ITEM, CommonTypes.RATING, CommonAttributes.ITEM_ID);
+        return data.get();
+    }
+}
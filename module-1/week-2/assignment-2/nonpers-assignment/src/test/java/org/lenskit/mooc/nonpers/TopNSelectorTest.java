@@ -0,0 +1,138 @@
+package org.lenskit.mooc.nonpers;
+
+import org.junit.Test;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the bounded top-N selector, against sorting all the offered items.
+ */
+public class TopNSelectorTest {
+    @Test
+    public void testEmpty() {
+        TopNSelector sel = new TopNSelector(5);
+        assertThat(sel.size(), equalTo(0));
+        assertThat(sel.finish().size(), equalTo(0));
+    }
+
+    @Test
+    public void testSelectNone() {
+        TopNSelector sel = new TopNSelector(0);
+        sel.offer(1, 5.0);
+        sel.offer(2, 3.0);
+        assertThat(sel.size(), equalTo(0));
+        assertThat(sel.finish().size(), equalTo(0));
+    }
+
+    @Test
+    public void testNegativeSelectsAll() {
+        TopNSelector sel = new TopNSelector(-1);
+        // more than the initial capacity, so the arrays grow
+        for (long item = 1; item <= 40; item++) {
+            sel.offer(item, item % 7);
+        }
+        assertThat(sel.size(), equalTo(40));
+        ResultList results = sel.finish();
+        assertThat(results.size(), equalTo(40));
+        assertSorted(results);
+        assertThat(results.get(0).getId(), equalTo(6L));
+        assertThat(results.get(39).getId(), equalTo(35L));
+    }
+
+    @Test
+    public void testTiesRankLowerIdFirst() {
+        TopNSelector sel = new TopNSelector(3);
+        sel.offer(5, 1.0);
+        sel.offer(3, 1.0);
+        sel.offer(4, 2.0);
+        sel.offer(1, 1.0);
+        sel.offer(2, 0.5);
+        // 5 is the lowest-ranked of the items scoring 1.0, so it is the one dropped
+        assertThat(sel.finish().idList(), equalTo(Arrays.asList(4L, 1L, 3L)));
+    }
+
+    @Test
+    public void testFinishClears() {
+        TopNSelector sel = new TopNSelector(2);
+        sel.offer(1, 1.0);
+        sel.offer(2, 2.0);
+        assertThat(sel.finish().idList(), equalTo(Arrays.asList(2L, 1L)));
+        assertThat(sel.size(), equalTo(0));
+        sel.offer(3, 0.0);
+        assertThat(sel.finish().idList(), equalTo(Arrays.asList(3L)));
+    }
+
+    @Test
+    public void testMatchesSort() {
+        Random rng = new Random(42);
+        for (int n : new int[]{1, 3, 10, 100, 500}) {
+            TopNSelector sel = new TopNSelector(n);
+            List<long[]> offered = new ArrayList<>();
+            for (long item = 1; item <= 200; item++) {
+                // few distinct scores, so there are many ties
+                int score = rng.nextInt(20) - 5;
+                offered.add(new long[]{item, score});
+                sel.offer(item, score);
+            }
+            assertThat(sel.finish().idList(), equalTo(sortedTop(offered, n)));
+        }
+    }
+
+    @Test
+    public void testMergeMatchesSort() {
+        Random rng = new Random(17);
+        for (int n : new int[]{0, 5, 50, -1}) {
+            TopNSelector[] parts = new TopNSelector[4];
+            for (int p = 0; p < parts.length; p++) {
+                parts[p] = new TopNSelector(n);
+            }
+            List<long[]> offered = new ArrayList<>();
+            for (long item = 1; item <= 300; item++) {
+                int score = rng.nextInt(30);
+                offered.add(new long[]{item, score});
+                parts[rng.nextInt(parts.length)].offer(item, score);
+            }
+
+            TopNSelector merged = new TopNSelector(n);
+            for (TopNSelector part : parts) {
+                merged.addAll(part);
+            }
+            assertThat(merged.finish().idList(), equalTo(sortedTop(offered, n)));
+        }
+    }
+
+    /**
+     * Sort offered (item, score) pairs by decreasing score and then increasing item, and take the first n items.
+     */
+    private static List<Long> sortedTop(List<long[]> offered, int n) {
+        List<long[]> sorted = new ArrayList<>(offered);
+        sorted.sort(Comparator.<long[]>comparingLong(e -> -e[1]).thenComparingLong(e -> e[0]));
+        List<Long> ids = new ArrayList<>();
+        for (long[] e : sorted) {
+            if (n >= 0 && ids.size() >= n) {
+                break;
+            }
+            ids.add(e[0]);
+        }
+        return ids;
+    }
+
+    private static void assertSorted(ResultList results) {
+        for (int i = 1; i < results.size(); i++) {
+            Result prev = results.get(i - 1);
+            Result cur = results.get(i);
+            assertThat(prev.getScore() > cur.getScore()
+                               || (prev.getScore() == cur.getScore() && prev.getId() < cur.getId()),
+                       equalTo(true));
+        }
+    }
+}
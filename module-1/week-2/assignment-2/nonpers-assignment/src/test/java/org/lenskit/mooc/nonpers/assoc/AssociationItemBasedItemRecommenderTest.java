@@ -0,0 +1,264 @@
+package org.lenskit.mooc.nonpers.assoc;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultList;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.mooc.nonpers.NonpersTestData;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for recommending from multi-item baskets with association rules.
+ */
+public class AssociationItemBasedItemRecommenderTest {
+    private static final int USERS = 30;
+    private static final int ITEMS = 20;
+
+    private static final double EPSILON = 1.0e-10;
+
+    private AssociationModel model;
+    /**
+     * A model with sparse rows of positive and negative scores.
+     */
+    private AssociationModel signedModel;
+
+    @Before
+    public void buildModel() {
+        DataAccessObject dao = NonpersTestData.createDAO(NonpersTestData.randomRatings(42, USERS, ITEMS, 1.0 / 3));
+        model = new BasicAssociationModelProvider(dao, 0, 0).get();
+
+        Random rng = new Random(43);
+
+        List<Long> ids = new ArrayList<>();
+        for (long item = 1; item <= ITEMS; item++) {
+            ids.add(item * 10);
+        }
+        AssociationModelBuilder builder = new AssociationModelBuilder(SortedKeyIndex.fromCollection(ids), 0,
+                                                                      Double.NEGATIVE_INFINITY);
+        int[] items = new int[ITEMS];
+        double[] scores = new double[ITEMS];
+        for (int x = 0; x < ITEMS; x++) {
+            int n = 0;
+            for (int y = 0; y < ITEMS; y++) {
+                // about half the items are missing from each row, and a third of the stored scores are negative
+                if (rng.nextBoolean()) {
+                    items[n] = y;
+                    scores[n] = (rng.nextInt(3) == 0 ? -1 : 1) * 0.25 * (1 + rng.nextInt(8));
+                    n++;
+                }
+            }
+            builder.addRow(x, items, scores, n);
+        }
+        signedModel = builder.build();
+    }
+
+    /**
+     * Combine an item's associations with each basket item by brute force, looking every pair up in the model.
+     */
+    private static double bruteForce(AssociationModel m, List<Long> basket, long item, BasketScores.Aggregate agg) {
+        double sum = 0;
+        double max = Double.NEGATIVE_INFINITY;
+        for (long ref : basket) {
+            double score = m.getItemAssociation(ref, item);
+            sum += score;
+            max = Math.max(max, score);
+        }
+        switch (agg) {
+        case SUM:
+            return sum;
+        case MAX:
+            return max;
+        case MEAN:
+            return sum / basket.size();
+        default:
+            throw new IllegalArgumentException(agg.toString());
+        }
+    }
+
+    @Test
+    public void testMergeMatchesBruteForce() {
+        SortedKeyIndex index = signedModel.getIndex();
+        List<List<Long>> baskets = Arrays.asList(Arrays.asList(10L),
+                                                 Arrays.asList(10L, 20L),
+                                                 Arrays.asList(30L, 70L, 110L, 150L),
+                                                 Arrays.asList(20L, 40L, 60L, 80L, 100L, 120L, 140L));
+        for (List<Long> basket : baskets) {
+            int[] refs = new int[basket.size()];
+            for (int r = 0; r < refs.length; r++) {
+                refs[r] = index.getIndex(basket.get(r));
+            }
+            for (BasketScores.Aggregate agg : BasketScores.Aggregate.values()) {
+                BasketScores scores = BasketScores.merge(signedModel, refs, agg);
+                for (int i = 1; i < scores.size(); i++) {
+                    assertTrue(scores.getItem(i - 1) < scores.getItem(i));
+                }
+                for (int pos = 0; pos < index.size(); pos++) {
+                    assertEquals(agg + " score of item " + index.getKey(pos),
+                                 bruteForce(signedModel, basket, index.getKey(pos), agg), scores.lookup(pos),
+                                 EPSILON);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMaxClampsMissingItems() {
+        // find two reference items and an item with a negative score for the first and none for the second
+        SortedKeyIndex index = signedModel.getIndex();
+        for (int a = 0; a < ITEMS; a++) {
+            for (int k = 0; k < signedModel.getRowSize(a); k++) {
+                int y = signedModel.getRowItem(a, k);
+                if (signedModel.getRowScore(a, k) >= 0) {
+                    continue;
+                }
+                for (int b = 0; b < ITEMS; b++) {
+                    if (b != a && b != y && signedModel.getItemAssociation(index.getKey(b), index.getKey(y)) == 0) {
+                        BasketScores max = BasketScores.merge(signedModel, new int[]{a, b}, BasketScores.Aggregate.MAX);
+                        assertEquals(0, max.lookup(y), EPSILON);
+                        BasketScores only = BasketScores.merge(signedModel, new int[]{a}, BasketScores.Aggregate.MAX);
+                        assertEquals(signedModel.getRowScore(a, k), only.lookup(y), EPSILON);
+                        return;
+                    }
+                }
+            }
+        }
+        throw new AssertionError("no negative score with a missing pair in the test model");
+    }
+
+    @Test
+    public void testRecommendedScoresMatchBruteForce() {
+        List<Long> basket = Arrays.asList(30L, 70L, 110L);
+        Set<Long> candidates = new HashSet<>(signedModel.getKnownItems());
+        for (BasketScores.Aggregate agg : BasketScores.Aggregate.values()) {
+            AssociationItemBasedItemRecommender rec =
+                    new AssociationItemBasedItemRecommender(signedModel, agg.name().toLowerCase(Locale.ROOT));
+            for (Set<Long> cands : Arrays.asList(null, candidates)) {
+                ResultList results = rec.recommendRelatedItemsWithDetails(new HashSet<>(basket), -1, cands, null);
+                assertThat(results.size(), equalTo(ITEMS - basket.size()));
+                for (Result r : results) {
+                    assertEquals(bruteForce(signedModel, basket, r.getId(), agg), r.getScore(), EPSILON);
+                }
+            }
+
+            // an unknown basket item adds nothing, and MEAN divides by the number of known basket items
+            ResultList withUnknown = rec.recommendRelatedItemsWithDetails(ImmutableSet.of(30L, 70L, 110L, 999999L),
+                                                                          -1, null, null);
+            assertThat(withUnknown.size(), equalTo(ITEMS - basket.size()));
+            for (Result r : withUnknown) {
+                assertEquals(bruteForce(signedModel, basket, r.getId(), agg), r.getScore(), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void testSkipUnknownBasketItems() {
+        AssociationItemBasedItemRecommender rec = new AssociationItemBasedItemRecommender(model);
+        ResultList results = rec.recommendRelatedItemsWithDetails(ImmutableSet.of(1L, 999999L), -1, null, null);
+        assertTrue(results.size() > 0);
+        for (Result r : results) {
+            // the unknown item adds nothing to the known item's associations
+            assertThat(r.getScore(), equalTo(model.getItemAssociation(1, r.getId())));
+        }
+
+        ResultList candidates = rec.recommendRelatedItemsWithDetails(ImmutableSet.of(1L, 999999L), 5,
+                                                                     ImmutableSet.of(2L, 3L, 4L), null);
+        assertThat(candidates.size(), equalTo(3));
+    }
+
+    @Test
+    public void testRankingMatchesSort() {
+        // one-item baskets read the reference item's ranked row: positive scores, then zeros by ID, then negatives
+        Set<Long> exclude = ImmutableSet.of(20L, 50L, 90L, 130L);
+        for (long ref : new long[]{10L, 50L, 100L, 200L}) {
+            int rowSize = signedModel.getRowSize(signedModel.getIndex().getIndex(ref));
+            AssociationItemBasedItemRecommender rec = new AssociationItemBasedItemRecommender(signedModel);
+            for (int n : new int[]{0, 1, 3, rowSize, rowSize + 3, ITEMS + 5, -1}) {
+                ResultList results = rec.recommendRelatedItemsWithDetails(ImmutableSet.of(ref), n, null, exclude);
+
+                List<Long> expected = new ArrayList<>();
+                for (long item : signedModel.getKnownItems()) {
+                    if (item != ref && !exclude.contains(item)) {
+                        expected.add(item);
+                    }
+                }
+                expected.sort((a, b) -> {
+                    int cmp = Double.compare(signedModel.getItemAssociation(ref, b),
+                                             signedModel.getItemAssociation(ref, a));
+                    return cmp != 0 ? cmp : Long.compare(a, b);
+                });
+                if (n >= 0 && n < expected.size()) {
+                    expected = expected.subList(0, n);
+                }
+
+                assertThat(results.idList(), equalTo(expected));
+                for (Result r : results) {
+                    assertThat(r.getScore(), equalTo(signedModel.getItemAssociation(ref, r.getId())));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testExcludeSingleBasketItem() {
+        AssociationItemBasedItemRecommender rec = new AssociationItemBasedItemRecommender(model);
+        ResultList all = rec.recommendRelatedItemsWithDetails(ImmutableSet.of(1L), -1, null, null);
+        assertThat(all.size(), equalTo(ITEMS - 1));
+        assertThat(all.idList().contains(1L), equalTo(false));
+
+        ResultList chosen = rec.recommendRelatedItemsWithDetails(ImmutableSet.of(1L), -1,
+                                                                 ImmutableSet.of(1L, 2L, 3L), null);
+        assertThat(new HashSet<>(chosen.idList()), equalTo(ImmutableSet.of(2L, 3L)));
+    }
+
+    @Test
+    public void testExcludeBasketItems() {
+        Set<Long> basket = ImmutableSet.of(1L, 2L, 3L);
+        Set<Long> candidates = ImmutableSet.of(1L, 2L, 3L, 4L, 5L, 6L);
+        for (String aggregation : new String[]{"sum", "max", "mean"}) {
+            AssociationItemBasedItemRecommender rec = new AssociationItemBasedItemRecommender(model, aggregation);
+            ResultList all = rec.recommendRelatedItemsWithDetails(basket, -1, null, null);
+            assertThat(all.size(), equalTo(ITEMS - basket.size()));
+            for (Result r : all) {
+                assertThat(basket.contains(r.getId()), equalTo(false));
+            }
+
+            ResultList top = rec.recommendRelatedItemsWithDetails(basket, 5, null, ImmutableSet.of(4L));
+            assertThat(top.size(), equalTo(5));
+            for (Result r : top) {
+                assertThat(r.getId(), not(equalTo(4L)));
+                assertThat(basket.contains(r.getId()), equalTo(false));
+            }
+
+            ResultList chosen = rec.recommendRelatedItemsWithDetails(basket, -1, candidates, null);
+            assertThat(new HashSet<>(chosen.idList()), equalTo(ImmutableSet.of(4L, 5L, 6L)));
+        }
+    }
+
+    @Test
+    public void testUnknownBasket() {
+        AssociationItemBasedItemRecommender rec = new AssociationItemBasedItemRecommender(model);
+        assertThat(rec.recommendRelatedItemsWithDetails(ImmutableSet.of(999999L), 10, null, null).size(),
+                   equalTo(0));
+        assertThat(rec.recommendRelatedItemsWithDetails(ImmutableSet.of(999998L, 999999L), 10, null, null).size(),
+                   equalTo(0));
+        assertThat(rec.recommendRelatedItemsWithDetails(ImmutableSet.of(999999L), 10,
+                                                        ImmutableSet.of(1L, 2L), null).size(),
+                   equalTo(0));
+    }
+}
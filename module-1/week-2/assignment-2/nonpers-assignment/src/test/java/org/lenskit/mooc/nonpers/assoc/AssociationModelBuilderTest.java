@@ -0,0 +1,49 @@
+package org.lenskit.mooc.nonpers.assoc;
+
+import org.junit.Test;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for truncating the rows of association models.
+ */
+public class AssociationModelBuilderTest {
+    private static final SortedKeyIndex INDEX = SortedKeyIndex.fromCollection(Arrays.asList(10L, 20L, 30L, 40L, 50L, 60L));
+
+    @Test
+    public void testTruncateTiesByPosition() {
+        // the same row in two orders; items 2, 3, 4 and 5 tie at the cutoff
+        AssociationModelBuilder builder = new AssociationModelBuilder(INDEX, 3, Double.NEGATIVE_INFINITY);
+        builder.addRow(0, new int[]{5, 4, 1, 3, 2}, new double[]{0.5, 0.5, 0.9, 0.5, 0.5}, 5);
+        builder.addRow(1, new int[]{2, 3, 0, 4, 5}, new double[]{0.5, 0.5, 0.9, 0.5, 0.5}, 5);
+        AssociationModel model = builder.build();
+
+        assertThat(model.getRowSize(0), equalTo(3));
+        assertThat(model.getRowItem(0, 0), equalTo(1));
+        assertThat(model.getRowItem(0, 1), equalTo(2));
+        assertThat(model.getRowItem(0, 2), equalTo(3));
+
+        assertThat(model.getRowSize(1), equalTo(3));
+        assertThat(model.getRowItem(1, 0), equalTo(0));
+        assertThat(model.getRowItem(1, 1), equalTo(2));
+        assertThat(model.getRowItem(1, 2), equalTo(3));
+    }
+
+    @Test
+    public void testRankTiesByPosition() {
+        AssociationModelBuilder builder = new AssociationModelBuilder(INDEX, 0, 0);
+        builder.addRow(0, new int[]{4, 2, 5, 1}, new double[]{0.5, 0.5, -0.5, 0.9}, 4);
+        AssociationModel model = builder.build();
+
+        // the negative score does not clear the threshold
+        assertThat(model.getRowSize(0), equalTo(3));
+        assertThat(model.getRowItem(0, model.getRankedEntry(0, 0)), equalTo(1));
+        assertThat(model.getRowItem(0, model.getRankedEntry(0, 1)), equalTo(2));
+        assertThat(model.getRowItem(0, model.getRankedEntry(0, 2)), equalTo(4));
+        assertThat(model.getRowSize(2), equalTo(0));
+    }
+}
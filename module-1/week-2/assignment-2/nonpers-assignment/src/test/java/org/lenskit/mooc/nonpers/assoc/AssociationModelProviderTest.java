@@ -0,0 +1,148 @@
+package org.lenskit.mooc.nonpers.assoc;
+
+import org.junit.Test;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityFactory;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.mooc.nonpers.NonpersTestData;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the co-occurrence counts and the association models built from them, against the pairwise formulas
+ * computed from each item's set of users.
+ */
+public class AssociationModelProviderTest {
+    private static final double EPSILON = 1.0e-10;
+
+    /**
+     * Build a DAO over ratings.
+     * @param ratings The ratings, as (user, item) pairs.
+     */
+    private static DataAccessObject makeDAO(long[][] ratings) {
+        EntityFactory factory = new EntityFactory();
+        List<Entity> entities = new ArrayList<>();
+        for (long[] r : ratings) {
+            entities.add(factory.rating(r[0], r[1], 3.0));
+        }
+        return NonpersTestData.createDAO(entities);
+    }
+
+    /**
+     * A small data set whose associations are worked out by hand.  Item 10 is rated by users 1 and 2, item 20 by
+     * users 1, 2 and 3, item 30 by users 1 and 3 (who rated it twice), and item 40 by user 4 alone.
+     */
+    private static DataAccessObject makeSmallDAO() {
+        return makeDAO(new long[][]{
+                {1, 10}, {1, 20}, {1, 30},
+                {2, 10}, {2, 20},
+                {3, 20}, {3, 30}, {3, 30},
+                {4, 40}
+        });
+    }
+
+    @Test
+    public void testSmallCounts() {
+        ItemCooccurrences counts = ItemCooccurrences.count(makeSmallDAO());
+        SortedKeyIndex index = counts.getItemIndex();
+        assertThat(index.size(), equalTo(4));
+        assertThat(counts.getUserCount(), equalTo(4));
+        assertThat(counts.getItemUserCount(index.getIndex(10)), equalTo(2));
+        assertThat(counts.getItemUserCount(index.getIndex(20)), equalTo(3));
+        // user 3's two ratings of item 30 count once
+        assertThat(counts.getItemUserCount(index.getIndex(30)), equalTo(2));
+        assertThat(counts.getItemUserCount(index.getIndex(40)), equalTo(1));
+
+        assertThat(coCount(counts, 10, 20), equalTo(2));
+        assertThat(coCount(counts, 20, 10), equalTo(2));
+        assertThat(coCount(counts, 10, 30), equalTo(1));
+        assertThat(coCount(counts, 20, 30), equalTo(2));
+        assertThat(coCount(counts, 30, 20), equalTo(2));
+        assertThat(coCount(counts, 10, 40), equalTo(0));
+        assertThat(counts.getRowSize(index.getIndex(40)), equalTo(0));
+    }
+
+    @Test
+    public void testSmallBasic() {
+        AssociationModel model = new BasicAssociationModelProvider(makeSmallDAO(), 0, 0).get();
+        // |X and Y| / |X|
+        assertEquals(1.0, model.getItemAssociation(10, 20), EPSILON);
+        assertEquals(2.0 / 3, model.getItemAssociation(20, 10), EPSILON);
+        assertEquals(0.5, model.getItemAssociation(10, 30), EPSILON);
+        assertEquals(0.5, model.getItemAssociation(30, 10), EPSILON);
+        assertEquals(2.0 / 3, model.getItemAssociation(20, 30), EPSILON);
+        assertEquals(1.0, model.getItemAssociation(30, 20), EPSILON);
+        assertEquals(0, model.getItemAssociation(10, 40), EPSILON);
+        assertEquals(0, model.getItemAssociation(40, 10), EPSILON);
+    }
+
+    @Test
+    public void testSmallLift() {
+        AssociationModel model = new LiftAssociationModelProvider(makeSmallDAO(), 0, 0).get();
+        // |X and Y| * |users| / (|X| * |Y|)
+        assertEquals(4.0 / 3, model.getItemAssociation(10, 20), EPSILON);
+        assertEquals(4.0 / 3, model.getItemAssociation(20, 10), EPSILON);
+        assertEquals(1.0, model.getItemAssociation(10, 30), EPSILON);
+        assertEquals(4.0 / 3, model.getItemAssociation(20, 30), EPSILON);
+        assertEquals(0, model.getItemAssociation(30, 40), EPSILON);
+    }
+
+    @Test
+    public void testRandomMatchesPairwise() {
+        DataAccessObject dao = NonpersTestData.createDAO(NonpersTestData.randomRatings(17, 40, 25, 0.25));
+
+        // the pairwise formulas, from each item's set of users
+        Map<Long, Set<Long>> itemUsers = new HashMap<>();
+        Set<Long> allUsers = new HashSet<>();
+        for (Rating r : dao.query(Rating.class).get()) {
+            itemUsers.computeIfAbsent(r.getItemId(), i -> new HashSet<>()).add(r.getUserId());
+            allUsers.add(r.getUserId());
+        }
+
+        AssociationModel basic = new BasicAssociationModelProvider(dao, 0, 0).get();
+        AssociationModel lift = new LiftAssociationModelProvider(dao, 0, 0).get();
+        assertThat(basic.getKnownItems(), equalTo(itemUsers.keySet()));
+        for (Map.Entry<Long, Set<Long>> x : itemUsers.entrySet()) {
+            for (Map.Entry<Long, Set<Long>> y : itemUsers.entrySet()) {
+                if (x.getKey().equals(y.getKey())) {
+                    continue;
+                }
+                Set<Long> both = new HashSet<>(x.getValue());
+                both.retainAll(y.getValue());
+                double xCount = x.getValue().size();
+                double yCount = y.getValue().size();
+                assertEquals(both.size() / xCount,
+                             basic.getItemAssociation(x.getKey(), y.getKey()), EPSILON);
+                assertEquals(both.size() / (xCount * yCount) * allUsers.size(),
+                             lift.getItemAssociation(x.getKey(), y.getKey()), EPSILON);
+            }
+        }
+    }
+
+    /**
+     * Look up the number of users who rated two items.
+     */
+    private static int coCount(ItemCooccurrences counts, long x, long y) {
+        SortedKeyIndex index = counts.getItemIndex();
+        int[] items = counts.getRowItems(index.getIndex(x));
+        int[] coCounts = counts.getRowCounts(index.getIndex(x));
+        int target = index.getIndex(y);
+        for (int k = 0; k < items.length; k++) {
+            if (items[k] == target) {
+                return coCounts[k];
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,134 @@
+package org.lenskit.mooc.nonpers.mean;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.junit.Test;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityFactory;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.lenskit.mooc.nonpers.NonpersTestData.createDAO;
+import static org.lenskit.mooc.nonpers.NonpersTestData.randomRatings;
+
+/**
+ * Tests for item rating statistics and the mean models built from them.  The parallel accumulation is checked
+ * against the single-threaded one on enough ratings to fill several chunks.
+ */
+public class ItemRatingStatsTest {
+    private static final double EPSILON = 1.0e-10;
+
+    /**
+     * Item 1 is rated 4 and 5, and item 2 is rated 1, so the global mean is 10/3.
+     */
+    private static DataAccessObject makeSmallDAO() {
+        EntityFactory factory = new EntityFactory();
+        List<Entity> ratings = new ArrayList<>();
+        ratings.add(factory.rating(1, 1, 4.0));
+        ratings.add(factory.rating(2, 1, 5.0));
+        ratings.add(factory.rating(2, 2, 1.0));
+        return createDAO(ratings);
+    }
+
+    /**
+     * About 30000 ratings, so the parallel path hands out several chunks.
+     */
+    private static DataAccessObject makeLargeDAO() {
+        return createDAO(randomRatings(42, 1000, 100, 0.3));
+    }
+
+    @Test
+    public void testSmallStats() {
+        for (int threads : new int[]{1, 3}) {
+            ItemRatingStats stats = ItemRatingStats.compute(makeSmallDAO(), threads);
+            SortedKeyIndex index = stats.getItemIndex();
+            assertThat(index.size(), equalTo(2));
+            int i1 = index.getIndex(1);
+            int i2 = index.getIndex(2);
+            assertThat(stats.getCount(i1), equalTo(2));
+            assertEquals(9.0, stats.getSum(i1), EPSILON);
+            assertEquals(41.0, stats.getSumOfSquares(i1), EPSILON);
+            assertEquals(0.25, stats.getVariance(i1), EPSILON);
+            assertThat(stats.getCount(i2), equalTo(1));
+            assertEquals(0, stats.getVariance(i2), EPSILON);
+            assertThat(stats.getTotalCount(), equalTo(3L));
+            assertEquals(10.0 / 3, stats.getGlobalMean(), EPSILON);
+        }
+    }
+
+    @Test
+    public void testSmallMeans() {
+        ItemMeanModel plain = new ItemMeanModelProvider(makeSmallDAO()).get();
+        assertEquals(4.5, plain.getMeanRating(1), EPSILON);
+        assertEquals(1.0, plain.getMeanRating(2), EPSILON);
+
+        // (sum + d * global mean) / (count + d), with d = 3
+        ItemMeanModel damped = new DampedItemMeanModelProvider(makeSmallDAO(), 3).get();
+        assertEquals((9 + 10.0) / (2 + 3), damped.getMeanRating(1), EPSILON);
+        assertEquals((1 + 10.0) / (1 + 3), damped.getMeanRating(2), EPSILON);
+
+        ItemMeanModel undamped = new DampedItemMeanModelProvider(makeSmallDAO(), 0).get();
+        assertEquals(4.5, undamped.getMeanRating(1), EPSILON);
+    }
+
+    @Test
+    public void testParallelMatchesSingleThread() {
+        DataAccessObject dao = makeLargeDAO();
+        ItemRatingStats single = ItemRatingStats.compute(dao, 1);
+        for (int threads : new int[]{2, 4, 7}) {
+            ItemRatingStats parallel = ItemRatingStats.compute(dao, threads);
+            assertThat(parallel.getItemIndex().keySet(), equalTo(single.getItemIndex().keySet()));
+            assertThat(parallel.getTotalCount(), equalTo(single.getTotalCount()));
+            assertEquals(single.getGlobalMean(), parallel.getGlobalMean(), EPSILON);
+            assertEquals(single.getGlobalVariance(), parallel.getGlobalVariance(), EPSILON);
+            for (int i = 0; i < single.getItemIndex().size(); i++) {
+                assertThat(parallel.getCount(i), equalTo(single.getCount(i)));
+                assertEquals(single.getSum(i), parallel.getSum(i), EPSILON);
+                assertEquals(single.getSumOfSquares(i), parallel.getSumOfSquares(i), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void testMeansMatchDirectComputation() {
+        DataAccessObject dao = makeLargeDAO();
+        Map<Long, double[]> totals = new HashMap<>();
+        double globalSum = 0;
+        int globalCount = 0;
+        for (Rating r : dao.query(Rating.class).get()) {
+            double[] t = totals.computeIfAbsent(r.getItemId(), i -> new double[2]);
+            t[0] += r.getValue();
+            t[1] += 1;
+            globalSum += r.getValue();
+            globalCount += 1;
+        }
+        double globalMean = globalSum / globalCount;
+
+        for (int threads : new int[]{1, 4}) {
+            ItemMeanModel plain = new ItemMeanModelProvider(dao, threads).get();
+            ItemMeanModel damped = new DampedItemMeanModelProvider(dao, 5, threads).get();
+            Long2DoubleMap means = ItemRatingStats.compute(dao, threads).getItemMeans(5);
+            assertThat(plain.getKnownItems(), equalTo(totals.keySet()));
+            for (Map.Entry<Long, double[]> e : totals.entrySet()) {
+                double sum = e.getValue()[0];
+                double count = e.getValue()[1];
+                assertEquals(sum / count, plain.getMeanRating(e.getKey()), EPSILON);
+                assertEquals((sum + 5 * globalMean) / (count + 5), damped.getMeanRating(e.getKey()), EPSILON);
+                assertEquals(damped.getMeanRating(e.getKey()), means.get(e.getKey().longValue()), EPSILON);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectNoThreads() {
+        ItemRatingStats.compute(makeSmallDAO(), 0);
+    }
+}
@@ -0,0 +1,112 @@
+package org.lenskit.mooc.nonpers.mean;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.lenskit.mooc.nonpers.NonpersTestData.createDAO;
+import static org.lenskit.mooc.nonpers.NonpersTestData.randomRatings;
+
+/**
+ * Tests for the mean recommender.  Both the walk down the model's ranking and the top-N selection over the
+ * candidates must return the same list as scoring and sorting every allowed item.
+ */
+public class MeanItemBasedItemRecommenderTest {
+    private static final int ITEMS = 100;
+
+    private Map<Long, Double> means;
+    private MeanItemBasedItemRecommender rec;
+
+    @Before
+    public void buildModel() {
+        // each item has at most four half-star ratings, so there are many ties, and a few items have none
+        ItemMeanModel model = new ItemMeanModelProvider(createDAO(randomRatings(42, 4, ITEMS, 0.5))).get();
+        means = new HashMap<>();
+        for (long item : model.getKnownItems()) {
+            means.put(item, model.getMeanRating(item));
+        }
+        rec = new MeanItemBasedItemRecommender(model);
+    }
+
+    @Test
+    public void testAllItems() {
+        // no candidates: read off the ranking
+        Set<Long> exclude = ImmutableSet.of(9L, 19L, 29L, 2L);
+        for (int n : new int[]{0, 1, 5, 15, ITEMS, ITEMS + 10, -1}) {
+            assertSameResults(rec.recommendRelatedItemsWithDetails(Collections.emptySet(), n, null, exclude),
+                              sortAll(means.keySet(), exclude, n));
+            assertSameResults(rec.recommendRelatedItemsWithDetails(Collections.emptySet(), n, null, null),
+                              sortAll(means.keySet(), Collections.emptySet(), n));
+        }
+    }
+
+    @Test
+    public void testFewCandidates() {
+        // n * known >= candidates^2: score the candidates; 500 is not a known item
+        Set<Long> candidates = ImmutableSet.of(3L, 13L, 23L, 4L, 5L, 500L);
+        Set<Long> exclude = ImmutableSet.of(13L);
+        for (int n : new int[]{1, 3, 10, -1}) {
+            assertSameResults(rec.recommendRelatedItemsWithDetails(Collections.emptySet(), n, candidates, exclude),
+                              sortAll(candidates, exclude, n));
+        }
+    }
+
+    @Test
+    public void testManyCandidates() {
+        // n * known < candidates^2: walk the ranking, skipping items that are not candidates or are excluded
+        Random rng = new Random(42);
+        Set<Long> candidates = new HashSet<>();
+        while (candidates.size() < 60) {
+            candidates.add(1L + rng.nextInt(ITEMS + 20));
+        }
+        Set<Long> exclude = new HashSet<>();
+        for (long item : candidates) {
+            if (item % 4 == 0) {
+                exclude.add(item);
+            }
+        }
+        for (int n : new int[]{0, 1, 5, 20}) {
+            assertSameResults(rec.recommendRelatedItemsWithDetails(Collections.emptySet(), n, candidates, exclude),
+                              sortAll(candidates, exclude, n));
+            assertSameResults(rec.recommendRelatedItemsWithDetails(Collections.emptySet(), n, candidates, null),
+                              sortAll(candidates, Collections.emptySet(), n));
+        }
+    }
+
+    /**
+     * Score every known, allowed item and sort by decreasing mean and then increasing ID.
+     */
+    private List<Long> sortAll(Set<Long> items, Set<Long> exclude, int n) {
+        List<Long> ids = new ArrayList<>();
+        for (long item : items) {
+            if (means.containsKey(item) && !exclude.contains(item)) {
+                ids.add(item);
+            }
+        }
+        ids.sort((a, b) -> {
+            int cmp = Double.compare(means.get(b), means.get(a));
+            return cmp != 0 ? cmp : Long.compare(a, b);
+        });
+        return n >= 0 && n < ids.size() ? ids.subList(0, n) : ids;
+    }
+
+    private void assertSameResults(ResultList results, List<Long> expected) {
+        assertThat(results.idList(), equalTo(expected));
+        for (Result r : results) {
+            assertThat(r.getScore(), equalTo(means.get(r.getId())));
+        }
+    }
+}
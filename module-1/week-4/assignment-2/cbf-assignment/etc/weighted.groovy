@@ -1,9 +1,20 @@
+import org.lenskit.mooc.cbf.MappedTFIDFModelProvider
+import org.lenskit.mooc.cbf.ModelFile
+import org.lenskit.mooc.cbf.TFIDFItemRecommender
+import org.lenskit.mooc.cbf.TFIDFModel
 import org.lenskit.mooc.cbf.TFIDFItemScorer
 import org.lenskit.mooc.cbf.UserProfileBuilder
 import org.lenskit.mooc.cbf.WeightedUserProfileBuilder
+import org.lenskit.api.ItemRecommender
 import org.lenskit.api.ItemScorer
 
 // the core: use our item scorer
 bind ItemScorer to TFIDFItemScorer
 // with the basic profile builder
 bind UserProfileBuilder to WeightedUserProfileBuilder
+// recommend from the tag posting index instead of scoring every item
+bind ItemRecommender to TFIDFItemRecommender
+
+// uncomment to map a model file written by the writeModelFile task instead of building the model
+// bind TFIDFModel toProvider MappedTFIDFModelProvider
+// set ModelFile to 'build/tfidf.model'
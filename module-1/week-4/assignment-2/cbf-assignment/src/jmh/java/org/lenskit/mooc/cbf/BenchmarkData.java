@@ -0,0 +1,73 @@
+package org.lenskit.mooc.cbf;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entities;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Data for the TF-IDF benchmarks: either a data source file, such as {@code data/movielens.yml}, or synthetic ratings
+ * and item tags.  Tag use is skewed towards low tag IDs, as in real tag data, so document frequencies and posting
+ * list lengths vary widely.
+ */
+final class BenchmarkData {
+    static final String SYNTHETIC = "synthetic";
+
+    private BenchmarkData() {
+    }
+
+    static DataAccessObject load(String dataSource, int users, int items, double density,
+                                 int tags) throws IOException {
+        if (!SYNTHETIC.equals(dataSource)) {
+            return StaticDataSource.load(Paths.get(dataSource)).get();
+        }
+
+        EntityFactory factory = new EntityFactory();
+        Random rng = new Random(42);
+        List<Entity> ratings = new ArrayList<>();
+        int perUser = Math.max(1, (int) Math.round(density * items));
+        for (long u = 1; u <= users; u++) {
+            IntSet picked = new IntOpenHashSet();
+            int count = Math.min(items, 1 + rng.nextInt(2 * perUser));
+            while (picked.size() < count) {
+                picked.add(1 + rng.nextInt(items));
+            }
+            for (int i : picked) {
+                ratings.add(factory.rating(u, i, 0.5 * (1 + rng.nextInt(10))));
+            }
+        }
+
+        List<Entity> applications = new ArrayList<>();
+        long id = 1;
+        for (long i = 1; i <= items; i++) {
+            int count = 1 + rng.nextInt(20);
+            for (int k = 0; k < count; k++) {
+                // squaring a uniform draw favors low tag IDs
+                double x = rng.nextDouble();
+                applications.add(Entities.newBuilder(TagData.ITEM_TAG_TYPE)
+                                     .setId(id++)
+                                     .setAttribute(TagData.ITEM_ID, i)
+                                     .setAttribute(TagData.TAG, "tag" + (int) (tags * x * x))
+                                     .build());
+            }
+        }
+
+        StaticDataSource source = new StaticDataSource(SYNTHETIC);
+        source.addSource(ratings);
+        source.addSource(applications);
+        source.addDerivedEntity(CommonTypes.ITEM, CommonTypes.RATING, CommonAttributes.ITEM_ID);
+        source.addDerivedEntity(CommonTypes.USER, CommonTypes.RATING, CommonAttributes.USER_ID);
+        return source.get();
+    }
+}
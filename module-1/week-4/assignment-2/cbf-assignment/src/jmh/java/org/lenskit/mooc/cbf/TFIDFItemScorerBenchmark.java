@@ -0,0 +1,78 @@
+package org.lenskit.mooc.cbf;
+
+import org.lenskit.api.ResultMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonTypes;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for scoring items with the TF-IDF item scorer.  Each call scores a random sample of
+ * candidate items for the next user in a fixed rotation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TFIDFItemScorerBenchmark {
+    @Param(BenchmarkData.SYNTHETIC)
+    public String dataSource;
+    @Param("2000")
+    public int users;
+    @Param("5000")
+    public int items;
+    @Param("0.01")
+    public double density;
+    @Param("1000")
+    public int tags;
+    /**
+     * The profile builder: {@code threshold} or {@code weighted}.
+     */
+    @Param({"threshold", "weighted"})
+    public String profile;
+    /**
+     * The profile cache size; 0 rebuilds every user's profile on every call.
+     */
+    @Param("0")
+    public int cacheSize;
+    @Param("100")
+    public int candidates;
+
+    private TFIDFItemScorer scorer;
+    private long[] userIds;
+    private List<Long> itemIds;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        DataAccessObject dao = BenchmarkData.load(dataSource, users, items, density, tags);
+        TFIDFModel model = new TFIDFModelProvider(dao).get();
+        UserProfileBuilder builder;
+        if (profile.equals("weighted")) {
+            builder = new WeightedUserProfileBuilder(model, cacheSize, 600);
+        } else {
+            builder = new ThresholdUserProfileBuilder(model, cacheSize, 600);
+        }
+        scorer = new TFIDFItemScorer(dao, model, builder);
+
+        userIds = dao.getEntityIds(CommonTypes.USER).toLongArray();
+        itemIds = new ArrayList<>(dao.getEntityIds(CommonTypes.ITEM));
+        Collections.shuffle(itemIds, new Random(42));
+        itemIds = new ArrayList<>(itemIds.subList(0, Math.min(candidates, itemIds.size())));
+    }
+
+    @Benchmark
+    public ResultMap score() {
+        long user = userIds[next];
+        next = (next + 1) % userIds.length;
+        return scorer.scoreWithDetails(user, itemIds);
+    }
+}
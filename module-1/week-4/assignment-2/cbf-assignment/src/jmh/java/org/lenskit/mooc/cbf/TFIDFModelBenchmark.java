@@ -0,0 +1,41 @@
+package org.lenskit.mooc.cbf;
+
+import org.lenskit.data.dao.DataAccessObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for building the TF-IDF model.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TFIDFModelBenchmark {
+    @Param(BenchmarkData.SYNTHETIC)
+    public String dataSource;
+    @Param("2000")
+    public int users;
+    @Param("5000")
+    public int items;
+    @Param("0.01")
+    public double density;
+    @Param("1000")
+    public int tags;
+
+    private DataAccessObject dao;
+
+    @Setup
+    public void loadData() throws IOException {
+        dao = BenchmarkData.load(dataSource, users, items, density, tags);
+    }
+
+    @Benchmark
+    public TFIDFModel buildModel() {
+        return new TFIDFModelProvider(dao).get();
+    }
+}
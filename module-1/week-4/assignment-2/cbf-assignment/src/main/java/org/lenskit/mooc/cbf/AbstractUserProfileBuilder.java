@@ -0,0 +1,86 @@
+package org.lenskit.mooc.cbf;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import org.lenskit.data.ratings.Rating;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class for profile builders that accumulate a profile one rating at a time.  Profiles are
+ * kept in a {@linkplain UserProfileCache cache}, so a user's profile is only brought up to date
+ * with the ratings they added since it was last built, instead of being rebuilt from their whole
+ * history on every request.
+ *
+ * <p>Profile builders are shared between recommenders, so the cache is shared too.  It is not
+ * serialized with the builder; a deserialized builder starts with an empty cache.</p>
+ */
+abstract class AbstractUserProfileBuilder implements UserProfileBuilder, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The tag model, to get item tag vectors.
+     */
+    protected final TFIDFModel model;
+    private final int cacheSize;
+    private final int cacheExpiry;
+    private transient volatile UserProfileCache cache;
+
+    /**
+     * Construct a profile builder.
+     *
+     * @param m      The tag model.
+     * @param size   The number of profiles to cache, or 0 to build every profile from scratch.
+     * @param expiry The number of seconds to keep a cached profile after its last use.
+     */
+    AbstractUserProfileBuilder(TFIDFModel m, int size, int expiry) {
+        model = m;
+        cacheSize = size;
+        cacheExpiry = expiry;
+    }
+
+    /**
+     * Create an empty accumulator for a user profile.
+     *
+     * @return The accumulator.
+     */
+    protected abstract UserProfileCache.Accumulator newAccumulator();
+
+    @Override
+    public Map<String, Double> makeUserProfile(@Nonnull List<Rating> ratings) {
+        return model.getTagMap(makeTagProfile(ratings));
+    }
+
+    @Override
+    public Int2DoubleMap makeTagProfile(@Nonnull List<Rating> ratings) {
+        UserProfileCache c = getCache();
+        if (c != null) {
+            return c.getProfile(ratings, this::newAccumulator);
+        }
+
+        UserProfileCache.Accumulator acc = newAccumulator();
+        for (Rating r : ratings) {
+            acc.add(r);
+        }
+        return acc.getProfile();
+    }
+
+    private UserProfileCache getCache() {
+        if (cacheSize <= 0) {
+            return null;
+        }
+        UserProfileCache c = cache;
+        if (c == null) {
+            synchronized (this) {
+                c = cache;
+                if (c == null) {
+                    c = new UserProfileCache(cacheSize, cacheExpiry);
+                    cache = c;
+                }
+            }
+        }
+        return c;
+    }
+}
@@ -0,0 +1,36 @@
+package org.lenskit.mooc.cbf;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+/**
+ * Model provider that maps a TF-IDF model file written by {@link TFIDFModelFile} instead of
+ * computing the model from the tag data.  The item vectors and posting lists stay on disk and are
+ * paged in as they are used, so only the tag dictionary and the per-item and per-tag columns take
+ * heap space.  The file format bounds the number of vector entries; see {@link TFIDFModelFile}.
+ */
+public class MappedTFIDFModelProvider implements Provider<TFIDFModel> {
+    private final String path;
+
+    /**
+     * Construct the model provider.
+     *
+     * @param path The path of the model file.
+     */
+    @Inject
+    public MappedTFIDFModelProvider(@ModelFile String path) {
+        this.path = path;
+    }
+
+    @Override
+    public TFIDFModel get() {
+        try {
+            return TFIDFModelFile.open(Paths.get(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot open TF-IDF model " + path, e);
+        }
+    }
+}
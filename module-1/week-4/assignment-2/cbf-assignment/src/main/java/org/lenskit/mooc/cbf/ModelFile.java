@@ -0,0 +1,18 @@
+package org.lenskit.mooc.cbf;
+
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * The path of a TF-IDF model file written by {@link TFIDFModelFile}, for
+ * {@link MappedTFIDFModelProvider} to map.
+ */
+@Documented
+@Parameter(String.class)
+@Qualifier
+@Target({ElementType.METHOD, ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ModelFile {
+}
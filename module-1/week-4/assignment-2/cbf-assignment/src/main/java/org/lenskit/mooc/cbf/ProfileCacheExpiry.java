@@ -0,0 +1,19 @@
+package org.lenskit.mooc.cbf;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * The number of seconds a cached user profile is kept after it was last used.
+ */
+@Documented
+@DefaultInteger(600)
+@Parameter(Integer.class)
+@Qualifier
+@Target({ElementType.METHOD, ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ProfileCacheExpiry {
+}
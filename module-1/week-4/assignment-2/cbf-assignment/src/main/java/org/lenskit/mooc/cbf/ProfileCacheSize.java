@@ -0,0 +1,21 @@
+package org.lenskit.mooc.cbf;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * The number of user profiles a profile builder keeps cached.  A cached profile is updated
+ * incrementally when the user's history only gained ratings since it was built; 0 disables the
+ * cache.
+ */
+@Documented
+@DefaultInteger(10000)
+@Parameter(Integer.class)
+@Qualifier
+@Target({ElementType.METHOD, ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ProfileCacheSize {
+}
@@ -0,0 +1,66 @@
+package org.lenskit.mooc.cbf;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.lenskit.api.ResultList;
+import org.lenskit.basic.AbstractItemRecommender;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.results.Results;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * Recommend the items whose tag vectors are most similar to the user's profile.  Rather than
+ * scoring every candidate item, this looks the profile's tags up in the model's
+ * {@linkplain TagPostingIndex tag posting index}, so it only visits items that share tags with the
+ * profile.  It recommends the same items as a top-N recommender over {@link TFIDFItemScorer}, except
+ * that items with no positive similarity to the profile are never recommended.
+ */
+public class TFIDFItemRecommender extends AbstractItemRecommender {
+    private final DataAccessObject dao;
+    private final TFIDFModel model;
+    private final UserProfileBuilder profileBuilder;
+
+    /**
+     * Construct a new item recommender.
+     *
+     * @param dao The data access object, for looking up users' ratings.
+     * @param m   The precomputed model containing the item tag vectors and their posting index.
+     * @param upb The user profile builder for building user tag profiles.
+     */
+    @Inject
+    public TFIDFItemRecommender(DataAccessObject dao, TFIDFModel m, UserProfileBuilder upb) {
+        this.dao = dao;
+        model = m;
+        profileBuilder = upb;
+    }
+
+    @Override
+    protected ResultList recommendWithDetails(long user, int n, @Nullable LongSet candidates,
+                                              @Nullable LongSet exclude) {
+        List<Rating> ratings = dao.query(Rating.class)
+                                  .withAttribute(CommonAttributes.USER_ID, user)
+                                  .get();
+
+        if (exclude == null) {
+            // by default, do not recommend the items the user has already rated
+            exclude = new LongOpenHashSet();
+            for (Rating r : ratings) {
+                exclude.add(r.getItemId());
+            }
+        }
+        final LongSet excluded = exclude;
+        LongPredicate accept = candidates == null
+                ? item -> !excluded.contains(item)
+                : item -> candidates.contains(item) && !excluded.contains(item);
+
+        Int2DoubleMap profile = profileBuilder.makeTagProfile(ratings);
+        return Results.newResultList(model.getPostingIndex().findTopN(profile, n, accept));
+    }
+}
@@ -1,5 +1,6 @@
 package org.lenskit.mooc.cbf;
 
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
@@ -13,7 +14,6 @@ import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
@@ -62,34 +62,27 @@ public class TFIDFItemScorer extends AbstractItemScorer {
         List<Result> results = new ArrayList<>();
 
         // Get the user's profile, which is a vector with their 'like' for each tag
-        Map<String, Double> userVector = profileBuilder.makeUserProfile(ratings);
+        Int2DoubleMap userVector = profileBuilder.makeTagProfile(ratings);
+
+        // The profile norm is the same for every item, so compute it once
+        double userSS = 0.0;
+        for (double v : userVector.values()) {
+            userSS += v * v;
+        }
+        double userNorm = Math.sqrt(userSS);
 
         for (Long item : items) {
-            Map<String, Double> iv = model.getItemVector(item);
+            TagVector iv = model.getItemTagVector(item);
 
-            // TODO Compute the cosine of this item and the user's profile, store it in the output list
-            // TODO And remove this exception to say you've implemented it
+            // Compute the cosine of this item and the user's profile, store it in the output list
             // If the denominator of the cosine similarity is 0, skip the item
-
-            double nominator = 0.0;
-            for (Map.Entry<String, Double> ivTag : iv.entrySet()) {
-                String tag = ivTag.getKey();
-                if (userVector.containsKey(tag)) {
-                    nominator += ivTag.getValue() * userVector.get(tag);
-                }
-            }
-            double denominator = Math.sqrt(iv.values().stream().map(e -> Math.pow(e, 2)).reduce(0.0, Double::sum))
-                    * Math.sqrt(userVector.values().stream().map(e -> Math.pow(e, 2)).reduce(0.0, Double::sum));
-
-            double score = nominator / denominator;
+            double denominator = iv.getNorm() * userNorm;
             if (denominator > 0.0) {
                 results.add(Results.create(
                         item,
-                        score
+                        iv.dot(userVector) / denominator
                 ));
             }
-
-
         }
 
         return Results.newResultMap(results);
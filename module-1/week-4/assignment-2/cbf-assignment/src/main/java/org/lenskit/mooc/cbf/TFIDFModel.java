@@ -1,17 +1,33 @@
 package org.lenskit.mooc.cbf;
 
-import com.google.common.collect.ImmutableMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.inject.Shareable;
+import org.lenskit.util.keys.SortedKeyIndex;
 
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.Collections;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
  * The model for a TF-IDF recommender.  The model just remembers the normalized tag vector for each
  * item.
  *
+ * <p>Tags are interned into a dictionary that assigns each tag a dense integer ID, and item vectors
+ * are stored as {@linkplain TagVector sparse vectors} over those IDs, so scoring and profile building
+ * never need to hash tag strings.</p>
+ *
+ * <p>The item vectors are stored in compressed sparse row form: each item's vector is a range of a
+ * pair of tag ID and weight buffers.  The buffers can live on the heap or be
+ * {@linkplain TFIDFModelFile memory-mapped} from a model file, in which case
+ * {@link #getItemTagVector(long)} returns views of the mapping.</p>
+ *
  * @see TFIDFModelProvider
  */
 // LensKit models are annotated with @Shareable so they can be serialized and reused
@@ -19,39 +35,232 @@ import java.util.Map;
 // This model class will be built by the model builder
 @DefaultProvider(TFIDFModelProvider.class)
 public class TFIDFModel implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 4L;
+
+    private final String[] tagNames;
+    private final Object2IntMap<String> tagIds;
+    private final SortedKeyIndex items;
+    private final int[] vectorOffsets;
+    private final IntBuffer vectorTags;
+    private final DoubleBuffer vectorWeights;
+    private final double[] vectorNorms;
+    private final TagPostingIndex postings;
+
+    /**
+     * Constructor for the model.  This is package-private; a model is built with the
+     * {@linkplain TFIDFModelProvider model builder}, which uses this constructor, or is mapped with
+     * {@link TFIDFModelFile#open(java.nio.file.Path)} or deserialized, which use the constructor over
+     * packed vectors (deserialization goes through {@code SerializedForm.readResolve}).
+     *
+     * @param tags        The tag dictionary; a tag's ID is its position in this array.
+     * @param items       The index of items with tag vectors.
+     * @param itemVectors The item tag vectors, by item position.
+     */
+    TFIDFModel(String[] tags, SortedKeyIndex items, TagVector[] itemVectors) {
+        tagNames = tags;
+        tagIds = makeTagIds(tags);
+        this.items = items;
+
+        // pack the vectors into one pair of arrays
+        vectorOffsets = new int[itemVectors.length + 1];
+        vectorNorms = new double[itemVectors.length];
+        for (int i = 0; i < itemVectors.length; i++) {
+            vectorOffsets[i + 1] = vectorOffsets[i] + itemVectors[i].size();
+            vectorNorms[i] = itemVectors[i].getNorm();
+        }
+        int[] vtags = new int[vectorOffsets[itemVectors.length]];
+        double[] vweights = new double[vtags.length];
+        for (int i = 0; i < itemVectors.length; i++) {
+            TagVector vec = itemVectors[i];
+            for (int k = 0; k < vec.size(); k++) {
+                vtags[vectorOffsets[i] + k] = vec.getTag(k);
+                vweights[vectorOffsets[i] + k] = vec.getWeight(k);
+            }
+        }
+        vectorTags = IntBuffer.wrap(vtags);
+        vectorWeights = DoubleBuffer.wrap(vweights);
 
-    private final Map<Long, Map<String, Double>> itemVectors;
+        postings = new TagPostingIndex(tags.length, items, itemVectors);
+    }
 
     /**
-     * Constructor for the model.  This is package-private; the only way to build a model is with
-     * the {@linkplain TFIDFModelProvider model builder}.
+     * Create a model from its packed item vectors and posting index.  Only absolute access is used,
+     * so the buffers are shared rather than copied.
      *
-     * @param itemVectors A map of item IDs to tag vectors.
+     * @param tags     The tag dictionary; a tag's ID is its position in this array.
+     * @param items    The index of items with tag vectors.
+     * @param offsets  The start of each item's vector in the vector buffers, by item position,
+     *                 followed by the total number of entries.
+     * @param vtags    The tag IDs of the item vectors; each vector's range is in increasing order.
+     * @param vweights The weights of the item vectors.
+     * @param norms    The norms of the item vectors, by item position.
+     * @param postings The posting index over the same items.
      */
-    TFIDFModel(Map<Long, Map<String, Double>> itemVectors) {
-        ImmutableMap.Builder<Long,Map<String,Double>> bld = ImmutableMap.builder();
-        for (Map.Entry<Long,Map<String,Double>> e: itemVectors.entrySet()) {
-            bld.put(e.getKey(), ImmutableMap.copyOf(e.getValue()));
+    TFIDFModel(String[] tags, SortedKeyIndex items, int[] offsets, IntBuffer vtags,
+               DoubleBuffer vweights, double[] norms, TagPostingIndex postings) {
+        tagNames = tags;
+        tagIds = makeTagIds(tags);
+        this.items = items;
+        vectorOffsets = offsets;
+        vectorTags = vtags;
+        vectorWeights = vweights;
+        vectorNorms = norms;
+        this.postings = postings;
+    }
+
+    private static Object2IntMap<String> makeTagIds(String[] tags) {
+        Object2IntMap<String> ids = new Object2IntOpenHashMap<>(tags.length);
+        ids.defaultReturnValue(-1);
+        for (int i = 0; i < tags.length; i++) {
+            ids.put(tags[i], i);
         }
-        this.itemVectors = bld.build();
+        return ids;
+    }
+
+    /**
+     * Get the number of tags in the tag dictionary.
+     *
+     * @return The number of distinct tags.
+     */
+    public int getTagCount() {
+        return tagNames.length;
     }
 
     /**
-     * Get the normalized tag vector for a particular item.
+     * Get the ID of a tag.
+     *
+     * @param tag The tag.
+     * @return The tag's ID, or -1 if the tag is not known to the model.
+     */
+    public int getTagId(String tag) {
+        return tagIds.getInt(tag);
+    }
+
+    /**
+     * Get the tag with an ID.
+     *
+     * @param id The tag ID.
+     * @return The tag.
+     */
+    public String getTagName(int id) {
+        return tagNames[id];
+    }
+
+    /**
+     * Get the inverted index from tags to the items that have them.
+     *
+     * @return The tag posting index, for finding the items most similar to a profile.
+     */
+    public TagPostingIndex getPostingIndex() {
+        return postings;
+    }
+
+    /**
+     * Get the normalized tag vector for a particular item, over tag IDs.
+     *
+     * @param item The item.
+     * @return The item's tag vector.  If the item is not known to the model, then this vector is
+     *         empty.
+     */
+    public TagVector getItemTagVector(long item) {
+        int pos = items.tryGetIndex(item);
+        return pos >= 0 ? getItemTagVectorByIndex(pos) : TagVector.EMPTY;
+    }
+
+    /**
+     * Get the index of items with tag vectors.
+     *
+     * @return The item index.
+     */
+    SortedKeyIndex getItemIndex() {
+        return items;
+    }
+
+    /**
+     * Get the tag vector of the item at a position in the item index.
+     *
+     * @param pos The item position.
+     * @return The item's tag vector.
+     */
+    TagVector getItemTagVectorByIndex(int pos) {
+        return new TagVector(vectorTags, vectorWeights, vectorOffsets[pos],
+                             vectorOffsets[pos + 1] - vectorOffsets[pos], vectorNorms[pos]);
+    }
+
+    /**
+     * Get the normalized tag vector for a particular item.  The map is built from the stored
+     * vector on every call; {@link #getItemTagVector(long)} reads the vector without copying it.
      *
      * @param item The item.
      * @return The item's tag vector.  If the item is not known to the model, then this vector is
      *         empty.
      */
     public Map<String, Double> getItemVector(long item) {
-        // Look up the item
-        Map<String, Double> vec = itemVectors.get(item);
-        if (vec == null) {
-            // We don't know the item! Return an empty vector
-            return Collections.emptyMap();
-        } else {
-            return vec;
+        TagVector vec = getItemTagVector(item);
+        Map<String, Double> map = new HashMap<>();
+        for (int i = 0; i < vec.size(); i++) {
+            map.put(tagNames[vec.getTag(i)], vec.getWeight(i));
+        }
+        return map;
+    }
+
+    /**
+     * Convert a vector over tag IDs to a vector over tags.
+     *
+     * @param vector The vector over tag IDs.
+     * @return The same vector, keyed by tag.
+     */
+    public Map<String, Double> getTagMap(Int2DoubleMap vector) {
+        Map<String, Double> map = new HashMap<>();
+        for (Int2DoubleMap.Entry e : vector.int2DoubleEntrySet()) {
+            map.put(tagNames[e.getIntKey()], e.getDoubleValue());
+        }
+        return map;
+    }
+
+    private Object writeReplace() {
+        int n = vectorOffsets[vectorOffsets.length - 1];
+        int[] vtags = new int[n];
+        double[] vweights = new double[n];
+        for (int pos = 0; pos < n; pos++) {
+            vtags[pos] = vectorTags.get(pos);
+            vweights[pos] = vectorWeights.get(pos);
+        }
+        return new SerializedForm(tagNames, items, vectorOffsets, vtags, vweights, vectorNorms, postings);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("TF-IDF models are deserialized from their serialized form");
+    }
+
+    /**
+     * The serialized form of the model, with the vector buffers copied into arrays.
+     */
+    private static class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] tags;
+        private final SortedKeyIndex items;
+        private final int[] offsets;
+        private final int[] vectorTags;
+        private final double[] vectorWeights;
+        private final double[] norms;
+        private final TagPostingIndex postings;
+
+        SerializedForm(String[] tags, SortedKeyIndex items, int[] offsets, int[] vectorTags,
+                       double[] vectorWeights, double[] norms, TagPostingIndex postings) {
+            this.tags = tags;
+            this.items = items;
+            this.offsets = offsets;
+            this.vectorTags = vectorTags;
+            this.vectorWeights = vectorWeights;
+            this.norms = norms;
+            this.postings = postings;
+        }
+
+        private Object readResolve() {
+            return new TFIDFModel(tags, items, offsets, IntBuffer.wrap(vectorTags),
+                                  DoubleBuffer.wrap(vectorWeights), norms, postings);
         }
     }
 }
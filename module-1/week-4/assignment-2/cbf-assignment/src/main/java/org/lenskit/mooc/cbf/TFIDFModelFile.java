@@ -0,0 +1,320 @@
+package org.lenskit.mooc.cbf;
+
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary file format for {@linkplain TFIDFModel TF-IDF models}.  The file is little-endian and
+ * laid out in columns, each starting at a multiple of 8 bytes:
+ *
+ * <ol>
+ *     <li>a header of six ints: the magic number, the format version, the number of tags
+ *     (<var>t</var>), the number of items (<var>n</var>), the number of item vector entries
+ *     (<var>v</var>) and the number of postings (<var>p</var>);</li>
+ *     <li>the <var>n</var> item IDs, in increasing order, as longs;</li>
+ *     <li>the <var>n</var>+1 item vector offsets, as ints, and the <var>n</var> vector norms, as
+ *     doubles;</li>
+ *     <li>the <var>v</var> vector tag IDs, as ints, and the <var>v</var> vector weights, as
+ *     doubles;</li>
+ *     <li>the <var>t</var>+1 posting list offsets, as ints, and the <var>t</var> largest posting
+ *     weights, as doubles;</li>
+ *     <li>the <var>p</var> posting item positions, as ints, and the <var>p</var> posting weights,
+ *     as doubles;</li>
+ *     <li>the <var>t</var>+1 offsets of the tags in the tag text, as ints, and the tag text, in
+ *     UTF-8.</li>
+ * </ol>
+ *
+ * <p>{@link #open(Path)} reads the tag dictionary and the per-item and per-tag columns onto the
+ * heap, and maps the vector and posting columns, so the model's item vectors are served straight
+ * from the mapping.  The heap use of an opened model therefore grows with the number of items and
+ * tags, but not with the number of vector entries or postings.</p>
+ *
+ * <p>Each column is mapped as a single buffer and addressed with int offsets, so a column can hold
+ * at most {@value #MAX_COLUMN_ENTRIES} entries (2 GiB of doubles).  This bounds the number of
+ * vector entries and postings, which is the number of distinct (item, tag) pairs;
+ * {@link #write(TFIDFModel, Path)} refuses larger models rather than write a file that cannot be
+ * opened.</p>
+ */
+public final class TFIDFModelFile {
+    private static final Logger logger = LoggerFactory.getLogger(TFIDFModelFile.class);
+    private static final int MAGIC = 0x54464944; // "TFID"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    /**
+     * The largest number of entries in a column, so that a column of doubles fits in one mapping.
+     */
+    static final int MAX_COLUMN_ENTRIES = Integer.MAX_VALUE / 8;
+
+    private TFIDFModelFile() {
+    }
+
+    /**
+     * Write a model to a file.
+     *
+     * @param model The model.
+     * @param path  The file to write.
+     * @throws IOException if there is an error writing the file, or the model has more vector
+     *                     entries than fit in a column.
+     */
+    public static void write(TFIDFModel model, Path path) throws IOException {
+        SortedKeyIndex items = model.getItemIndex();
+        int n = items.size();
+        TagVector[] vectors = new TagVector[n];
+        long entries = 0;
+        for (int i = 0; i < n; i++) {
+            vectors[i] = model.getItemTagVectorByIndex(i);
+            entries += vectors[i].size();
+        }
+        if (entries > MAX_COLUMN_ENTRIES) {
+            throw new IOException("model has " + entries + " vector entries, more than the "
+                                  + MAX_COLUMN_ENTRIES + " a model file column can hold");
+        }
+        int v = (int) entries;
+        TagPostingIndex postings = model.getPostingIndex();
+        int[] postingOffsets = postings.getOffsets();
+        int t = model.getTagCount();
+        int p = postingOffsets[t];
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            ColumnWriter out = new ColumnWriter(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(t);
+            out.putInt(n);
+            out.putInt(v);
+            out.putInt(p);
+
+            for (int i = 0; i < n; i++) {
+                out.putLong(items.getKey(i));
+            }
+
+            int off = 0;
+            out.putInt(off);
+            for (TagVector vec : vectors) {
+                off += vec.size();
+                out.putInt(off);
+            }
+            out.align();
+            for (TagVector vec : vectors) {
+                out.putDouble(vec.getNorm());
+            }
+
+            for (TagVector vec : vectors) {
+                for (int k = 0; k < vec.size(); k++) {
+                    out.putInt(vec.getTag(k));
+                }
+            }
+            out.align();
+            for (TagVector vec : vectors) {
+                for (int k = 0; k < vec.size(); k++) {
+                    out.putDouble(vec.getWeight(k));
+                }
+            }
+
+            for (int o : postingOffsets) {
+                out.putInt(o);
+            }
+            out.align();
+            for (double w : postings.getMaxWeights()) {
+                out.putDouble(w);
+            }
+
+            for (int pos = 0; pos < p; pos++) {
+                out.putInt(postings.getPostingItem(pos));
+            }
+            out.align();
+            for (int pos = 0; pos < p; pos++) {
+                out.putDouble(postings.getPostingWeight(pos));
+            }
+
+            byte[][] names = new byte[t][];
+            off = 0;
+            out.putInt(off);
+            for (int id = 0; id < t; id++) {
+                names[id] = model.getTagName(id).getBytes(StandardCharsets.UTF_8);
+                off += names[id].length;
+                out.putInt(off);
+            }
+            out.align();
+            for (byte[] name : names) {
+                out.putBytes(name);
+            }
+            out.flush();
+        }
+        logger.info("wrote TF-IDF model with {} items and {} tags to {}", n, t, path);
+    }
+
+    /**
+     * Open a model file.  The vector and posting columns are mapped read-only, and stay valid after
+     * the file is closed.
+     *
+     * @param path The file to open.
+     * @return The model.
+     * @throws IOException if there is an error reading the file, or it is not a model file.
+     */
+    public static TFIDFModel open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + ": not a TF-IDF model file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + ": unsupported model file version " + version);
+            }
+            int t = header.getInt();
+            int n = header.getInt();
+            int v = header.getInt();
+            int p = header.getInt();
+
+            long pos = HEADER_SIZE;
+            long[] items = new long[n];
+            map(channel, pos, 8L * n).asLongBuffer().get(items);
+            pos += 8L * n;
+
+            int[] vectorOffsets = new int[n + 1];
+            map(channel, pos, 4L * (n + 1)).asIntBuffer().get(vectorOffsets);
+            pos = align(pos + 4L * (n + 1));
+            double[] norms = new double[n];
+            map(channel, pos, 8L * n).asDoubleBuffer().get(norms);
+            pos += 8L * n;
+
+            IntBuffer vectorTags = map(channel, pos, 4L * v).asIntBuffer();
+            pos = align(pos + 4L * v);
+            DoubleBuffer vectorWeights = map(channel, pos, 8L * v).asDoubleBuffer();
+            pos += 8L * v;
+
+            int[] postingOffsets = new int[t + 1];
+            map(channel, pos, 4L * (t + 1)).asIntBuffer().get(postingOffsets);
+            pos = align(pos + 4L * (t + 1));
+            double[] maxWeights = new double[t];
+            map(channel, pos, 8L * t).asDoubleBuffer().get(maxWeights);
+            pos += 8L * t;
+
+            IntBuffer postingItems = map(channel, pos, 4L * p).asIntBuffer();
+            pos = align(pos + 4L * p);
+            DoubleBuffer postingWeights = map(channel, pos, 8L * p).asDoubleBuffer();
+            pos += 8L * p;
+
+            int[] nameOffsets = new int[t + 1];
+            map(channel, pos, 4L * (t + 1)).asIntBuffer().get(nameOffsets);
+            pos = align(pos + 4L * (t + 1));
+            byte[] text = new byte[nameOffsets[t]];
+            map(channel, pos, text.length).get(text);
+            String[] tags = new String[t];
+            for (int id = 0; id < t; id++) {
+                tags[id] = new String(text, nameOffsets[id], nameOffsets[id + 1] - nameOffsets[id],
+                                      StandardCharsets.UTF_8);
+            }
+
+            SortedKeyIndex index = SortedKeyIndex.wrap(items, n);
+            TagPostingIndex postings = new TagPostingIndex(index, postingOffsets, postingItems,
+                                                           postingWeights, maxWeights);
+            logger.info("mapped TF-IDF model with {} items and {} tags from {}", n, t, path);
+            return new TFIDFModel(tags, index, vectorOffsets, vectorTags, vectorWeights, norms, postings);
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long pos, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("model column of " + size + " bytes is too large to map");
+        }
+        if (pos + size > channel.size()) {
+            throw new IOException("model file is truncated");
+        }
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+
+    private static long align(long pos) {
+        return (pos + 7) & ~7L;
+    }
+
+    /**
+     * Build a TF-IDF model from a data source and write it to a file.
+     *
+     * <p>Usage: {@code TFIDFModelFile DATA-SOURCE OUTPUT}, where {@code DATA-SOURCE} is a LensKit
+     * data source file such as {@code data/movielens.yml}.</p>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: TFIDFModelFile DATA-SOURCE OUTPUT");
+            System.exit(2);
+        }
+        DataAccessObject dao = StaticDataSource.load(Paths.get(args[0])).get();
+        write(new TFIDFModelProvider(dao).get(), Paths.get(args[1]));
+    }
+
+    /**
+     * Buffered little-endian writer that tracks its position, so columns can be aligned.
+     */
+    private static class ColumnWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        ColumnWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int v) throws IOException {
+            reserve(4);
+            buffer.putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            reserve(8);
+            buffer.putLong(v);
+        }
+
+        void putDouble(double v) throws IOException {
+            reserve(8);
+            buffer.putDouble(v);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            for (byte b : bytes) {
+                reserve(1);
+                buffer.put(b);
+            }
+        }
+
+        void align() throws IOException {
+            while ((position + buffer.position()) % 8 != 0) {
+                reserve(1);
+                buffer.put((byte) 0);
+            }
+        }
+
+        private void reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -1,18 +1,27 @@
 package org.lenskit.mooc.cbf;
 
-import groovy.sql.Sql;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.entities.CommonTypes;
 import org.lenskit.data.entities.Entity;
 import org.lenskit.inject.Transient;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.SortedKeyIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Builder for computing {@linkplain TFIDFModel TF-IDF models} from item tag data.  Each item is
@@ -44,72 +53,94 @@ public class TFIDFModelProvider implements Provider<TFIDFModel> {
     public TFIDFModel get() {
         logger.info("Building TF-IDF model");
 
-        // Create a map to accumulate document frequencies for the IDF computation
-        Map<String, Double> docFreq = new HashMap<>();
+        // Intern the tags: each tag gets a dense ID, its position in the tag list
+        Object2IntMap<String> tagIds = new Object2IntOpenHashMap<>();
+        tagIds.defaultReturnValue(-1);
+        List<String> tags = new ArrayList<>();
 
-        // We now proceed in 2 stages. First, we build a TF vector for each item.
-        // While we do this, we also build the DF vector.
+        // Create a list to accumulate document frequencies for the IDF computation, by tag ID
+        IntArrayList docFreq = new IntArrayList();
+
+        // We now proceed in 2 stages. First, we build a TF vector for each item, in a single pass
+        // over the tag applications.  While we do this, we also build the DF vector.
         // We will then apply the IDF to each TF vector and normalize it to a unit vector.
 
         // Create a map to store the item TF vectors.
-        Map<Long, Map<String, Double>> itemVectors = new HashMap<>();
-
-        // Iterate over the items to compute each item's vector.
-        LongSet items = dao.getEntityIds(CommonTypes.ITEM);
-        for (long item : items) {
-            // Create a work vector to accumulate this item's tag vector.
-            Map<String, Double> work = new HashMap<>();
+        Long2ObjectMap<Int2DoubleOpenHashMap> itemVectors = new Long2ObjectOpenHashMap<>();
+
+        // Copy the item IDs into a hash set, so checking tag applications against it is cheap
+        LongSet items = new LongOpenHashSet(dao.getEntityIds(CommonTypes.ITEM));
+        int applications = 0;
+        try (ObjectStream<Entity> stream = dao.query(TagData.ITEM_TAG_TYPE).stream()) {
+            for (Entity tagApplication : stream) {
+                long item = tagApplication.getLong(TagData.ITEM_ID);
+                if (!items.contains(item)) {
+                    continue;
+                }
+
+                // Get the work vector accumulating this item's tag vector.
+                Int2DoubleOpenHashMap work = itemVectors.get(item);
+                if (work == null) {
+                    work = new Int2DoubleOpenHashMap();
+                    itemVectors.put(item, work);
+                }
 
-            for (Entity tagApplication : dao.query(TagData.ITEM_TAG_TYPE)
-                                            .withAttribute(TagData.ITEM_ID, item)
-                                            .get()) {
                 String tag = tagApplication.get(TagData.TAG);
-                // TODO Count this tag application in the term frequency vector
-                // TODO Also count it in the document frequencey vector when needed
-                work.compute(tag, (k, v) -> (v == null) ? 1.0 : v + 1);
-
+                int id = tagIds.getInt(tag);
+                if (id < 0) {
+                    id = tags.size();
+                    tagIds.put(tag, id);
+                    tags.add(tag);
+                    docFreq.add(0);
+                }
+
+                // Count this tag application in the term frequency vector, and count it in the
+                // document frequency vector if it is the item's first application of the tag
+                if (work.addTo(id, 1.0) == 0) {
+                    docFreq.set(id, docFreq.getInt(id) + 1);
+                }
+                applications += 1;
             }
-
-            work.keySet().forEach(k -> docFreq.compute(k, (tg, dc) -> (dc == null) ? 1 : dc + 1));
-
-            itemVectors.put(item, work);
         }
 
-        logger.info("Computed TF vectors for {} items", itemVectors.size());
+        logger.info("Computed TF vectors for {} items and {} tags from {} tag applications",
+                    itemVectors.size(), tags.size(), applications);
 
         // Now we've seen all the items, so we have each item's TF vector and a global vector
         // of document frequencies.
-        // Invert and log the document frequency.  We can do this in-place.
+        // Invert and log the document frequency.
         final double logN = Math.log(items.size());
-        for (Map.Entry<String, Double> e : docFreq.entrySet()) {
-            e.setValue(logN - Math.log(e.getValue()));
+        double[] idf = new double[docFreq.size()];
+        for (int id = 0; id < idf.length; id++) {
+            idf[id] = logN - Math.log(docFreq.getInt(id));
         }
 
-        // Now docFreq is a log-IDF vector.  Its values can therefore be multiplied by TF values.
+        // Now idf is a log-IDF vector.  Its values can therefore be multiplied by TF values.
         // So we can use it to apply IDF to each item vector to put it in the final model.
-        // Create a map to store the final model data.
-        Map<Long, Map<String, Double>> modelData = new HashMap<>();
-        for (Map.Entry<Long, Map<String, Double>> entry : itemVectors.entrySet()) {
-            Map<String, Double> tv = new HashMap<>(entry.getValue());
+        SortedKeyIndex index = SortedKeyIndex.fromCollection(itemVectors.keySet());
+        TagVector[] vectors = new TagVector[index.size()];
+        for (int i = 0; i < vectors.length; i++) {
+            Int2DoubleOpenHashMap tv = itemVectors.get(index.getKey(i));
+
+            // Convert this vector to a TF-IDF vector, in place
+            double ss = 0;
+            for (Int2DoubleMap.Entry e : tv.int2DoubleEntrySet()) {
+                double v = e.getDoubleValue() * idf[e.getIntKey()];
+                e.setValue(v);
+                ss += v * v;
+            }
 
-            // TODO Convert this vector to a TF-IDF vector
-            // TODO Normalize the TF-IDF vector to be a unit vector
             // Normalize it by dividing each element by its Euclidean norm, which is the
             // square root of the sum of the squares of the values.
-            for (Map.Entry<String, Double> itemEntry : entry.getValue().entrySet()) {
-                String tag = itemEntry.getKey();
-                tv.put(tag, itemEntry.getValue() * docFreq.get(tag));
-            }
-
-            Double norm = Math.sqrt(tv.values().stream().map(e -> Math.pow(e, 2)).reduce(0.0, Double::sum));
-            for (Map.Entry<String, Double> tvEntry : tv.entrySet()) {
-                tvEntry.setValue(tvEntry.getValue() / norm);
+            double norm = Math.sqrt(ss);
+            for (Int2DoubleMap.Entry e : tv.int2DoubleEntrySet()) {
+                e.setValue(e.getDoubleValue() / norm);
             }
 
-            modelData.put(entry.getKey(), tv);
+            vectors[i] = TagVector.fromMap(tv);
         }
 
         // We don't need the IDF vector anymore, as long as as we have no new tags
-        return new TFIDFModel(modelData);
+        return new TFIDFModel(tags.toArray(new String[tags.size()]), index, vectors);
     }
 }
@@ -0,0 +1,502 @@
+package org.lenskit.mooc.cbf;
+
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import org.lenskit.api.Result;
+import org.lenskit.results.Results;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * An inverted index from tags to the items that have them.  Each tag has a posting list of the
+ * items whose vectors contain it, in increasing order of item position, with the item's normalized
+ * weight for the tag, and remembers the largest weight in its list.
+ *
+ * <p>The index finds the items with the highest cosine similarity to a profile with the MaxScore
+ * algorithm: it only visits the items in the posting lists of the profile's tags, and once it has
+ * enough results it stops looking at items that only appear in lists whose maximum contributions
+ * cannot lift them above the current top N.</p>
+ *
+ * <p>The posting lists are NIO buffers, so they can be {@linkplain TFIDFModelFile memory-mapped}
+ * along with the item vectors.</p>
+ */
+public final class TagPostingIndex implements Serializable {
+    private static final long serialVersionUID = 2L;
+
+    private final SortedKeyIndex items;
+    private final int[] offsets;
+    private final IntBuffer postingItems;
+    private final DoubleBuffer postingWeights;
+    private final double[] maxWeights;
+
+    /**
+     * Build a posting index from item vectors.
+     *
+     * @param tagCount The number of tags in the dictionary.
+     * @param items    The item index.
+     * @param vectors  The item tag vectors, by item position.
+     */
+    TagPostingIndex(int tagCount, SortedKeyIndex items, TagVector[] vectors) {
+        this.items = items;
+        offsets = new int[tagCount + 1];
+        for (TagVector vec : vectors) {
+            // items whose vector has no length can have no similarity to anything
+            if (!(vec.getNorm() > 0)) {
+                continue;
+            }
+            for (int k = 0; k < vec.size(); k++) {
+                offsets[vec.getTag(k) + 1] += 1;
+            }
+        }
+        for (int t = 0; t < tagCount; t++) {
+            offsets[t + 1] += offsets[t];
+        }
+
+        // fill the lists; items are visited in order, so each list is sorted by item position
+        int[] postingItems = new int[offsets[tagCount]];
+        double[] postingWeights = new double[offsets[tagCount]];
+        maxWeights = new double[tagCount];
+        int[] fill = java.util.Arrays.copyOf(offsets, tagCount);
+        for (int i = 0; i < vectors.length; i++) {
+            TagVector vec = vectors[i];
+            double norm = vec.getNorm();
+            if (!(norm > 0)) {
+                continue;
+            }
+            for (int k = 0; k < vec.size(); k++) {
+                int t = vec.getTag(k);
+                double w = vec.getWeight(k) / norm;
+                postingItems[fill[t]] = i;
+                postingWeights[fill[t]] = w;
+                fill[t] += 1;
+                maxWeights[t] = Math.max(maxWeights[t], w);
+            }
+        }
+        this.postingItems = IntBuffer.wrap(postingItems);
+        this.postingWeights = DoubleBuffer.wrap(postingWeights);
+    }
+
+    /**
+     * Create a posting index from its posting lists.  Only absolute access is used, so the buffers
+     * are shared rather than copied.
+     *
+     * @param items      The item index.
+     * @param offsets    The start of each tag's posting list, followed by the total number of
+     *                   postings.
+     * @param postingItems   The item positions in the posting lists.
+     * @param postingWeights The normalized item weights in the posting lists.
+     * @param maxWeights The largest weight in each tag's posting list.
+     */
+    TagPostingIndex(SortedKeyIndex items, int[] offsets, IntBuffer postingItems,
+                    DoubleBuffer postingWeights, double[] maxWeights) {
+        this.items = items;
+        this.offsets = offsets;
+        this.postingItems = postingItems;
+        this.postingWeights = postingWeights;
+        this.maxWeights = maxWeights;
+    }
+
+    /**
+     * Get the number of items in a tag's posting list.
+     *
+     * @param tag The tag ID.
+     * @return The number of items with the tag.
+     */
+    public int getPostingCount(int tag) {
+        return offsets[tag + 1] - offsets[tag];
+    }
+
+    /**
+     * Get the posting list offsets.  The returned array is shared and must not be modified.
+     *
+     * @return The start of each tag's posting list, followed by the total number of postings.
+     */
+    int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Get the largest weights of the posting lists.  The returned array is shared and must not be
+     * modified.
+     *
+     * @return The largest weight in each tag's posting list.
+     */
+    double[] getMaxWeights() {
+        return maxWeights;
+    }
+
+    /**
+     * Get the item position of a posting.
+     *
+     * @param pos The posting position.
+     * @return The position of the posting's item in the item index.
+     */
+    int getPostingItem(int pos) {
+        return postingItems.get(pos);
+    }
+
+    /**
+     * Get the weight of a posting.
+     *
+     * @param pos The posting position.
+     * @return The posting item's normalized weight for the tag.
+     */
+    double getPostingWeight(int pos) {
+        return postingWeights.get(pos);
+    }
+
+    /**
+     * Find the items most similar to a profile.  Only items with a positive cosine similarity to the
+     * profile are returned.
+     *
+     * @param profile The profile, over tag IDs.
+     * @param n       The number of items to return, or a negative number to return all of them.
+     * @param accept  A test for the item IDs that may be returned.
+     * @return The items, with their cosine similarities as scores, in decreasing order of score.
+     */
+    public List<Result> findTopN(Int2DoubleMap profile, int n, LongPredicate accept) {
+        if (n < 0) {
+            n = items.size();
+        }
+
+        // gather the query terms: the profile's tags that have postings
+        int m = 0;
+        int[] termTags = new int[profile.size()];
+        double[] termWeights = new double[profile.size()];
+        double[] termBounds = new double[profile.size()];
+        double ss = 0;
+        for (Int2DoubleMap.Entry e : profile.int2DoubleEntrySet()) {
+            int t = e.getIntKey();
+            double q = e.getDoubleValue();
+            ss += q * q;
+            if (q != 0 && t >= 0 && t < maxWeights.length && getPostingCount(t) > 0) {
+                termTags[m] = t;
+                termWeights[m] = q;
+                // item weights are never negative, so a negative profile weight contributes at most 0
+                termBounds[m] = Math.max(0, q * maxWeights[t]);
+                m++;
+            }
+        }
+        double profileNorm = Math.sqrt(ss);
+        if (m == 0 || n == 0 || !(profileNorm > 0)) {
+            return new ArrayList<>();
+        }
+
+        // sort the terms by increasing bound
+        Arrays.quickSort(0, m, new AbstractIntComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return Double.compare(termBounds[a], termBounds[b]);
+            }
+        }, (a, b) -> {
+            int tt = termTags[a];
+            termTags[a] = termTags[b];
+            termTags[b] = tt;
+            double tw = termWeights[a];
+            termWeights[a] = termWeights[b];
+            termWeights[b] = tw;
+            double tb = termBounds[a];
+            termBounds[a] = termBounds[b];
+            termBounds[b] = tb;
+        });
+
+        // prefix[k] bounds the total contribution of the first k terms
+        double[] prefix = new double[m + 1];
+        int[] cursors = new int[m];
+        int[] ends = new int[m];
+        for (int k = 0; k < m; k++) {
+            prefix[k + 1] = prefix[k] + termBounds[k];
+            cursors[k] = offsets[termTags[k]];
+            ends[k] = offsets[termTags[k] + 1];
+        }
+
+        ResultHeap heap = new ResultHeap(Math.min(n, items.size()));
+        // the dot product an item must beat to get into the results
+        double threshold = 0;
+        // terms before this one are non-essential: together they cannot beat the threshold
+        int essential = 0;
+        // the essential terms, ordered by the item at their cursor
+        CursorHeap cursorHeap = new CursorHeap(m);
+        for (int k = 0; k < m; k++) {
+            cursorHeap.push(k, postingItems.get(cursors[k]));
+        }
+
+        while (true) {
+            while (essential < m && prefix[essential + 1] <= threshold) {
+                essential++;
+            }
+            // terms that became non-essential are dropped from the cursor heap as they come up
+            while (!cursorHeap.isEmpty() && cursorHeap.topTerm() < essential) {
+                cursorHeap.pop();
+            }
+            if (cursorHeap.isEmpty()) {
+                break;
+            }
+
+            // the next candidate is the smallest item in the essential lists
+            int item = cursorHeap.topItem();
+            double score = 0;
+            while (!cursorHeap.isEmpty() && cursorHeap.topItem() == item) {
+                int k = cursorHeap.pop();
+                if (k < essential) {
+                    continue;
+                }
+                score += termWeights[k] * postingWeights.get(cursors[k]);
+                cursors[k] += 1;
+                if (cursors[k] < ends[k]) {
+                    cursorHeap.push(k, postingItems.get(cursors[k]));
+                }
+            }
+
+            // add the non-essential terms, unless the item can no longer make it
+            boolean possible = true;
+            for (int k = essential - 1; k >= 0; k--) {
+                if (score + prefix[k + 1] <= threshold) {
+                    possible = false;
+                    break;
+                }
+                int pos = seek(cursors[k], ends[k], item);
+                cursors[k] = pos;
+                if (pos < ends[k] && postingItems.get(pos) == item) {
+                    score += termWeights[k] * postingWeights.get(pos);
+                }
+            }
+
+            if (possible && score > threshold && accept.test(items.getKey(item))) {
+                heap.offer(item, score);
+                if (heap.isFull()) {
+                    threshold = heap.minScore();
+                }
+            }
+        }
+
+        return heap.toResults(items, profileNorm);
+    }
+
+    /**
+     * Find the first position in a range of the posting arrays whose item is at least an item.
+     */
+    private int seek(int from, int to, int item) {
+        if (from >= to || postingItems.get(from) >= item) {
+            return from;
+        }
+        // gallop forward, then binary search the last step
+        int step = 1;
+        int lo = from;
+        int hi = from + 1;
+        while (hi < to && postingItems.get(hi) < item) {
+            lo = hi;
+            step *= 2;
+            hi = from + step;
+        }
+        // the answer is in (lo, hi]: postingItems[lo] < item, and postingItems[hi] >= item or hi = to
+        hi = Math.min(hi, to);
+        lo += 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (postingItems.get(mid) < item) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private Object writeReplace() {
+        int n = offsets[offsets.length - 1];
+        int[] ids = new int[n];
+        double[] weights = new double[n];
+        for (int pos = 0; pos < n; pos++) {
+            ids[pos] = postingItems.get(pos);
+            weights[pos] = postingWeights.get(pos);
+        }
+        return new SerializedForm(items, offsets, ids, weights, maxWeights);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("posting indexes are deserialized from their serialized form");
+    }
+
+    /**
+     * The serialized form of the index, with the posting buffers copied into arrays.
+     */
+    private static class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final SortedKeyIndex items;
+        private final int[] offsets;
+        private final int[] postingItems;
+        private final double[] postingWeights;
+        private final double[] maxWeights;
+
+        SerializedForm(SortedKeyIndex items, int[] offsets, int[] postingItems,
+                       double[] postingWeights, double[] maxWeights) {
+            this.items = items;
+            this.offsets = offsets;
+            this.postingItems = postingItems;
+            this.postingWeights = postingWeights;
+            this.maxWeights = maxWeights;
+        }
+
+        private Object readResolve() {
+            return new TagPostingIndex(items, offsets, IntBuffer.wrap(postingItems),
+                                       DoubleBuffer.wrap(postingWeights), maxWeights);
+        }
+    }
+
+    /**
+     * Min-heap of term cursors, ordered by the item each cursor is at.
+     */
+    private static class CursorHeap {
+        private final int[] terms;
+        private final int[] heapItems;
+        private int size;
+
+        CursorHeap(int capacity) {
+            terms = new int[capacity];
+            heapItems = new int[capacity];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int topTerm() {
+            return terms[0];
+        }
+
+        int topItem() {
+            return heapItems[0];
+        }
+
+        void push(int term, int item) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heapItems[parent] <= item) {
+                    break;
+                }
+                terms[i] = terms[parent];
+                heapItems[i] = heapItems[parent];
+                i = parent;
+            }
+            terms[i] = term;
+            heapItems[i] = item;
+        }
+
+        int pop() {
+            int top = terms[0];
+            size -= 1;
+            int term = terms[size];
+            int item = heapItems[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heapItems[child + 1] < heapItems[child]) {
+                    child += 1;
+                }
+                if (heapItems[child] >= item) {
+                    break;
+                }
+                terms[i] = terms[child];
+                heapItems[i] = heapItems[child];
+                i = child;
+            }
+            terms[i] = term;
+            heapItems[i] = item;
+            return top;
+        }
+    }
+
+    /**
+     * Bounded min-heap of the best items found so far.
+     */
+    private static class ResultHeap {
+        private final int[] heapItems;
+        private final double[] heapScores;
+        private int size;
+
+        ResultHeap(int capacity) {
+            heapItems = new int[capacity];
+            heapScores = new double[capacity];
+        }
+
+        boolean isFull() {
+            return size == heapItems.length;
+        }
+
+        double minScore() {
+            return heapScores[0];
+        }
+
+        void offer(int item, double score) {
+            if (size < heapItems.length) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (heapScores[parent] <= score) {
+                        break;
+                    }
+                    heapItems[i] = heapItems[parent];
+                    heapScores[i] = heapScores[parent];
+                    i = parent;
+                }
+                heapItems[i] = item;
+                heapScores[i] = score;
+            } else if (score > heapScores[0]) {
+                siftDown(item, score, size);
+            }
+        }
+
+        private void siftDown(int item, double score, int limit) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= limit) {
+                    break;
+                }
+                if (child + 1 < limit && heapScores[child + 1] < heapScores[child]) {
+                    child += 1;
+                }
+                if (heapScores[child] >= score) {
+                    break;
+                }
+                heapItems[i] = heapItems[child];
+                heapScores[i] = heapScores[child];
+                i = child;
+            }
+            heapItems[i] = item;
+            heapScores[i] = score;
+        }
+
+        /**
+         * Empty the heap into a result list, in decreasing order of score.
+         */
+        List<Result> toResults(SortedKeyIndex items, double profileNorm) {
+            Result[] results = new Result[size];
+            while (size > 0) {
+                int item = heapItems[0];
+                double score = heapScores[0];
+                size -= 1;
+                if (size > 0) {
+                    siftDown(heapItems[size], heapScores[size], size);
+                }
+                results[size] = Results.create(items.getKey(item), score / profileNorm);
+            }
+            return java.util.Arrays.asList(results);
+        }
+    }
+}
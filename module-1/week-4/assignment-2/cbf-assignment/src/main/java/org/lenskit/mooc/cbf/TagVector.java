@@ -0,0 +1,212 @@
+package org.lenskit.mooc.cbf;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A sparse vector over tags, stored as parallel arrays of tag IDs (in increasing order) and weights.  Tag IDs are
+ * positions in the {@linkplain TFIDFModel#getTagName(int) model's tag dictionary}.
+ *
+ * <p>The arrays are a range of a pair of NIO buffers, so a vector can be a view of the model's
+ * {@linkplain TFIDFModelFile memory-mapped} item vectors without copying them.  Serializing a vector copies it to
+ * the heap.</p>
+ */
+public final class TagVector implements Serializable {
+    private static final long serialVersionUID = 3L;
+
+    static final TagVector EMPTY = new TagVector(new int[0], new double[0]);
+
+    private final IntBuffer tags;
+    private final DoubleBuffer weights;
+    private final int start;
+    private final int size;
+    private final double norm;
+
+    /**
+     * Create a tag vector.
+     * @param tags The tag IDs, in increasing order.
+     * @param weights The tag weights.
+     */
+    TagVector(int[] tags, double[] weights) {
+        this(IntBuffer.wrap(tags), DoubleBuffer.wrap(weights), 0, tags.length, computeNorm(weights));
+    }
+
+    /**
+     * Create a view of a range of tag and weight buffers.  Only absolute access is used, so the
+     * buffers are shared rather than copied.
+     * @param tags The tag ID buffer; the range must be in increasing order.
+     * @param weights The weight buffer.
+     * @param start The position of the vector's first entry in the buffers.
+     * @param size The number of entries in the vector.
+     * @param norm The Euclidean norm of the vector's weights.
+     */
+    TagVector(IntBuffer tags, DoubleBuffer weights, int start, int size, double norm) {
+        this.tags = tags;
+        this.weights = weights;
+        this.start = start;
+        this.size = size;
+        this.norm = norm;
+    }
+
+    private static double computeNorm(double[] weights) {
+        double ss = 0;
+        for (double w : weights) {
+            ss += w * w;
+        }
+        return Math.sqrt(ss);
+    }
+
+    /**
+     * Create a tag vector from a map of tag IDs to weights.
+     * @param map The tag weights.
+     * @return The tag vector.
+     */
+    static TagVector fromMap(Int2DoubleMap map) {
+        int[] tags = map.keySet().toIntArray();
+        IntArrays.quickSort(tags);
+        double[] weights = new double[tags.length];
+        for (int i = 0; i < tags.length; i++) {
+            weights[i] = map.get(tags[i]);
+        }
+        return new TagVector(tags, weights);
+    }
+
+    /**
+     * Get the number of tags in the vector.
+     * @return The number of tags with a stored weight.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the Euclidean norm of the vector.  It is computed when the vector is created.
+     * @return The vector's norm.
+     */
+    public double getNorm() {
+        return norm;
+    }
+
+    /**
+     * Get the tag ID at a position.
+     * @param i The position.
+     * @return The tag ID.
+     */
+    public int getTag(int i) {
+        return tags.get(start + i);
+    }
+
+    /**
+     * Get the weight at a position.
+     * @param i The position.
+     * @return The weight of the tag at position {@code i}.
+     */
+    public double getWeight(int i) {
+        return weights.get(start + i);
+    }
+
+    /**
+     * Get the weight of a tag.
+     * @param tag The tag ID.
+     * @return The tag's weight, or 0 if the vector does not contain it.
+     */
+    public double get(int tag) {
+        int i = find(tag);
+        return i >= 0 ? weights.get(i) : 0;
+    }
+
+    /**
+     * Compute the dot product of this vector with another vector over tag IDs.  This iterates over
+     * the smaller of the two vectors, looking its tags up in the larger one.
+     * @param other The other vector; its default return value must be 0.
+     * @return The dot product.
+     */
+    public double dot(Int2DoubleMap other) {
+        double sum = 0;
+        if (size <= other.size()) {
+            for (int i = start, end = start + size; i < end; i++) {
+                sum += weights.get(i) * other.get(tags.get(i));
+            }
+        } else {
+            for (Int2DoubleMap.Entry e : other.int2DoubleEntrySet()) {
+                int i = find(e.getIntKey());
+                if (i >= 0) {
+                    sum += weights.get(i) * e.getDoubleValue();
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Add this vector, scaled by a factor, to an accumulator over tag IDs.
+     * @param acc The accumulator; its default return value must be 0.
+     * @param scale The factor to multiply the weights by.
+     */
+    public void addTo(Int2DoubleOpenHashMap acc, double scale) {
+        for (int i = start, end = start + size; i < end; i++) {
+            acc.addTo(tags.get(i), scale * weights.get(i));
+        }
+    }
+
+    /**
+     * Binary search the vector for a tag.
+     * @return The buffer position of the tag, or a negative value if the vector does not contain it.
+     */
+    private int find(int tag) {
+        int lo = start;
+        int hi = start + size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int t = tags.get(mid);
+            if (t < tag) {
+                lo = mid + 1;
+            } else if (t > tag) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private Object writeReplace() {
+        int[] ts = new int[size];
+        double[] ws = new double[size];
+        for (int i = 0; i < size; i++) {
+            ts[i] = getTag(i);
+            ws[i] = getWeight(i);
+        }
+        return new SerializedForm(ts, ws);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("tag vectors are deserialized from their serialized form");
+    }
+
+    /**
+     * The serialized form of a vector, with its entries copied into arrays.
+     */
+    private static class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] tags;
+        private final double[] weights;
+
+        SerializedForm(int[] tags, double[] weights) {
+            this.tags = tags;
+            this.weights = weights;
+        }
+
+        private Object readResolve() {
+            return new TagVector(tags, weights);
+        }
+    }
+}
@@ -1,50 +1,69 @@
 package org.lenskit.mooc.cbf;
 
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 import org.lenskit.data.ratings.Rating;
+import org.lenskit.inject.Shareable;
 
-import javax.annotation.Nonnull;
 import javax.inject.Inject;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 /**
  * Build a user profile from all positive ratings.
  */
-public class ThresholdUserProfileBuilder implements UserProfileBuilder {
+@Shareable
+public class ThresholdUserProfileBuilder extends AbstractUserProfileBuilder {
+    private static final long serialVersionUID = 1L;
+
     /**
      * The lowest rating that will be considered in the user's profile.
      */
     private static final double RATING_THRESHOLD = 3.5;
 
     /**
-     * The tag model, to get item tag vectors.
+     * Construct a profile builder that does not cache profiles.
+     *
+     * @param m The tag model.
      */
-    private final TFIDFModel model;
+    public ThresholdUserProfileBuilder(TFIDFModel m) {
+        this(m, 0, 0);
+    }
 
+    /**
+     * Construct a profile builder.
+     *
+     * @param m      The tag model.
+     * @param size   The number of profiles to cache.
+     * @param expiry The number of seconds to keep a cached profile after its last use.
+     */
     @Inject
-    public ThresholdUserProfileBuilder(TFIDFModel m) {
-        model = m;
+    public ThresholdUserProfileBuilder(TFIDFModel m, @ProfileCacheSize int size,
+                                       @ProfileCacheExpiry int expiry) {
+        super(m, size, expiry);
     }
 
     @Override
-    public Map<String, Double> makeUserProfile(@Nonnull List<Rating> ratings) {
+    protected UserProfileCache.Accumulator newAccumulator() {
+        return new Accumulator();
+    }
+
+    /**
+     * Accumulates the sum of the vectors of the items the user rated positively.
+     */
+    private class Accumulator implements UserProfileCache.Accumulator {
         // Create a new vector over tags to accumulate the user profile
-        Map<String,Double> profile = new HashMap<>();
+        private final Int2DoubleOpenHashMap profile = new Int2DoubleOpenHashMap();
 
-        // Iterate over the user's ratings to build their profile
-        for (Rating r: ratings) {
+        @Override
+        public void add(Rating r) {
             if (r.getValue() >= RATING_THRESHOLD) {
-
-                // TODO Get this item's vector and add it to the user's profile
-                Map<String, Double> itemVector = model.getItemVector(r.getItemId());
-                for (Map.Entry<String, Double> entry : itemVector.entrySet()) {
-                    profile.compute(entry.getKey(), (k, v) -> (v == null) ? entry.getValue() : v + entry.getValue());
-                }
+                // Get this item's vector and add it to the user's profile
+                model.getItemTagVector(r.getItemId()).addTo(profile, 1.0);
             }
         }
 
-        // The profile is accumulated, return it.
-        return profile;
+        @Override
+        public Int2DoubleMap getProfile() {
+            return new Int2DoubleOpenHashMap(profile);
+        }
     }
 }
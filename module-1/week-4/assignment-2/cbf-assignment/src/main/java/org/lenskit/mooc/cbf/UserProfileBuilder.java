@@ -1,5 +1,6 @@
 package org.lenskit.mooc.cbf;
 
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 import org.lenskit.data.ratings.Rating;
 
 import javax.annotation.Nonnull;
@@ -19,4 +20,13 @@ public interface UserProfileBuilder {
      * @return A vector of tag weights describing the user's preferences.
      */
     Map<String,Double> makeUserProfile(@Nonnull List<Rating> ratings);
+
+    /**
+     * Create a user profile over the tag IDs of the {@linkplain TFIDFModel model's} tag dictionary.
+     * This is the profile {@link #makeUserProfile(List)} returns, without looking up tag strings.
+     *
+     * @param ratings The user's history (their ratings).
+     * @return A vector of tag weights describing the user's preferences, keyed by tag ID.
+     */
+    Int2DoubleMap makeTagProfile(@Nonnull List<Rating> ratings);
 }
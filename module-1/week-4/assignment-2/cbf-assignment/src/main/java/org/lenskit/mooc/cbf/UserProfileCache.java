@@ -0,0 +1,145 @@
+package org.lenskit.mooc.cbf;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import org.lenskit.data.ratings.Rating;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Cache of user profile accumulators, keyed by user.  When a profile is requested for a rating
+ * history, the cached accumulator is brought up to date with it: if the history only gained
+ * ratings since the accumulator last saw it, just the new ratings are folded in; if a rating was
+ * changed or removed, the accumulator is rebuilt from the whole history.  Ratings are matched by
+ * item, value and number of occurrences, so dropping one rating and repeating another is seen as
+ * a change.
+ *
+ * <p>The cache is safe to use from several threads.</p>
+ */
+final class UserProfileCache {
+    /**
+     * Accumulates a user profile from ratings.
+     */
+    interface Accumulator {
+        /**
+         * Fold a rating into the profile.
+         * @param rating The rating.
+         */
+        void add(Rating rating);
+
+        /**
+         * Get the profile accumulated so far.
+         * @return A new vector over tag IDs.
+         */
+        Int2DoubleMap getProfile();
+    }
+
+    private final Cache<Long, Entry> cache;
+
+    /**
+     * Create a profile cache.
+     * @param size The maximum number of profiles to keep.
+     * @param expiry The number of seconds to keep a profile after its last use.
+     */
+    UserProfileCache(int size, int expiry) {
+        cache = CacheBuilder.newBuilder()
+                            .maximumSize(size)
+                            .expireAfterAccess(expiry, TimeUnit.SECONDS)
+                            .build();
+    }
+
+    /**
+     * Get the profile for a user's rating history.
+     * @param ratings The user's ratings.
+     * @param factory Creates empty accumulators.
+     * @return The user's profile.
+     */
+    Int2DoubleMap getProfile(List<Rating> ratings, Supplier<? extends Accumulator> factory) {
+        if (ratings.isEmpty()) {
+            return new Int2DoubleOpenHashMap();
+        }
+
+        Entry entry;
+        try {
+            entry = cache.get(ratings.get(0).getUserId(), Entry::new);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("cannot create cache entry", e);
+        }
+
+        synchronized (entry) {
+            entry.update(ratings, factory);
+            return entry.accumulator.getProfile();
+        }
+    }
+
+    /**
+     * A user's cached profile, with the ratings it was accumulated from.
+     */
+    private static class Entry {
+        // the value of each rated item, or NaN if it was rated twice with different values
+        final Long2DoubleOpenHashMap ratedItems = new Long2DoubleOpenHashMap();
+        // the number of times each item was rated
+        final Long2IntOpenHashMap ratingCounts = new Long2IntOpenHashMap();
+        int ratingCount;
+        Accumulator accumulator;
+
+        Entry() {
+            ratedItems.defaultReturnValue(Double.NaN);
+        }
+
+        void update(List<Rating> ratings, Supplier<? extends Accumulator> factory) {
+            if (accumulator != null && ratings.size() >= ratingCount) {
+                // the history only gained ratings if every rating folded in is still there, as
+                // often as before and with the same value; the other ratings are new
+                Long2IntOpenHashMap matched = new Long2IntOpenHashMap();
+                List<Rating> added = new ArrayList<>(ratings.size() - ratingCount);
+                boolean appended = true;
+                for (Rating r : ratings) {
+                    long item = r.getItemId();
+                    int count = ratingCounts.get(item);
+                    if (count == 0) {
+                        added.add(r);
+                    } else if (ratedItems.get(item) != r.getValue() || matched.addTo(item, 1) >= count) {
+                        appended = false;
+                        break;
+                    }
+                }
+                if (appended && added.size() == ratings.size() - ratingCount) {
+                    for (Rating r : added) {
+                        fold(r);
+                    }
+                    return;
+                }
+            }
+
+            // start over
+            ratedItems.clear();
+            ratingCounts.clear();
+            ratingCount = 0;
+            accumulator = factory.get();
+            for (Rating r : ratings) {
+                fold(r);
+            }
+        }
+
+        private void fold(Rating r) {
+            long item = r.getItemId();
+            if (ratingCounts.addTo(item, 1) == 0) {
+                ratedItems.put(item, r.getValue());
+            } else if (ratedItems.get(item) != r.getValue()) {
+                // cannot tell later which of the values is kept, so the next change rebuilds
+                ratedItems.put(item, Double.NaN);
+            }
+            accumulator.add(r);
+            ratingCount += 1;
+        }
+    }
+}
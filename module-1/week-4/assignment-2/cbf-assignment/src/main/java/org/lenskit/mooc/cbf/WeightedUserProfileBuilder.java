@@ -1,46 +1,80 @@
 package org.lenskit.mooc.cbf;
 
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 import org.lenskit.data.ratings.Rating;
+import org.lenskit.inject.Shareable;
 
-import javax.annotation.Nonnull;
 import javax.inject.Inject;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 /**
- * Build a user profile from all positive ratings.
+ * Build a user profile from all ratings, weighting each item by how far the user's rating of it is
+ * from their mean rating.
  */
-public class WeightedUserProfileBuilder implements UserProfileBuilder {
+@Shareable
+public class WeightedUserProfileBuilder extends AbstractUserProfileBuilder {
+    private static final long serialVersionUID = 1L;
+
     /**
-     * The tag model, to get item tag vectors.
+     * Construct a profile builder that does not cache profiles.
+     *
+     * @param m The tag model.
      */
-    private final TFIDFModel model;
+    public WeightedUserProfileBuilder(TFIDFModel m) {
+        this(m, 0, 0);
+    }
 
+    /**
+     * Construct a profile builder.
+     *
+     * @param m      The tag model.
+     * @param size   The number of profiles to cache.
+     * @param expiry The number of seconds to keep a cached profile after its last use.
+     */
     @Inject
-    public WeightedUserProfileBuilder(TFIDFModel m) {
-        model = m;
+    public WeightedUserProfileBuilder(TFIDFModel m, @ProfileCacheSize int size,
+                                      @ProfileCacheExpiry int expiry) {
+        super(m, size, expiry);
     }
 
     @Override
-    public Map<String, Double> makeUserProfile(@Nonnull List<Rating> ratings) {
-        // Create a new vector over tags to accumulate the user profile
-        Map<String, Double> profile = new HashMap<>();
+    protected UserProfileCache.Accumulator newAccumulator() {
+        return new Accumulator();
+    }
+
+    /**
+     * Accumulates the weighted profile with running sums.  The profile is
+     * {@code sum((r - mean) * v) = sum(r * v) - mean * sum(v)}, so keeping the rating-weighted and
+     * unweighted sums of the item vectors, and the sum and count of the ratings, lets the mean
+     * change as ratings are added without revisiting the items already in the profile.
+     */
+    private class Accumulator implements UserProfileCache.Accumulator {
+        private final Int2DoubleOpenHashMap weightedSum = new Int2DoubleOpenHashMap();
+        private final Int2DoubleOpenHashMap vectorSum = new Int2DoubleOpenHashMap();
+        private double ratingSum;
+        private int ratingCount;
 
-        // TODO Normalize the user's ratings
-        double mean = ratings.stream().map(Rating::getValue).reduce(0.0, Double::sum) / ratings.size();
+        @Override
+        public void add(Rating r) {
+            TagVector iv = model.getItemTagVector(r.getItemId());
+            iv.addTo(weightedSum, r.getValue());
+            iv.addTo(vectorSum, 1.0);
+            ratingSum += r.getValue();
+            ratingCount += 1;
+        }
 
-        // TODO Build the user's weighted profile
+        @Override
+        public Int2DoubleMap getProfile() {
+            // Normalize the user's ratings
+            double mean = ratingSum / ratingCount;
 
-        for (Rating r : ratings) {
-            Map<String, Double> itemVector = model.getItemVector(r.getItemId());
-            for (Map.Entry<String, Double> entry : itemVector.entrySet()) {
-                double tagScore = (r.getValue() - mean) * entry.getValue();
-                profile.compute(entry.getKey(), (k, v) -> (v == null) ? tagScore : v + tagScore);
+            // Build the user's weighted profile
+            Int2DoubleOpenHashMap profile = new Int2DoubleOpenHashMap(vectorSum.size());
+            for (Int2DoubleMap.Entry e : vectorSum.int2DoubleEntrySet()) {
+                int tag = e.getIntKey();
+                profile.put(tag, weightedSum.get(tag) - mean * e.getDoubleValue());
             }
+            return profile;
         }
-
-        // The profile is accumulated, return it.
-        return profile;
     }
 }
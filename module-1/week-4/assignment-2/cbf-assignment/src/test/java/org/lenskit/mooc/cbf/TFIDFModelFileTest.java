@@ -0,0 +1,72 @@
+package org.lenskit.mooc.cbf;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lenskit.api.Result;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for writing and mapping TF-IDF model files.
+ */
+public class TFIDFModelFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        TFIDFModel model = TFIDFModelProviderTest.createModel();
+        Path file = folder.newFile("tfidf.model").toPath();
+        TFIDFModelFile.write(model, file);
+        TFIDFModel mapped = TFIDFModelFile.open(file);
+
+        assertThat(mapped.getTagCount(), equalTo(model.getTagCount()));
+        for (int id = 0; id < model.getTagCount(); id++) {
+            assertThat(mapped.getTagId(model.getTagName(id)), equalTo(id));
+        }
+        for (long item = 1; item <= 3; item++) {
+            assertThat(mapped.getItemVector(item), equalTo(model.getItemVector(item)));
+            assertThat(mapped.getItemTagVector(item).getNorm(),
+                       equalTo(model.getItemTagVector(item).getNorm()));
+        }
+        assertThat(mapped.getItemTagVector(42).size(), equalTo(0));
+
+        Int2DoubleMap profile = new Int2DoubleOpenHashMap();
+        profile.put(model.getTagId("walrus"), 1.0);
+        profile.put(model.getTagId("hamster"), 0.5);
+        List<Result> expected = model.getPostingIndex().findTopN(profile, -1, item -> true);
+        assertThat(mapped.getPostingIndex().findTopN(profile, -1, item -> true), equalTo(expected));
+    }
+
+    @Test
+    public void testSerializeMappedModel() throws IOException, ClassNotFoundException {
+        TFIDFModel model = TFIDFModelProviderTest.createModel();
+        Path file = folder.newFile("tfidf.model").toPath();
+        TFIDFModelFile.write(model, file);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(TFIDFModelFile.open(file));
+        }
+        TFIDFModel copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (TFIDFModel) in.readObject();
+        }
+        for (long item = 1; item <= 3; item++) {
+            assertThat(copy.getItemVector(item), equalTo(model.getItemVector(item)));
+        }
+        assertThat(copy.getPostingIndex().getPostingCount(model.getTagId("walrus")), equalTo(2));
+    }
+}
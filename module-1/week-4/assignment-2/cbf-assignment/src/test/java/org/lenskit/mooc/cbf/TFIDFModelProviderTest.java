@@ -1,7 +1,10 @@
 package org.lenskit.mooc.cbf;
 
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 import org.junit.Before;
 import org.junit.Test;
+import org.lenskit.api.Result;
 import org.lenskit.data.dao.file.StaticDataSource;
 import org.lenskit.data.entities.CommonTypes;
 import org.lenskit.data.entities.Entities;
@@ -11,8 +14,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -80,4 +86,36 @@ public class TFIDFModelProviderTest {
         assertThat(v3.keySet(),
                    contains("jubjub bird"));
     }
+
+    @Test
+    public void testTagDictionary() {
+        // every tag gets an ID, and the ID vectors agree with the tag vectors
+        assertThat(model.getTagCount(), equalTo(3));
+        int walrus = model.getTagId("walrus");
+        assertThat(model.getTagName(walrus), equalTo("walrus"));
+        assertThat(model.getTagId("unicorn"), equalTo(-1));
+
+        TagVector v2 = model.getItemTagVector(2);
+        assertThat(v2.size(), equalTo(2));
+        assertThat(v2.getTag(0), lessThan(v2.getTag(1)));
+        assertThat(v2.get(walrus), equalTo(model.getItemVector(2).get("walrus")));
+        assertThat(model.getItemTagVector(42).size(), equalTo(0));
+    }
+
+    @Test
+    public void testPostingIndex() {
+        // a profile that only likes walruses finds the two walrus items, purest walrus first
+        Int2DoubleMap profile = new Int2DoubleOpenHashMap();
+        profile.put(model.getTagId("walrus"), 1.0);
+
+        List<Result> all = model.getPostingIndex().findTopN(profile, -1, item -> true);
+        assertThat(all.size(), equalTo(2));
+        assertThat(all.get(0).getId(), equalTo(1L));
+        assertThat(all.get(0).getScore(), closeTo(1.0, 1.0e-6));
+        assertThat(all.get(1).getId(), equalTo(2L));
+
+        List<Result> one = model.getPostingIndex().findTopN(profile, 1, item -> item != 1);
+        assertThat(one.size(), equalTo(1));
+        assertThat(one.get(0).getId(), equalTo(2L));
+    }
 }
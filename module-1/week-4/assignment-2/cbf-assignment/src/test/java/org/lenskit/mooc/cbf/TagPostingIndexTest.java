@@ -0,0 +1,173 @@
+package org.lenskit.mooc.cbf;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entities;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityFactory;
+import org.lenskit.data.ratings.Rating;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.LongPredicate;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Check the posting index's top-N search against exhaustive scoring with {@link TFIDFItemScorer} on random data.
+ * Tag use is skewed, so posting lists range from a few items to most of them, and profiles mix rare and common
+ * tags; this exercises both the pruning of non-essential terms and skipping through long posting lists.
+ */
+public class TagPostingIndexTest {
+    private static final int ITEMS = 400;
+    private static final int TAGS = 80;
+    private static final int USERS = 40;
+
+    private final Random rng = new Random(42);
+    private DataAccessObject dao;
+    private TFIDFModel model;
+    private List<Long> items;
+
+    @Before
+    public void createData() {
+        List<Entity> tags = new ArrayList<>();
+        long id = 1;
+        for (long i = 1; i <= ITEMS; i++) {
+            int count = 1 + rng.nextInt(15);
+            for (int k = 0; k < count; k++) {
+                double x = rng.nextDouble();
+                tags.add(Entities.newBuilder(TagData.ITEM_TAG_TYPE)
+                                 .setId(id++)
+                                 .setAttribute(TagData.ITEM_ID, i)
+                                 .setAttribute(TagData.TAG, "tag" + (int) (TAGS * x * x))
+                                 .build());
+            }
+        }
+
+        EntityFactory factory = new EntityFactory();
+        List<Entity> ratings = new ArrayList<>();
+        for (long u = 1; u <= USERS; u++) {
+            int count = 1 + rng.nextInt(30);
+            for (int k = 0; k < count; k++) {
+                ratings.add(factory.rating(u, 1 + rng.nextInt(ITEMS), 0.5 * (1 + rng.nextInt(10))));
+            }
+        }
+
+        StaticDataSource data = new StaticDataSource("test");
+        data.addSource(tags);
+        data.addSource(ratings);
+        data.addDerivedEntity(CommonTypes.ITEM, TagData.ITEM_TAG_TYPE, TagData.ITEM_ID);
+        data.addDerivedEntity(CommonTypes.USER, CommonTypes.RATING, CommonAttributes.USER_ID);
+        dao = data.get();
+        model = new TFIDFModelProvider(dao).get();
+        items = new ArrayList<>(dao.getEntityIds(CommonTypes.ITEM));
+    }
+
+    @Test
+    public void testUserProfiles() {
+        for (UserProfileBuilder builder : new UserProfileBuilder[]{new ThresholdUserProfileBuilder(model),
+                                                                   new WeightedUserProfileBuilder(model)}) {
+            TFIDFItemScorer scorer = new TFIDFItemScorer(dao, model, builder);
+            for (long user = 1; user <= USERS; user++) {
+                List<Rating> ratings = dao.query(Rating.class)
+                                          .withAttribute(CommonAttributes.USER_ID, user)
+                                          .get();
+                checkTopN(builder.makeTagProfile(ratings), scorer.scoreWithDetails(user, items));
+            }
+        }
+    }
+
+    @Test
+    public void testRandomProfiles() {
+        for (int trial = 0; trial < 200; trial++) {
+            Int2DoubleMap profile = new Int2DoubleOpenHashMap();
+            int terms = 1 + rng.nextInt(trial % 2 == 0 ? 5 : TAGS);
+            for (int k = 0; k < terms; k++) {
+                // mostly positive weights, over a wide range, so some terms cannot reach the top N on their own
+                double w = Math.pow(10, 2 * rng.nextDouble() - 1) * (rng.nextInt(5) == 0 ? -1 : 1);
+                profile.put(rng.nextInt(model.getTagCount()), w);
+            }
+            TFIDFItemScorer scorer = new TFIDFItemScorer(dao, model, new FixedProfileBuilder(profile));
+            checkTopN(profile, scorer.scoreWithDetails(1, items));
+        }
+    }
+
+    /**
+     * Check the top-N search for a profile, with several list sizes and item filters, against exhaustive scores.
+     */
+    private void checkTopN(Int2DoubleMap profile, ResultMap exhaustive) {
+        for (int n : new int[]{1, 5, 20, -1}) {
+            for (LongPredicate accept : new LongPredicate[]{item -> true, item -> item % 3 != 0}) {
+                List<Result> expected = new ArrayList<>();
+                for (Result r : exhaustive) {
+                    if (r.getScore() > 1.0e-12 && accept.test(r.getId())) {
+                        expected.add(r);
+                    }
+                }
+                expected.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+                if (n >= 0 && expected.size() > n) {
+                    expected = expected.subList(0, n);
+                }
+
+                List<Result> actual = model.getPostingIndex().findTopN(profile, n, accept);
+                assertThat(actual.size(), equalTo(expected.size()));
+                for (int i = 0; i < actual.size(); i++) {
+                    assertThat(actual.get(i).getScore(), closeTo(expected.get(i).getScore(), 1.0e-9));
+                    assertThat(actual.get(i).getScore(),
+                               closeTo(exhaustive.getScore(actual.get(i).getId()), 1.0e-9));
+                }
+                // items may tie with the last one kept, but everything that beats it must be found
+                if (!expected.isEmpty()) {
+                    double last = expected.get(expected.size() - 1).getScore();
+                    assertThat(aboveScore(actual, last), equalTo(aboveScore(expected, last)));
+                }
+            }
+        }
+    }
+
+    private static Set<Long> aboveScore(List<Result> results, double score) {
+        Set<Long> ids = new HashSet<>();
+        for (Result r : results) {
+            if (r.getScore() > score + 1.0e-9) {
+                ids.add(r.getId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * A profile builder that ignores the ratings and returns a fixed profile.
+     */
+    private class FixedProfileBuilder implements UserProfileBuilder {
+        private final Int2DoubleMap profile;
+
+        FixedProfileBuilder(Int2DoubleMap profile) {
+            this.profile = profile;
+        }
+
+        @Override
+        public Map<String, Double> makeUserProfile(@Nonnull List<Rating> ratings) {
+            return model.getTagMap(profile);
+        }
+
+        @Override
+        public Int2DoubleMap makeTagProfile(@Nonnull List<Rating> ratings) {
+            return profile;
+        }
+    }
+}
@@ -7,18 +7,21 @@ import org.lenskit.data.history.History;
 import org.lenskit.data.history.UserHistory;
 import org.lenskit.data.ratings.Rating;
 
+import java.util.Arrays;
 import java.util.Map;
 
+import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
 
 public class WeightedUserProfileBuilderTest {
     private EntityFactory factory = new EntityFactory();
+    private TFIDFModel model;
     private WeightedUserProfileBuilder profileBuilder;
 
     @Before
     public void buildModel() {
-        TFIDFModel model = TFIDFModelProviderTest.createModel();
+        model = TFIDFModelProviderTest.createModel();
         profileBuilder = new WeightedUserProfileBuilder(model);
     }
 
@@ -45,4 +48,31 @@ public class WeightedUserProfileBuilderTest {
         // two tags!
         assertThat(vector.size(), equalTo(2));
     }
+
+    @Test
+    public void testCachedProfileFollowsHistory() throws Exception {
+        WeightedUserProfileBuilder cached = new WeightedUserProfileBuilder(model, 10, 60);
+        UserHistory<Rating> one = History.forUser(42, factory.rating(42, 1, 4.0));
+        UserHistory<Rating> two = History.forUser(42, factory.rating(42, 1, 4.0),
+                                                  factory.rating(42, 2, 3.0));
+        UserHistory<Rating> changed = History.forUser(42, factory.rating(42, 1, 2.0),
+                                                      factory.rating(42, 2, 3.0));
+        // dropping item 2 while repeating item 1 keeps the same number of matching ratings
+        UserHistory<Rating> swapped = History.forUser(42, factory.rating(42, 1, 4.0),
+                                                      factory.rating(42, 1, 4.0),
+                                                      factory.rating(42, 3, 5.0));
+        UserHistory<Rating> regrown = History.forUser(42, factory.rating(42, 1, 4.0),
+                                                      factory.rating(42, 1, 4.0),
+                                                      factory.rating(42, 3, 5.0),
+                                                      factory.rating(42, 2, 3.0));
+        // added, changed and removed ratings give the same profile as building it from scratch
+        for (UserHistory<Rating> history : Arrays.asList(one, two, changed, one, two, swapped, regrown, two)) {
+            Map<String, Double> expected = profileBuilder.makeUserProfile(history);
+            Map<String, Double> vector = cached.makeUserProfile(history);
+            assertThat(vector.keySet(), equalTo(expected.keySet()));
+            for (String tag : expected.keySet()) {
+                assertThat(vector.get(tag), closeTo(expected.get(tag), 1.0e-6));
+            }
+        }
+    }
 }
@@ -1,5 +1,15 @@
 import org.lenskit.api.ItemScorer
+import org.lenskit.mooc.uu.NeighborCandidateFinder
+import org.lenskit.mooc.uu.ProjectionBitCount
+import org.lenskit.mooc.uu.ProjectionTableCount
+import org.lenskit.mooc.uu.RandomProjectionCandidateFinder
 import org.lenskit.mooc.uu.SimpleUserUserItemScorer
 
 // use our item scorer
-bind ItemScorer to SimpleUserUserItemScorer
\ No newline at end of file
+bind ItemScorer to SimpleUserUserItemScorer
+
+// uncomment to search neighbors approximately with a random-projection index;
+// run the lshRecall task to see how many true neighbors a setting finds
+// bind NeighborCandidateFinder to RandomProjectionCandidateFinder
+// set ProjectionTableCount to 16
+// set ProjectionBitCount to 6
@@ -0,0 +1,57 @@
+package org.lenskit.mooc.uu;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Data for the user-user benchmarks: either a data source file, such as {@code data/movielens.yml}, or a synthetic
+ * rating matrix.  Neighborhoods depend on how many users share rated items, so the synthetic item popularity is
+ * skewed towards low item IDs, as in real rating data.
+ */
+final class BenchmarkData {
+    static final String SYNTHETIC = "synthetic";
+
+    private BenchmarkData() {
+    }
+
+    static DataAccessObject load(String dataSource, int users, int items, double density) throws IOException {
+        if (!SYNTHETIC.equals(dataSource)) {
+            return StaticDataSource.load(Paths.get(dataSource)).get();
+        }
+
+        EntityFactory factory = new EntityFactory();
+        Random rng = new Random(42);
+        List<Entity> ratings = new ArrayList<>();
+        int perUser = Math.max(1, (int) Math.round(density * items));
+        for (long u = 1; u <= users; u++) {
+            IntSet picked = new IntOpenHashSet();
+            int count = Math.min(items, 1 + rng.nextInt(2 * perUser));
+            while (picked.size() < count) {
+                // squaring a uniform draw favors low item IDs
+                double x = rng.nextDouble();
+                picked.add(1 + (int) (items * x * x));
+            }
+            for (int i : picked) {
+                ratings.add(factory.rating(u, i, 0.5 * (1 + rng.nextInt(10))));
+            }
+        }
+
+        StaticDataSource source = new StaticDataSource(SYNTHETIC);
+        source.addSource(ratings);
+        source.addDerivedEntity(CommonTypes.ITEM, CommonTypes.RATING, CommonAttributes.ITEM_ID);
+        source.addDerivedEntity(CommonTypes.USER, CommonTypes.RATING, CommonAttributes.USER_ID);
+        return source.get();
+    }
+}
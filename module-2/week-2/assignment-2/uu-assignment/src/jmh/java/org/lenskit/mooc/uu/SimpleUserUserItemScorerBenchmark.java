@@ -0,0 +1,73 @@
+package org.lenskit.mooc.uu;
+
+import org.lenskit.api.ResultMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonTypes;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for scoring items with the user-user item scorer.  Each call scores a random sample of
+ * candidate items for the next user in a fixed rotation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimpleUserUserItemScorerBenchmark {
+    @Param(BenchmarkData.SYNTHETIC)
+    public String dataSource;
+    @Param("5000")
+    public int users;
+    @Param("2000")
+    public int items;
+    @Param("0.02")
+    public double density;
+    /**
+     * The neighbor candidate finder: {@code all} for exact search, or {@code projection} for the
+     * random projection index with its default tables and bits.
+     */
+    @Param({"all", "projection"})
+    public String finder;
+    @Param("100")
+    public int candidates;
+
+    private SimpleUserUserItemScorer scorer;
+    private long[] userIds;
+    private List<Long> itemIds;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        DataAccessObject dao = BenchmarkData.load(dataSource, users, items, density);
+        SimpleUserUserModel model = new SimpleUserUserModelProvider(dao).get();
+        NeighborCandidateFinder candidateFinder;
+        if (finder.equals("projection")) {
+            RandomProjectionIndex index = new RandomProjectionIndexProvider(model, 16, 6).get();
+            candidateFinder = new RandomProjectionCandidateFinder(index);
+        } else {
+            candidateFinder = new AllUsersCandidateFinder();
+        }
+        scorer = new SimpleUserUserItemScorer(dao, model, candidateFinder);
+
+        userIds = dao.getEntityIds(CommonTypes.USER).toLongArray();
+        itemIds = new ArrayList<>(dao.getEntityIds(CommonTypes.ITEM));
+        Collections.shuffle(itemIds, new Random(42));
+        itemIds = new ArrayList<>(itemIds.subList(0, Math.min(candidates, itemIds.size())));
+    }
+
+    @Benchmark
+    public ResultMap score() {
+        long user = userIds[next];
+        next = (next + 1) % userIds.length;
+        return scorer.scoreWithDetails(user, itemIds);
+    }
+}
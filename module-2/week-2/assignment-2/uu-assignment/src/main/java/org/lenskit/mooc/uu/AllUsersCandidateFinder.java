@@ -0,0 +1,15 @@
+package org.lenskit.mooc.uu;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Candidate finder for exact neighbor search: every user is a candidate.
+ */
+public class AllUsersCandidateFinder implements NeighborCandidateFinder {
+    @Override
+    public IntPredicate findCandidates(Long2DoubleMap vector) {
+        return u -> true;
+    }
+}
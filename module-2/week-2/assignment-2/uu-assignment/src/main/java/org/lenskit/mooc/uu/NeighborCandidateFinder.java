@@ -0,0 +1,23 @@
+package org.lenskit.mooc.uu;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.grouplens.grapht.annotation.DefaultImplementation;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Find the users who may be neighbors of a target user.  The user-user scorer only compares the target user with
+ * the candidates, so a finder can trade some accuracy for speed by ruling out users that are unlikely to be
+ * similar.  The default finder makes every user a candidate, so neighbors are found exactly.
+ */
+@DefaultImplementation(AllUsersCandidateFinder.class)
+public interface NeighborCandidateFinder {
+    /**
+     * Find the neighbor candidates of a user.
+     *
+     * @param vector The target user's mean-centered rating vector.
+     * @return A test accepting the positions (in the {@linkplain SimpleUserUserModel#getUserIndex() model's user
+     *         index}) of the candidate neighbors.
+     */
+    IntPredicate findCandidates(Long2DoubleMap vector);
+}
@@ -0,0 +1,101 @@
+package org.lenskit.mooc.uu;
+
+/**
+ * A bounded min-heap that keeps the most similar neighbors offered to it.  Each neighbor carries its similarity
+ * and its rating of the item being scored.  The heap is backed by primitive arrays and can be {@linkplain #clear()
+ * cleared} and reused, so selecting neighbors for an item allocates nothing.
+ */
+final class NeighborHeap {
+    private final int capacity;
+    private final double[] similarities;
+    private final double[] ratings;
+    private int size;
+
+    /**
+     * Create a new heap.
+     * @param capacity The number of neighbors to keep.
+     */
+    NeighborHeap(int capacity) {
+        this.capacity = capacity;
+        similarities = new double[capacity];
+        ratings = new double[capacity];
+    }
+
+    /**
+     * Remove all neighbors from the heap.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Get the number of neighbors in the heap.
+     * @return The number of neighbors kept so far.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Offer a neighbor to the heap.  It is kept if the heap is not full or if it is more similar than the least
+     * similar neighbor in the heap, which it then replaces.
+     *
+     * @param similarity The neighbor's similarity to the target user.
+     * @param rating The neighbor's rating of the item.
+     */
+    void offer(double similarity, double rating) {
+        if (size < capacity) {
+            // append, then sift up
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (similarities[parent] <= similarity) {
+                    break;
+                }
+                similarities[i] = similarities[parent];
+                ratings[i] = ratings[parent];
+                i = parent;
+            }
+            similarities[i] = similarity;
+            ratings[i] = rating;
+        } else if (capacity > 0 && similarity > similarities[0]) {
+            // replace the root, then sift down
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && similarities[child + 1] < similarities[child]) {
+                    child += 1;
+                }
+                if (similarities[child] >= similarity) {
+                    break;
+                }
+                similarities[i] = similarities[child];
+                ratings[i] = ratings[child];
+                i = child;
+            }
+            similarities[i] = similarity;
+            ratings[i] = rating;
+        }
+    }
+
+    /**
+     * Get the similarity of a neighbor in the heap.  Neighbors are in heap order, not sorted.
+     * @param i The neighbor's position in the heap, less than {@link #size()}.
+     * @return The neighbor's similarity.
+     */
+    double getSimilarity(int i) {
+        return similarities[i];
+    }
+
+    /**
+     * Get the rating of a neighbor in the heap.
+     * @param i The neighbor's position in the heap, less than {@link #size()}.
+     * @return The neighbor's rating of the item.
+     */
+    double getRating(int i) {
+        return ratings[i];
+    }
+}
@@ -0,0 +1,21 @@
+package org.lenskit.mooc.uu;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * The number of random hyperplanes, and so of signature bits, in each table of the random-projection neighbor
+ * index.  More bits make the buckets smaller and more selective, so fewer candidates are compared but more true
+ * neighbors are missed.  Must be between 1 and 31.
+ */
+@Documented
+@DefaultInteger(6)
+@Parameter(Integer.class)
+@Qualifier
+@Target({ElementType.METHOD, ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ProjectionBitCount {
+}
@@ -0,0 +1,21 @@
+package org.lenskit.mooc.uu;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * The number of hash tables in the random-projection neighbor index.  Each table hashes users with its own set
+ * of random hyperplanes, and a user is a neighbor candidate if it shares a bucket with the target user in any
+ * table, so more tables find more of the true neighbors at the cost of more candidates.
+ */
+@Documented
+@DefaultInteger(16)
+@Parameter(Integer.class)
+@Qualifier
+@Target({ElementType.METHOD, ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ProjectionTableCount {
+}
@@ -0,0 +1,32 @@
+package org.lenskit.mooc.uu;
+
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+
+import javax.inject.Inject;
+import java.util.function.IntPredicate;
+
+/**
+ * Candidate finder for approximate neighbor search: the candidates are the users that share a bucket with the
+ * target user in the {@linkplain RandomProjectionIndex random-projection index}.  Its recall is tuned with
+ * {@link ProjectionTableCount} and {@link ProjectionBitCount}.
+ */
+public class RandomProjectionCandidateFinder implements NeighborCandidateFinder {
+    private final RandomProjectionIndex index;
+
+    /**
+     * Construct the candidate finder.
+     *
+     * @param index The random-projection index of the users.
+     */
+    @Inject
+    public RandomProjectionCandidateFinder(RandomProjectionIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public IntPredicate findCandidates(Long2DoubleMap vector) {
+        IntSet candidates = index.findCandidates(vector);
+        return candidates::contains;
+    }
+}
@@ -0,0 +1,119 @@
+package org.lenskit.mooc.uu;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.lenskit.inject.Shareable;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A random-projection (SimHash) index of the users' mean-centered rating vectors, for approximate cosine neighbor
+ * search.  Each of its tables has a set of random hyperplanes; a user's signature in a table has one bit per
+ * hyperplane, telling which side of it the user's vector is on.  Users whose vectors have a small angle between
+ * them are likely to get the same signature, so the users sharing a bucket with the target user in some table are
+ * good neighbor candidates.
+ *
+ * <p>The hyperplanes are never stored: their components are random signs derived by hashing the item ID with the
+ * index's seed and the table number, so vectors over any items can be hashed.</p>
+ */
+@Shareable
+@DefaultProvider(RandomProjectionIndexProvider.class)
+public class RandomProjectionIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long seed;
+    private final int bitCount;
+    private final int[][] bucketKeys;
+    private final int[][] bucketOffsets;
+    private final int[][] bucketUsers;
+
+    /**
+     * Create a new random-projection index.
+     * @param seed The seed of the random hyperplanes.
+     * @param bits The number of signature bits in each table.
+     * @param keys The signatures of each table's buckets, in increasing order.
+     * @param offsets The start of each bucket in the table's user array, followed by the number of users.
+     * @param users The user positions in each table, grouped by bucket.
+     */
+    RandomProjectionIndex(long seed, int bits, int[][] keys, int[][] offsets, int[][] users) {
+        this.seed = seed;
+        bitCount = bits;
+        bucketKeys = keys;
+        bucketOffsets = offsets;
+        bucketUsers = users;
+    }
+
+    /**
+     * Get the number of hash tables in the index.
+     * @return The number of tables.
+     */
+    public int getTableCount() {
+        return bucketKeys.length;
+    }
+
+    /**
+     * Find the candidate neighbors of a vector.
+     * @param vector A mean-centered rating vector.
+     * @return The positions of the users that share a bucket with the vector in at least one table.
+     */
+    public IntSet findCandidates(Long2DoubleMap vector) {
+        int[] signatures = computeSignatures(vector, seed, bucketKeys.length, bitCount);
+        IntSet candidates = new IntOpenHashSet();
+        for (int t = 0; t < signatures.length; t++) {
+            int b = Arrays.binarySearch(bucketKeys[t], signatures[t]);
+            if (b >= 0) {
+                for (int k = bucketOffsets[t][b]; k < bucketOffsets[t][b + 1]; k++) {
+                    candidates.add(bucketUsers[t][k]);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Compute the signatures of a vector in each table.
+     * @param vector The vector.
+     * @param seed The seed of the random hyperplanes.
+     * @param tables The number of tables.
+     * @param bits The number of bits in each signature.
+     * @return The vector's signature in each table.
+     */
+    static int[] computeSignatures(Long2DoubleMap vector, long seed, int tables, int bits) {
+        double[] projections = new double[tables * bits];
+        for (Long2DoubleMap.Entry e : vector.long2DoubleEntrySet()) {
+            double v = e.getDoubleValue();
+            long itemHash = e.getLongKey() * 0x9E3779B97F4A7C15L + seed;
+            for (int t = 0; t < tables; t++) {
+                // one hash gives the signs of this item's component in each of the table's hyperplanes
+                long signs = mix(itemHash + t);
+                for (int b = 0; b < bits; b++) {
+                    projections[t * bits + b] += ((signs >>> b) & 1) == 0 ? v : -v;
+                }
+            }
+        }
+
+        int[] signatures = new int[tables];
+        for (int t = 0; t < tables; t++) {
+            int sig = 0;
+            for (int b = 0; b < bits; b++) {
+                if (projections[t * bits + b] >= 0) {
+                    sig |= 1 << b;
+                }
+            }
+            signatures[t] = sig;
+        }
+        return signatures;
+    }
+
+    /**
+     * Scramble the bits of a 64-bit value (the SplitMix64 finalizer).
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
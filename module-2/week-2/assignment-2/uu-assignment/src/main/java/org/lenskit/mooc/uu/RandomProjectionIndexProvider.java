@@ -0,0 +1,89 @@
+package org.lenskit.mooc.uu;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+/**
+ * Build the random-projection index of the users in the user-user model.
+ */
+public class RandomProjectionIndexProvider implements Provider<RandomProjectionIndex> {
+    private static final Logger logger = LoggerFactory.getLogger(RandomProjectionIndexProvider.class);
+    /**
+     * The seed of the random hyperplanes.  It is fixed so that the index, and so the recommendations, are
+     * reproducible.
+     */
+    private static final long SEED = 0x5DEECE66DL;
+
+    private final SimpleUserUserModel model;
+    private final int tableCount;
+    private final int bitCount;
+
+    /**
+     * Construct the index provider.
+     *
+     * @param model The user-user model, with the users' mean-centered rating vectors.
+     * @param tables The number of hash tables.
+     * @param bits The number of signature bits in each table.
+     */
+    @Inject
+    public RandomProjectionIndexProvider(SimpleUserUserModel model,
+                                         @ProjectionTableCount int tables,
+                                         @ProjectionBitCount int bits) {
+        Preconditions.checkArgument(tables > 0, "table count %s is not positive", tables);
+        Preconditions.checkArgument(bits > 0 && bits < 32, "bit count %s is not between 1 and 31", bits);
+        this.model = model;
+        tableCount = tables;
+        bitCount = bits;
+    }
+
+    @Override
+    public RandomProjectionIndex get() {
+        SortedKeyIndex users = model.getUserIndex();
+        int n = users.size();
+
+        // each entry packs a user's signature in the high word and its position in the low word, so sorting the
+        // entries groups the users by bucket
+        long[][] entries = new long[tableCount][n];
+        for (int u = 0; u < n; u++) {
+            int[] signatures = RandomProjectionIndex.computeSignatures(model.getUserVectorByIndex(u), SEED,
+                                                                       tableCount, bitCount);
+            for (int t = 0; t < tableCount; t++) {
+                entries[t][u] = ((long) signatures[t] << 32) | u;
+            }
+        }
+
+        int[][] keys = new int[tableCount][];
+        int[][] offsets = new int[tableCount][];
+        int[][] members = new int[tableCount][n];
+        for (int t = 0; t < tableCount; t++) {
+            long[] table = entries[t];
+            LongArrays.quickSort(table);
+            IntArrayList tableKeys = new IntArrayList();
+            IntArrayList tableOffsets = new IntArrayList();
+            for (int k = 0; k < n; k++) {
+                int sig = (int) (table[k] >>> 32);
+                if (k == 0 || sig != tableKeys.getInt(tableKeys.size() - 1)) {
+                    tableKeys.add(sig);
+                    tableOffsets.add(k);
+                }
+                members[t][k] = (int) table[k];
+            }
+            tableOffsets.add(n);
+            keys[t] = tableKeys.toIntArray();
+            offsets[t] = tableOffsets.toIntArray();
+            // release the table's entries as soon as it is built
+            entries[t] = null;
+        }
+
+        logger.info("built random-projection index of {} users with {} tables of {} bits",
+                    n, tableCount, bitCount);
+        return new RandomProjectionIndex(SEED, bitCount, keys, offsets, members);
+    }
+}
@@ -0,0 +1,199 @@
+package org.lenskit.mooc.uu;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.lenskit.util.math.Vectors;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Report how well the random-projection index approximates exact user-user neighbor search.  The scorer uses, for
+ * each item, the most similar positive-similarity users among the item's raters, so the report compares those
+ * per-item neighborhoods.  For a sample of users and, for each user, a sample of items the user has not rated, it
+ * finds the item's neighborhood both among all users and among the index's candidates, and prints:
+ *
+ * <ul>
+ *     <li>the recall of the approximate neighborhoods;</li>
+ *     <li>the fraction of the pairs scored by exact search that approximate search also scores (it needs at least
+ *     2 neighbors), and the mean absolute difference between the two scores;</li>
+ *     <li>the fraction of users that were candidates, and the time each search took.</li>
+ * </ul>
+ *
+ * <p>Usage: {@code RandomProjectionRecallReport DATA-SOURCE [TABLES [BITS [NEIGHBORS [USERS [ITEMS]]]]]}, where
+ * {@code DATA-SOURCE} is a LensKit data source file such as {@code data/movielens.yml}, {@code USERS} is the number
+ * of users to sample and {@code ITEMS} the number of items to sample for each user.</p>
+ */
+public final class RandomProjectionRecallReport {
+    private final SimpleUserUserModel model;
+    private final RandomProjectionIndex index;
+    private final int neighborCount;
+
+    private RandomProjectionRecallReport(SimpleUserUserModel model, RandomProjectionIndex index, int neighbors) {
+        this.model = model;
+        this.index = index;
+        neighborCount = neighbors;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: RandomProjectionRecallReport DATA-SOURCE [TABLES [BITS [NEIGHBORS [USERS [ITEMS]]]]]");
+            System.exit(2);
+        }
+        int tables = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int bits = args.length > 2 ? Integer.parseInt(args[2]) : 6;
+        int neighbors = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        int sample = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+        int itemSample = args.length > 5 ? Integer.parseInt(args[5]) : 20;
+
+        DataAccessObject dao = StaticDataSource.load(Paths.get(args[0])).get();
+        SimpleUserUserModel model = new SimpleUserUserModelProvider(dao).get();
+        RandomProjectionIndex index = new RandomProjectionIndexProvider(model, tables, bits).get();
+        new RandomProjectionRecallReport(model, index, neighbors).run(sample, itemSample, tables, bits);
+    }
+
+    private void run(int sample, int itemSample, int tables, int bits) {
+        int n = model.getUserIndex().size();
+        SortedKeyIndex items = model.getItemIndex();
+        int m = items.size();
+        // visit evenly spaced users and items, so the sample covers both indexes
+        int step = Math.max(1, n / Math.max(1, sample));
+        int itemStep = Math.max(1, m / Math.max(1, itemSample));
+
+        int users = 0;
+        int pairs = 0;
+        int pairsWithNeighbors = 0;
+        double recallSum = 0;
+        int exactScored = 0;
+        int bothScored = 0;
+        double errorSum = 0;
+        long candidateSum = 0;
+        long exactNanos = 0;
+        long approxNanos = 0;
+        for (int u = 0; u < n; u += step) {
+            Long2DoubleMap vector = model.getUserVectorByIndex(u);
+            double norm = model.getUserNormByIndex(u);
+
+            // the exact search compares the user with everyone, the approximate one with the candidates
+            long start = System.nanoTime();
+            double[] sims = new double[n];
+            for (int v = 0; v < n; v++) {
+                sims[v] = similarity(vector, norm, v);
+            }
+            exactNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            IntSet candidates = index.findCandidates(vector);
+            double[] candidateSims = new double[n];
+            for (int v : candidates) {
+                candidateSims[v] = similarity(vector, norm, v);
+            }
+            approxNanos += System.nanoTime() - start;
+
+            users += 1;
+            candidateSum += candidates.size();
+            // start at a different item for each user, so the pairs do not share a handful of items
+            for (int j = 0, i = u % itemStep; j < itemSample && i < m; i += itemStep) {
+                long item = items.getKey(i);
+                if (vector.containsKey(item)) {
+                    continue;
+                }
+                j += 1;
+                pairs += 1;
+
+                int[] raters = model.getItemRaters(item);
+                double[] ratings = model.getItemRaterRatings(item);
+                int[] exact = findNeighbors(u, sims, raters, null);
+                int[] approx = findNeighbors(u, candidateSims, raters, candidates);
+                if (exact.length > 0) {
+                    // the approximate neighbors are the candidates ranked by their exact similarity, so they
+                    // include every exact neighbor that is a candidate
+                    int found = 0;
+                    for (int k : exact) {
+                        if (candidates.contains(raters[k])) {
+                            found += 1;
+                        }
+                    }
+                    recallSum += (double) found / exact.length;
+                    pairsWithNeighbors += 1;
+                }
+                if (exact.length >= 2) {
+                    exactScored += 1;
+                    if (approx.length >= 2) {
+                        // both scores add the user's mean rating, so it cancels out of the difference
+                        bothScored += 1;
+                        errorSum += Math.abs(weightedAverage(exact, sims, raters, ratings)
+                                                     - weightedAverage(approx, candidateSims, raters, ratings));
+                    }
+                }
+            }
+        }
+
+        System.out.format("random projections: %d tables of %d bits, %d users, %d sampled, %d user-item pairs%n",
+                          tables, bits, n, users, pairs);
+        System.out.format("neighborhood recall@%d: %.4f (over %d pairs with neighbors)%n",
+                          neighborCount, pairsWithNeighbors > 0 ? recallSum / pairsWithNeighbors : 1.0,
+                          pairsWithNeighbors);
+        System.out.format("scored: %.4f of %d pairs scored by exact search, mean absolute difference %.4f%n",
+                          exactScored > 0 ? (double) bothScored / exactScored : 1.0, exactScored,
+                          bothScored > 0 ? errorSum / bothScored : 0.0);
+        System.out.format("candidates: %.1f per user (%.2f%% of users)%n",
+                          (double) candidateSum / users, 100.0 * candidateSum / users / n);
+        System.out.format("search time: exact %.3f ms/user, approximate %.3f ms/user%n",
+                          exactNanos / 1.0e6 / users, approxNanos / 1.0e6 / users);
+    }
+
+    private double similarity(Long2DoubleMap vector, double norm, int v) {
+        double sim = Vectors.dotProduct(vector, model.getUserVectorByIndex(v)) / (norm * model.getUserNormByIndex(v));
+        return Double.isNaN(sim) ? 0 : sim;
+    }
+
+    /**
+     * Find the neighborhood of a user for an item: its most similar positive-similarity raters.  Raters with the
+     * same similarity are ranked by user position, so the neighborhood does not depend on the order of the search.
+     *
+     * @param self The user position.
+     * @param sims The user's similarity to each user, by position.
+     * @param raters The positions of the item's raters.
+     * @param candidates The users to consider, or {@code null} to consider everyone.
+     * @return The positions in {@code raters} of the neighbors.
+     */
+    private int[] findNeighbors(int self, double[] sims, int[] raters, IntSet candidates) {
+        IntArrayList positive = new IntArrayList();
+        for (int k = 0; k < raters.length; k++) {
+            int v = raters[k];
+            if (v != self && sims[v] > 0 && (candidates == null || candidates.contains(v))) {
+                positive.add(k);
+            }
+        }
+
+        int[] neighbors = positive.toIntArray();
+        IntArrays.quickSort(neighbors, new AbstractIntComparator() {
+            @Override
+            public int compare(int a, int b) {
+                int cmp = Double.compare(sims[raters[b]], sims[raters[a]]);
+                return cmp != 0 ? cmp : Integer.compare(raters[a], raters[b]);
+            }
+        });
+        return neighbors.length > neighborCount ? IntArrays.trim(neighbors, neighborCount) : neighbors;
+    }
+
+    /**
+     * Average the neighbors' mean-centered ratings of an item, weighted by similarity.
+     */
+    private static double weightedAverage(int[] neighbors, double[] sims, int[] raters, double[] ratings) {
+        double weighted = 0;
+        double total = 0;
+        for (int k : neighbors) {
+            weighted += sims[raters[k]] * ratings[k];
+            total += sims[raters[k]];
+        }
+        return weighted / total;
+    }
+}
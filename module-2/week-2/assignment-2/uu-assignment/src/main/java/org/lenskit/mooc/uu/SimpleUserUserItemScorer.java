@@ -1,23 +1,24 @@
 package org.lenskit.mooc.uu;
 
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
-import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.entities.CommonAttributes;
-import org.lenskit.data.entities.CommonTypes;
 import org.lenskit.data.ratings.Rating;
 import org.lenskit.results.Results;
 import org.lenskit.util.math.Vectors;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
-import java.util.*;
-import java.util.Map.Entry;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntPredicate;
 
 /**
  * User-user item scorer.
@@ -26,98 +27,109 @@ import java.util.stream.Stream;
  */
 public class SimpleUserUserItemScorer extends AbstractItemScorer {
     private final DataAccessObject dao;
+    private final SimpleUserUserModel model;
+    private final NeighborCandidateFinder candidateFinder;
     private final int neighborhoodSize;
 
     /**
      * Instantiate a new user-user item scorer.
      *
      * @param dao The data access object.
+     * @param model The user-user model, with the other users' normalized ratings.
+     * @param finder The finder of the users to consider as neighbors.
      */
     @Inject
-    public SimpleUserUserItemScorer(DataAccessObject dao) {
+    public SimpleUserUserItemScorer(DataAccessObject dao, SimpleUserUserModel model,
+                                    NeighborCandidateFinder finder) {
         this.dao = dao;
+        this.model = model;
+        candidateFinder = finder;
         neighborhoodSize = 30;
     }
 
     @Nonnull
     @Override
     public ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items) {
-        LongSet users = dao.getEntityIds(CommonTypes.USER);
-
-        double targetUserMeanRating = meanRating(getUserRatingVector(user));
-        Map<Long, Long2DoubleOpenHashMap> normalizedUserRatings = normalizeUserRatings(users);
-        List<Entry<Long, Double>> similarities = calculateSimilarities(user, normalizedUserRatings).entrySet().stream()
-                .sorted(Entry.<Long, Double>comparingByValue().reversed())
-                .collect(Collectors.toList());
-
-        return Results.newResultMap(
-                items.stream()
-                        .map(item -> calculateItemScore(item, similarities, normalizedUserRatings, targetUserMeanRating))
-                        .flatMap(o -> o.map(Stream::of).orElseGet(Stream::empty))
-                        .collect(Collectors.toList())
-        );
+        Long2DoubleOpenHashMap targetUserRatings = getUserRatingVector(user);
+        if (targetUserRatings.isEmpty()) {
+            return Results.newResultMap();
+        }
+
+        double targetUserMeanRating = meanRating(targetUserRatings);
+        Long2DoubleOpenHashMap normalizedRatings = normalizeRatingsVector(targetUserRatings);
+        double targetUserNorm = Vectors.euclideanNorm(normalizedRatings);
+        int self = model.getUserIndex().tryGetIndex(user);
+        IntPredicate candidates = candidateFinder.findCandidates(normalizedRatings);
+
+        // Similarities of the users we have compared to the target user so far, by user position.  Only users
+        // who rated one of the requested items are ever compared.
+        Int2DoubleMap similarities = new Int2DoubleOpenHashMap();
+        similarities.defaultReturnValue(Double.NaN);
+
+        NeighborHeap neighbors = new NeighborHeap(neighborhoodSize);
+        List<Result> results = new ArrayList<>();
+        for (long item : items) {
+            Result r = calculateItemScore(item, self, candidates, normalizedRatings, targetUserNorm, similarities,
+                                          neighbors, targetUserMeanRating);
+            if (r != null) {
+                results.add(r);
+            }
+        }
+        return Results.newResultMap(results);
     }
 
-    private Optional<Result> calculateItemScore(long item, List<Entry<Long, Double>> similarities, Map<Long, Long2DoubleOpenHashMap> normalizedUserRatings, double targetUserMeanRating) {
-        int contributions = 0;
-        double weightedSumOfNeighbors = 0.0;
-        double sumOfSimilarities = 0.0;
+    private Result calculateItemScore(long item, int self, IntPredicate candidates,
+                                      Long2DoubleMap targetUserRatings, double targetUserNorm,
+                                      Int2DoubleMap similarities, NeighborHeap neighbors,
+                                      double targetUserMeanRating) {
+        // For each item’s score, use the 30 most similar users who have rated the item and
+        // whose similarity to the target user is positive.  We only look at the item's raters, so the cost
+        // depends on the item's popularity rather than on the number of users.
+        int[] raters = model.getItemRaters(item);
+        double[] raterRatings = model.getItemRaterRatings(item);
+        neighbors.clear();
+        for (int k = 0; k < raters.length; k++) {
+            int neighbor = raters[k];
+            // Skipping self-correlated user, and users the candidate finder ruled out
+            if (neighbor == self || !candidates.test(neighbor)) {
+                continue;
+            }
 
-        for (Entry<Long, Double> neighborSim : similarities) {
-            // For each item’s score, use the 30 most similar users who have rated the item and
-            // whose similarity to the target user is positive.
-            if (contributions >= neighborhoodSize || neighborSim.getValue() <= 0.0) {
-                break;
+            double similarity = similarities.get(neighbor);
+            if (Double.isNaN(similarity)) {
+                similarity = cosineSimilarity(targetUserRatings, targetUserNorm, neighbor);
+                similarities.put(neighbor, similarity);
             }
-            Long neighborId = neighborSim.getKey();
-            Double neighborSimilarity = neighborSim.getValue();
-
-            Map<Long, Double> neighborRatings = normalizedUserRatings.get(neighborId);
-            if (neighborRatings.containsKey(item)) {
-                weightedSumOfNeighbors += neighborSimilarity * neighborRatings.get(item);
-                sumOfSimilarities += neighborSimilarity;
-                contributions++;
+            if (similarity > 0.0) {
+                neighbors.offer(similarity, raterRatings[k]);
             }
         }
 
+        int contributions = neighbors.size();
+        double weightedSumOfNeighbors = 0.0;
+        double sumOfSimilarities = 0.0;
+        for (int n = 0; n < contributions; n++) {
+            weightedSumOfNeighbors += neighbors.getSimilarity(n) * neighbors.getRating(n);
+            sumOfSimilarities += neighbors.getSimilarity(n);
+        }
+
         // Refuse to score items if there are not at least 2 neighbors to contribute to the item’s score.
         if (contributions >= 2) {
-            return Optional.of(Results.create(item, targetUserMeanRating + (weightedSumOfNeighbors / sumOfSimilarities)));
+            return Results.create(item, targetUserMeanRating + (weightedSumOfNeighbors / sumOfSimilarities));
         } else {
-            return Optional.empty();
+            return null;
         }
     }
 
-    private Long2DoubleOpenHashMap calculateSimilarities(long user, Map<Long, Long2DoubleOpenHashMap> normalizedUserRatings) {
-        Long2DoubleOpenHashMap similarities = new Long2DoubleOpenHashMap();
-        Long2DoubleOpenHashMap targetUserRatings = normalizedUserRatings.get(user);
-
-        for (long neighbor : normalizedUserRatings.keySet()) {
-            // Skipping self-correlated user
-            if (neighbor == user) {
-                continue;
-            }
-
-            Long2DoubleOpenHashMap neighborRatings = normalizedUserRatings.get(neighbor);
-            similarities.put(neighbor, cosineSimilarity(targetUserRatings, neighborRatings));
-        }
-
-        return similarities;
-    }
-
-    private double cosineSimilarity(Long2DoubleOpenHashMap targetUserRatings, Long2DoubleOpenHashMap neighborRatings) {
-        double similarity = Vectors.dotProduct(targetUserRatings, neighborRatings) /
-                (Vectors.euclideanNorm(targetUserRatings) * Vectors.euclideanNorm(neighborRatings));
+    private double cosineSimilarity(Long2DoubleMap targetUserRatings, double targetUserNorm, int neighbor) {
+        double similarity = Vectors.dotProduct(targetUserRatings, model.getUserVectorByIndex(neighbor)) /
+                (targetUserNorm * model.getUserNormByIndex(neighbor));
         if (Double.isNaN(similarity)) {
             similarity = 0;
         }
         return similarity;
     }
 
-    private Map<Long, Long2DoubleOpenHashMap> normalizeUserRatings(LongSet users) {
-        return users.stream().collect(Collectors.toMap(u -> u, u -> normalizeRatingsVector(getUserRatingVector(u))));
-    }
-
     private Long2DoubleOpenHashMap normalizeRatingsVector(Long2DoubleOpenHashMap ratings) {
         Long2DoubleOpenHashMap results = new Long2DoubleOpenHashMap();
 
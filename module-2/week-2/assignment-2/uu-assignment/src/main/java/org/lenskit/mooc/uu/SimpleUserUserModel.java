@@ -0,0 +1,118 @@
+package org.lenskit.mooc.uu;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMaps;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.lenskit.inject.Shareable;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.io.Serializable;
+
+/**
+ * A user-user model.  It stores each user's mean-centered rating vector and its norm, and an index from each item
+ * to the users who rated it and their mean-centered ratings, so scoring only needs to look at the users who rated
+ * the items being scored.
+ *
+ * <p>Users and items are addressed by their position in the model's {@linkplain #getUserIndex() user index} and
+ * item index.</p>
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Shareable
+@DefaultProvider(SimpleUserUserModelProvider.class)
+public class SimpleUserUserModel implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int[] NO_RATERS = new int[0];
+    private static final double[] NO_RATINGS = new double[0];
+
+    private final SortedKeyIndex userIndex;
+    private final Long2DoubleMap[] userVectors;
+    private final double[] userNorms;
+    private final SortedKeyIndex itemIndex;
+    private final int[][] itemRaters;
+    private final double[][] itemRatings;
+
+    /**
+     * Create a new user-user model.
+     * @param users The index of users.
+     * @param vectors The users' mean-centered rating vectors, by user position.
+     * @param norms The Euclidean norms of the users' mean-centered rating vectors.
+     * @param items The index of rated items.
+     * @param raters The positions of the users who rated each item, by item position, in increasing order.
+     * @param ratings The users' mean-centered ratings of each item, parallel to {@code raters}.
+     */
+    SimpleUserUserModel(SortedKeyIndex users, Long2DoubleMap[] vectors, double[] norms,
+                        SortedKeyIndex items, int[][] raters, double[][] ratings) {
+        userIndex = users;
+        userVectors = vectors;
+        userNorms = norms;
+        itemIndex = items;
+        itemRaters = raters;
+        itemRatings = ratings;
+    }
+
+    /**
+     * Get the index of users known to the model.
+     * @return The user index.
+     */
+    public SortedKeyIndex getUserIndex() {
+        return userIndex;
+    }
+
+    /**
+     * Get the index of items rated by the users in the model.
+     * @return The item index.
+     */
+    public SortedKeyIndex getItemIndex() {
+        return itemIndex;
+    }
+
+    /**
+     * Get a user's mean-centered rating vector.
+     * @param user The user ID.
+     * @return The user's mean-centered ratings, or an empty vector if the user is unknown.
+     */
+    public Long2DoubleMap getUserVector(long user) {
+        int pos = userIndex.tryGetIndex(user);
+        return pos >= 0 ? userVectors[pos] : Long2DoubleMaps.EMPTY_MAP;
+    }
+
+    /**
+     * Get the mean-centered rating vector of the user at a position.
+     * @param pos The user position.
+     * @return The user's mean-centered ratings.
+     */
+    public Long2DoubleMap getUserVectorByIndex(int pos) {
+        return userVectors[pos];
+    }
+
+    /**
+     * Get the norm of the mean-centered rating vector of the user at a position.
+     * @param pos The user position.
+     * @return The Euclidean norm of the user's mean-centered ratings.
+     */
+    public double getUserNormByIndex(int pos) {
+        return userNorms[pos];
+    }
+
+    /**
+     * Get the users who rated an item.  The returned array is shared and must not be modified.
+     * @param item The item ID.
+     * @return The positions of the users who rated the item, in increasing order.
+     */
+    public int[] getItemRaters(long item) {
+        int pos = itemIndex.tryGetIndex(item);
+        return pos >= 0 ? itemRaters[pos] : NO_RATERS;
+    }
+
+    /**
+     * Get the mean-centered ratings of the users who rated an item.  The returned array is shared and must not be
+     * modified.
+     * @param item The item ID.
+     * @return The ratings, parallel to {@link #getItemRaters(long)}.
+     */
+    public double[] getItemRaterRatings(long item) {
+        int pos = itemIndex.tryGetIndex(item);
+        return pos >= 0 ? itemRatings[pos] : NO_RATINGS;
+    }
+}
@@ -0,0 +1,103 @@
+package org.lenskit.mooc.uu;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.inject.Transient;
+import org.lenskit.util.IdBox;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.lenskit.util.math.Vectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.List;
+
+/**
+ * Build the user-user model from the ratings in the DAO.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class SimpleUserUserModelProvider implements Provider<SimpleUserUserModel> {
+    private static final Logger logger = LoggerFactory.getLogger(SimpleUserUserModelProvider.class);
+
+    private final DataAccessObject dao;
+
+    /**
+     * Construct the model provider.
+     *
+     * @param dao The data access object.
+     */
+    @Inject
+    public SimpleUserUserModelProvider(@Transient DataAccessObject dao) {
+        this.dao = dao;
+    }
+
+    @Override
+    public SimpleUserUserModel get() {
+        Long2ObjectMap<Long2DoubleMap> vectors = new Long2ObjectOpenHashMap<>();
+
+        // Mean-center each user's ratings, in one pass over the ratings grouped by user.
+        try (ObjectStream<IdBox<List<Rating>>> stream = dao.query(Rating.class)
+                .groupBy(CommonAttributes.USER_ID)
+                .stream()) {
+            for (IdBox<List<Rating>> user : stream) {
+                Long2DoubleOpenHashMap ratings = new Long2DoubleOpenHashMap();
+                for (Rating r : user.getValue()) {
+                    ratings.put(r.getItemId(), r.getValue());
+                }
+
+                double mean = Vectors.mean(ratings);
+                for (Long2DoubleMap.Entry e : ratings.long2DoubleEntrySet()) {
+                    e.setValue(e.getDoubleValue() - mean);
+                }
+
+                vectors.put(user.getId(), LongUtils.frozenMap(ratings));
+            }
+        }
+
+        // Lay the users out by position, and index the users who rated each item.
+        SortedKeyIndex users = SortedKeyIndex.fromCollection(vectors.keySet());
+        Long2DoubleMap[] userVectors = new Long2DoubleMap[users.size()];
+        double[] userNorms = new double[users.size()];
+        Long2ObjectMap<IntArrayList> raterLists = new Long2ObjectOpenHashMap<>();
+        Long2ObjectMap<DoubleArrayList> ratingLists = new Long2ObjectOpenHashMap<>();
+        for (int u = 0; u < users.size(); u++) {
+            Long2DoubleMap vec = vectors.get(users.getKey(u));
+            userVectors[u] = vec;
+            userNorms[u] = Vectors.euclideanNorm(vec);
+            for (Long2DoubleMap.Entry e : vec.long2DoubleEntrySet()) {
+                long item = e.getLongKey();
+                IntArrayList raters = raterLists.get(item);
+                if (raters == null) {
+                    raters = new IntArrayList();
+                    raterLists.put(item, raters);
+                    ratingLists.put(item, new DoubleArrayList());
+                }
+                // users are visited in order, so each rater list is sorted
+                raters.add(u);
+                ratingLists.get(item).add(e.getDoubleValue());
+            }
+        }
+
+        SortedKeyIndex items = SortedKeyIndex.fromCollection(raterLists.keySet());
+        int[][] itemRaters = new int[items.size()][];
+        double[][] itemRatings = new double[items.size()][];
+        for (int i = 0; i < items.size(); i++) {
+            itemRaters[i] = raterLists.get(items.getKey(i)).toIntArray();
+            itemRatings[i] = ratingLists.get(items.getKey(i)).toDoubleArray();
+        }
+
+        logger.info("built user-user model for {} users and {} items", users.size(), items.size());
+        return new SimpleUserUserModel(users, userVectors, userNorms, items, itemRaters, itemRatings);
+    }
+}
@@ -0,0 +1,113 @@
+package org.lenskit.mooc.uu;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the bounded neighbor heap, against sorting all the offered neighbors.
+ */
+public class NeighborHeapTest {
+    @Test
+    public void testZeroCapacity() {
+        NeighborHeap heap = new NeighborHeap(0);
+        heap.offer(0.5, 4.0);
+        heap.offer(0.9, 3.0);
+        assertThat(heap.size(), equalTo(0));
+    }
+
+    @Test
+    public void testNotFull() {
+        NeighborHeap heap = new NeighborHeap(5);
+        heap.offer(0.3, 1.0);
+        heap.offer(0.1, 2.0);
+        heap.offer(0.2, 3.0);
+        assertThat(heap.size(), equalTo(3));
+        // the least similar neighbor is at the root
+        assertThat(heap.getSimilarity(0), equalTo(0.1));
+        assertThat(heap.getRating(0), equalTo(2.0));
+        assertThat(contents(heap), containsInAnyOrder(pair(0.1, 2.0), pair(0.2, 3.0), pair(0.3, 1.0)));
+    }
+
+    @Test
+    public void testReplaceRoot() {
+        NeighborHeap heap = new NeighborHeap(3);
+        heap.offer(0.5, 1.0);
+        heap.offer(0.2, 2.0);
+        heap.offer(0.7, 3.0);
+        // no more similar than the root, so dropped
+        heap.offer(0.2, 4.0);
+        heap.offer(0.1, 5.0);
+        assertThat(contents(heap), containsInAnyOrder(pair(0.2, 2.0), pair(0.5, 1.0), pair(0.7, 3.0)));
+        // replaces the root, and its rating moves with it
+        heap.offer(0.6, 6.0);
+        assertThat(heap.size(), equalTo(3));
+        assertThat(heap.getSimilarity(0), equalTo(0.5));
+        assertThat(heap.getRating(0), equalTo(1.0));
+        assertThat(contents(heap), containsInAnyOrder(pair(0.5, 1.0), pair(0.6, 6.0), pair(0.7, 3.0)));
+    }
+
+    @Test
+    public void testOfferAfterClear() {
+        NeighborHeap heap = new NeighborHeap(2);
+        heap.offer(0.9, 1.0);
+        heap.offer(0.8, 2.0);
+        heap.clear();
+        assertThat(heap.size(), equalTo(0));
+        // less similar than the cleared neighbors, but the heap is empty again
+        heap.offer(0.1, 3.0);
+        assertThat(contents(heap), contains(pair(0.1, 3.0)));
+        heap.offer(0.3, 4.0);
+        heap.offer(0.2, 5.0);
+        assertThat(contents(heap), containsInAnyOrder(pair(0.2, 5.0), pair(0.3, 4.0)));
+    }
+
+    @Test
+    public void testMatchesSort() {
+        Random rng = new Random(42);
+        NeighborHeap heap = new NeighborHeap(30);
+        for (int count : new int[]{10, 30, 100, 500}) {
+            heap.clear();
+            List<Double> offered = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                // the rating identifies the neighbor, so the test can check it stays with its similarity
+                double sim = rng.nextDouble();
+                offered.add(sim);
+                heap.offer(sim, i);
+            }
+            List<Double> expected = new ArrayList<>(offered);
+            expected.sort(Collections.reverseOrder());
+            expected = expected.subList(0, Math.min(30, count));
+
+            List<Double> kept = new ArrayList<>();
+            for (int i = 0; i < heap.size(); i++) {
+                kept.add(heap.getSimilarity(i));
+                assertThat(offered.get((int) heap.getRating(i)), equalTo(heap.getSimilarity(i)));
+                // heap order: no neighbor is less similar than its parent
+                if (i > 0) {
+                    assertThat(heap.getSimilarity(i), greaterThanOrEqualTo(heap.getSimilarity((i - 1) / 2)));
+                }
+            }
+            assertThat(kept, containsInAnyOrder(expected.toArray()));
+        }
+    }
+
+    private static List<List<Double>> contents(NeighborHeap heap) {
+        List<List<Double>> pairs = new ArrayList<>();
+        for (int i = 0; i < heap.size(); i++) {
+            pairs.add(pair(heap.getSimilarity(i), heap.getRating(i)));
+        }
+        return pairs;
+    }
+
+    private static List<Double> pair(double similarity, double rating) {
+        return Arrays.asList(similarity, rating);
+    }
+}
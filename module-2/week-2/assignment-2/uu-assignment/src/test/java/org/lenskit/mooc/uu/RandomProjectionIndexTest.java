@@ -0,0 +1,92 @@
+package org.lenskit.mooc.uu;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import org.junit.Test;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.EntityFactory;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the random-projection index: signatures depend only on the vector's direction and the seed, and every
+ * user is a candidate neighbor of its own vector.
+ */
+public class RandomProjectionIndexTest {
+    private static final long SEED = 42;
+
+    private static Long2DoubleMap randomVector(Random rng) {
+        Long2DoubleMap vector = new Long2DoubleOpenHashMap();
+        for (long item = 1; item <= 50; item++) {
+            if (rng.nextInt(3) == 0) {
+                vector.put(item, rng.nextGaussian());
+            }
+        }
+        return vector;
+    }
+
+    @Test
+    public void testSignaturesDeterministic() {
+        Random rng = new Random(17);
+        for (int i = 0; i < 20; i++) {
+            Long2DoubleMap vector = randomVector(rng);
+            int[] sigs = RandomProjectionIndex.computeSignatures(vector, SEED, 8, 6);
+            assertThat(sigs.length, equalTo(8));
+            for (int sig : sigs) {
+                assertThat(sig, allOf(greaterThanOrEqualTo(0), lessThan(1 << 6)));
+            }
+            // the same vector, built in another order, has the same signatures
+            Long2DoubleMap copy = new Long2DoubleOpenHashMap();
+            long[] keys = vector.keySet().toLongArray();
+            for (int k = keys.length - 1; k >= 0; k--) {
+                copy.put(keys[k], vector.get(keys[k]));
+            }
+            assertThat(RandomProjectionIndex.computeSignatures(copy, SEED, 8, 6), equalTo(sigs));
+            // scaling the vector does not change which side of each hyperplane it is on
+            Long2DoubleMap scaled = new Long2DoubleOpenHashMap();
+            for (Long2DoubleMap.Entry e : vector.long2DoubleEntrySet()) {
+                scaled.put(e.getLongKey(), 2.5 * e.getDoubleValue());
+            }
+            assertThat(RandomProjectionIndex.computeSignatures(scaled, SEED, 8, 6), equalTo(sigs));
+        }
+    }
+
+    @Test
+    public void testSeedChangesHyperplanes() {
+        Random rng = new Random(17);
+        int differ = 0;
+        for (int i = 0; i < 20; i++) {
+            Long2DoubleMap vector = randomVector(rng);
+            if (!Arrays.equals(RandomProjectionIndex.computeSignatures(vector, SEED, 8, 6),
+                               RandomProjectionIndex.computeSignatures(vector, SEED + 1, 8, 6))) {
+                differ++;
+            }
+        }
+        assertThat(differ, greaterThan(0));
+    }
+
+    @Test
+    public void testOwnBucket() {
+        DataAccessObject dao = UserUserTestData.createDAO(
+                UserUserTestData.randomRatings(new EntityFactory(), 42, 100, 30, item -> 1.0 / 3));
+        SimpleUserUserModel model = new SimpleUserUserModelProvider(dao).get();
+
+        for (int tables : new int[]{1, 4}) {
+            RandomProjectionIndex index = new RandomProjectionIndexProvider(model, tables, 8).get();
+            assertThat(index.getTableCount(), equalTo(tables));
+            for (int u = 0; u < model.getUserIndex().size(); u++) {
+                assertThat("candidates of user " + u,
+                           index.findCandidates(model.getUserVectorByIndex(u)), hasItem(u));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectTooManyBits() {
+        new RandomProjectionIndexProvider(null, 4, 32);
+    }
+}
@@ -0,0 +1,173 @@
+package org.lenskit.mooc.uu;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.ResultMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityFactory;
+import org.lenskit.data.ratings.Rating;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests the user-user scorer against the original brute-force computation: compare the target user with every
+ * other user, sort them by similarity, and average the ratings of the first 30 positive-similarity users who rated
+ * each item, requiring at least 2 of them.
+ */
+public class SimpleUserUserItemScorerTest {
+    private static final int USERS = 150;
+    private static final int ITEMS = 40;
+    private static final int NEIGHBORHOOD_SIZE = 30;
+    private static final double EPSILON = 1.0e-9;
+
+    private DataAccessObject dao;
+    private SimpleUserUserModel model;
+    private List<Long> items;
+
+    @Before
+    public void createData() {
+        // users rate most of the first items, so those have many more positive-similarity raters than the
+        // neighborhood size, and few of the last items, so some of those have fewer than 2
+        EntityFactory factory = new EntityFactory();
+        List<Entity> ratings = UserUserTestData.randomRatings(factory, 42, USERS, ITEMS,
+                                                             item -> Math.max(0.05, 1 - (item - 1.0) / ITEMS));
+        // a user who gave every item the same rating, so has no similarity to anyone
+        for (long item = 1; item <= 5; item++) {
+            ratings.add(factory.rating(USERS + 1, item, 3.0));
+        }
+        dao = UserUserTestData.createDAO(ratings);
+        model = new SimpleUserUserModelProvider(dao).get();
+
+        items = new ArrayList<>(dao.getEntityIds(CommonTypes.ITEM));
+        // an item no one rated
+        items.add(999L);
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        SimpleUserUserItemScorer scorer = new SimpleUserUserItemScorer(dao, model, new AllUsersCandidateFinder());
+        Map<Long, Map<Long, Double>> vectors = normalizedRatings();
+        int cut = 0;
+        int unscored = 0;
+        for (long user : dao.getEntityIds(CommonTypes.USER)) {
+            Map<Long, Double> sims = similarities(user, vectors);
+            Map<Long, Double> expected = bruteForceScores(user, vectors, sims);
+            ResultMap scores = scorer.scoreWithDetails(user, items);
+            assertThat("items scored for user " + user, scores.keySet(), equalTo(expected.keySet()));
+            for (Map.Entry<Long, Double> e : expected.entrySet()) {
+                assertThat("score of " + e.getKey() + " for user " + user,
+                           scores.getScore(e.getKey()), closeTo(e.getValue(), EPSILON));
+            }
+            unscored += items.size() - expected.size();
+            for (long item : items) {
+                long raters = sims.entrySet().stream()
+                                  .filter(e -> e.getValue() > 0 && vectors.get(e.getKey()).containsKey(item))
+                                  .count();
+                if (raters > NEIGHBORHOOD_SIZE) {
+                    cut++;
+                }
+            }
+        }
+        // the data has to exercise both the neighborhood cutoff and the refusal to score
+        assertThat(cut, greaterThan(0));
+        assertThat(unscored, greaterThan(0));
+    }
+
+    @Test
+    public void testUnknownUser() {
+        SimpleUserUserItemScorer scorer = new SimpleUserUserItemScorer(dao, model, new AllUsersCandidateFinder());
+        assertThat(scorer.scoreWithDetails(999, items).size(), equalTo(0));
+    }
+
+    /**
+     * Get every user's mean-centered ratings.
+     */
+    private Map<Long, Map<Long, Double>> normalizedRatings() {
+        Map<Long, Map<Long, Double>> vectors = new HashMap<>();
+        for (Rating r : dao.query(Rating.class).get()) {
+            vectors.computeIfAbsent(r.getUserId(), u -> new HashMap<>()).put(r.getItemId(), r.getValue());
+        }
+        for (Map<Long, Double> vec : vectors.values()) {
+            double mean = vec.values().stream().mapToDouble(v -> v).average().getAsDouble();
+            vec.replaceAll((item, v) -> v - mean);
+        }
+        return vectors;
+    }
+
+    /**
+     * Score every item for a user as the original scorer did.
+     */
+    private Map<Long, Double> bruteForceScores(long user, Map<Long, Map<Long, Double>> vectors,
+                                               Map<Long, Double> sims) {
+        double mean = 0;
+        for (Rating r : dao.query(Rating.class).withAttribute(CommonAttributes.USER_ID, user).get()) {
+            mean += r.getValue();
+        }
+        mean /= vectors.get(user).size();
+
+        List<Long> neighbors = new ArrayList<>(sims.keySet());
+        neighbors.sort((a, b) -> Double.compare(sims.get(b), sims.get(a)));
+        Map<Long, Double> scores = new HashMap<>();
+        for (long item : items) {
+            double weighted = 0;
+            double total = 0;
+            int count = 0;
+            for (long v : neighbors) {
+                double sim = sims.get(v);
+                if (count >= NEIGHBORHOOD_SIZE || sim <= 0) {
+                    break;
+                }
+                Double rating = vectors.get(v).get(item);
+                if (rating != null) {
+                    weighted += sim * rating;
+                    total += sim;
+                    count++;
+                }
+            }
+            if (count >= 2) {
+                scores.put(item, mean + weighted / total);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Compute the similarity of every other user to a user.
+     */
+    private static Map<Long, Double> similarities(long user, Map<Long, Map<Long, Double>> vectors) {
+        Map<Long, Double> sims = new HashMap<>();
+        for (Map.Entry<Long, Map<Long, Double>> e : vectors.entrySet()) {
+            if (e.getKey() != user) {
+                sims.put(e.getKey(), cosine(vectors.get(user), e.getValue()));
+            }
+        }
+        return sims;
+    }
+
+    private static double cosine(Map<Long, Double> a, Map<Long, Double> b) {
+        double dot = 0;
+        double na = 0;
+        double nb = 0;
+        for (Map.Entry<Long, Double> e : a.entrySet()) {
+            Double other = b.get(e.getKey());
+            if (other != null) {
+                dot += e.getValue() * other;
+            }
+            na += e.getValue() * e.getValue();
+        }
+        for (double v : b.values()) {
+            nb += v * v;
+        }
+        double sim = dot / (Math.sqrt(na) * Math.sqrt(nb));
+        return Double.isNaN(sim) ? 0 : sim;
+    }
+}
@@ -0,0 +1,57 @@
+package org.lenskit.mooc.uu;
+
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongToDoubleFunction;
+
+/**
+ * Random rating data for the user-user tests.
+ */
+final class UserUserTestData {
+    private UserUserTestData() {
+    }
+
+    /**
+     * Create random half-star ratings.  Users and items are numbered from 1.
+     * @param factory The entity factory, so that further ratings made with it get distinct IDs.
+     * @param seed The random seed.
+     * @param users The number of users.
+     * @param items The number of items.
+     * @param density The probability that a user rates an item, by item ID.
+     * @return The ratings.
+     */
+    static List<Entity> randomRatings(EntityFactory factory, long seed, int users, int items,
+                                      LongToDoubleFunction density) {
+        Random rng = new Random(seed);
+        List<Entity> ratings = new ArrayList<>();
+        for (long user = 1; user <= users; user++) {
+            for (long item = 1; item <= items; item++) {
+                if (rng.nextDouble() < density.applyAsDouble(item)) {
+                    ratings.add(factory.rating(user, item, 0.5 * (1 + rng.nextInt(10))));
+                }
+            }
+        }
+        return ratings;
+    }
+
+    /**
+     * Create a DAO over ratings, with the users and items derived from them.
+     * @param ratings The ratings.
+     * @return The data access object.
+     */
+    static DataAccessObject createDAO(List<Entity> ratings) {
+        StaticDataSource data = new StaticDataSource("test");
+        data.addSource(ratings);
+        data.addDerivedEntity(CommonTypes.USER, CommonTypes.RATING, CommonAttributes.USER_ID);
+        data.addDerivedEntity(CommonTypes.ITEM, CommonTypes.RATING, CommonAttributes.ITEM_ID);
+        return data.get();
+    }
+}
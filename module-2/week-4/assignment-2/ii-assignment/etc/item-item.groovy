@@ -1,8 +1,20 @@
 import org.lenskit.api.ItemBasedItemScorer
 import org.lenskit.api.ItemScorer
+import org.lenskit.mooc.ii.MappedItemItemModelProvider
+import org.lenskit.mooc.ii.ModelFile
 import org.lenskit.mooc.ii.SimpleItemBasedItemScorer
+import org.lenskit.mooc.ii.SimpleItemItemModel
 import org.lenskit.mooc.ii.SimpleItemItemScorer
+import org.lenskit.mooc.ii.SparseItemItemModelProvider
 
 // use our item scorer
 bind ItemScorer to SimpleItemItemScorer
-bind ItemBasedItemScorer to SimpleItemBasedItemScorer
\ No newline at end of file
+bind ItemBasedItemScorer to SimpleItemBasedItemScorer
+
+// uncomment to build the model from co-rated item pairs only
+// bind SimpleItemItemModel toProvider SparseItemItemModelProvider
+
+// uncomment to map a model file written by the writeModelFile task instead of building the model; the file's
+// neighborhoods are used as they are, so if you set ModelSize, write the file with the same -PmodelSize
+// bind SimpleItemItemModel toProvider MappedItemItemModelProvider
+// set ModelFile to 'build/item-item.model'
@@ -0,0 +1,59 @@
+package org.lenskit.mooc.ii;
+
+import org.lenskit.data.dao.DataAccessObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for building the item-item model, with either the all-pairs provider or the co-rating
+ * provider.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimpleItemItemModelBenchmark {
+    @Param(BenchmarkData.SYNTHETIC)
+    public String dataSource;
+    @Param("2000")
+    public int users;
+    @Param("1000")
+    public int items;
+    @Param("0.02")
+    public double density;
+    /**
+     * The model provider: {@code simple} for all item pairs, or {@code sparse} for co-rated pairs.
+     */
+    @Param({"simple", "sparse"})
+    public String provider;
+    /**
+     * The number of threads to build the model with; 0 uses one per processor.
+     */
+    @Param("1")
+    public int threads;
+    /**
+     * The number of neighbors to keep per item; 0 keeps all of them.
+     */
+    @Param("0")
+    public int modelSize;
+
+    private DataAccessObject dao;
+
+    @Setup
+    public void loadData() throws IOException {
+        dao = BenchmarkData.load(dataSource, users, items, density);
+    }
+
+    @Benchmark
+    public SimpleItemItemModel buildModel() {
+        if (provider.equals("sparse")) {
+            return new SparseItemItemModelProvider(dao, threads, modelSize).get();
+        } else {
+            return new SimpleItemItemModelProvider(dao, threads, modelSize).get();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.lenskit.mooc.ii;
+
+import org.lenskit.api.ResultMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.util.IdBox;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for scoring items with the item-item item scorer.  Each call to {@link #score()} scores a random sample
+ * of candidate items for the next user in a fixed rotation; each call to {@link #scoreBatch()} scores the same sample
+ * for every user with the batch scoring API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimpleItemItemScorerBenchmark {
+    @Param(BenchmarkData.SYNTHETIC)
+    public String dataSource;
+    @Param("2000")
+    public int users;
+    @Param("1000")
+    public int items;
+    @Param("0.02")
+    public double density;
+    /**
+     * The number of neighbors to keep per item; 0 keeps all of them.
+     */
+    @Param("0")
+    public int modelSize;
+    @Param("100")
+    public int candidates;
+    /**
+     * The number of threads for batch scoring; 0 uses one per processor.
+     */
+    @Param("0")
+    public int threads;
+
+    private SimpleItemItemScorer scorer;
+    private long[] userIds;
+    private List<Long> itemIds;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        DataAccessObject dao = BenchmarkData.load(dataSource, users, items, density);
+        SimpleItemItemModel model = new SparseItemItemModelProvider(dao, 0, modelSize).get();
+        scorer = new SimpleItemItemScorer(model, dao);
+
+        userIds = dao.getEntityIds(CommonTypes.USER).toLongArray();
+        // batch requests must be in increasing order of user ID
+        Arrays.sort(userIds);
+        itemIds = new ArrayList<>(dao.getEntityIds(CommonTypes.ITEM));
+        Collections.shuffle(itemIds, new Random(42));
+        itemIds = new ArrayList<>(itemIds.subList(0, Math.min(candidates, itemIds.size())));
+    }
+
+    @Benchmark
+    public ResultMap score() {
+        long user = userIds[next];
+        next = (next + 1) % userIds.length;
+        return scorer.scoreWithDetails(user, itemIds);
+    }
+
+    @Benchmark
+    public int scoreBatch() throws InterruptedException {
+        int[] scored = new int[1];
+        scorer.scoreUsers(Arrays.stream(userIds).mapToObj(u -> IdBox.create(u, itemIds)).iterator(), threads,
+                          (user, scores) -> scored[0] += scores.size());
+        return scored[0];
+    }
+}
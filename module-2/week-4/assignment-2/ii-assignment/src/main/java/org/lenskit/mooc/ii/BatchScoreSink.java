@@ -0,0 +1,19 @@
+package org.lenskit.mooc.ii;
+
+import org.lenskit.api.ResultMap;
+
+/**
+ * Receives the scores computed by {@link SimpleItemItemScorer#scoreUsers}, one user at a time.
+ * It is called from the scorer's worker threads, but calls are never concurrent, so sinks do not need to be
+ * thread-safe.
+ */
+@FunctionalInterface
+public interface BatchScoreSink {
+    /**
+     * Accept the scores for a user.
+     *
+     * @param user   The user ID.
+     * @param scores The scores of the user's candidate items.
+     */
+    void accept(long user, ResultMap scores);
+}
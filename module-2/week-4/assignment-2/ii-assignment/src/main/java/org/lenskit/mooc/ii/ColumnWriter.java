@@ -0,0 +1,62 @@
+package org.lenskit.mooc.ii;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Buffered little-endian writer for the columnar file formats, which tracks its position so columns can be aligned.
+ */
+class ColumnWriter {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    private long position;
+
+    ColumnWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    void putInt(int v) throws IOException {
+        reserve(4);
+        buffer.putInt(v);
+    }
+
+    void putLong(long v) throws IOException {
+        reserve(8);
+        buffer.putLong(v);
+    }
+
+    void putDouble(double v) throws IOException {
+        reserve(8);
+        buffer.putDouble(v);
+    }
+
+    void put(byte[] bytes) throws IOException {
+        for (byte b : bytes) {
+            reserve(1);
+            buffer.put(b);
+        }
+    }
+
+    void align() throws IOException {
+        while ((position + buffer.position()) % 8 != 0) {
+            reserve(1);
+            buffer.put((byte) 0);
+        }
+    }
+
+    private void reserve(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,287 @@
+package org.lenskit.mooc.ii;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Binary file format for item-item models.  The file is little-endian and laid out in columns:
+ *
+ * <ol>
+ *     <li>a header of six ints: the magic number, the format version, the number of items with neighborhoods
+ *     (<var>n</var>), the number of item means (<var>k</var>), the number of neighbors (<var>m</var>) and the
+ *     number of distinct neighbor items (<var>t</var>), or -1 if the file has no reverse neighbor index;</li>
+ *     <li>the <var>n</var> item IDs, in increasing order, as longs;</li>
+ *     <li>the <var>n</var>+1 neighborhood offsets, as ints;</li>
+ *     <li>the <var>k</var> IDs of the items with means, in increasing order, and their <var>k</var> means;</li>
+ *     <li>the <var>m</var> neighbor IDs, as longs, and the <var>m</var> neighbor similarities, as doubles;</li>
+ *     <li>optionally, the {@linkplain ReverseNeighbors reverse neighbor index}: the <var>t</var> neighbor item
+ *     IDs, in increasing order, as longs, their <var>t</var>+1 entry offsets, as ints, the <var>m</var> entry
+ *     similarities, as doubles, and the <var>m</var> entry owners, as ints.</li>
+ * </ol>
+ *
+ * <p>The reverse index is as large as the neighborhoods and only {@link SimpleItemBasedItemScorer} uses it, so it
+ * is only written on request.  A model mapped from a file without it builds it on the heap if it is needed.</p>
+ *
+ * <p>Each column starts at a multiple of 8 bytes.  {@link #open(Path)} copies the item index, offsets and means,
+ * and any reverse index's neighbor IDs and offsets, which have one entry per item, to the heap, and maps the
+ * columns with one entry per neighbor, so opening a model does not depend on its number of neighbors.</p>
+ *
+ * <p>Each column is mapped as a single buffer and addressed with int offsets, so a column can hold at most
+ * {@value #MAX_COLUMN_ENTRIES} entries (2 GiB of doubles).  This bounds the number of neighbors <var>m</var> in a
+ * model file; {@link #write(SimpleItemItemModel, Path)} refuses larger models rather than write a file that cannot
+ * be opened.</p>
+ */
+public final class ItemItemModelFile {
+    private static final Logger logger = LoggerFactory.getLogger(ItemItemModelFile.class);
+    private static final int MAGIC = 0x49494D44; // "IIMD"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 24;
+    /**
+     * The largest number of entries in a column, so that a column of doubles fits in one mapping.
+     */
+    static final int MAX_COLUMN_ENTRIES = Integer.MAX_VALUE / 8;
+
+    private ItemItemModelFile() {
+    }
+
+    /**
+     * Write a model to a file, without its reverse neighbor index.
+     *
+     * @param model The model.
+     * @param path  The file to write.
+     * @throws IOException if there is an error writing the file, or the model has more neighbors than fit in a
+     *                     column.
+     */
+    public static void write(SimpleItemItemModel model, Path path) throws IOException {
+        write(model, path, false);
+    }
+
+    /**
+     * Write a model to a file.
+     *
+     * @param model   The model.
+     * @param path    The file to write.
+     * @param reverse Whether to write the reverse neighbor index, building it if the model does not have it yet.
+     * @throws IOException if there is an error writing the file, or the model has more neighbors than fit in a
+     *                     column.
+     */
+    public static void write(SimpleItemItemModel model, Path path, boolean reverse) throws IOException {
+        SortedKeyIndex items = model.getItemIndex();
+        int[] offsets = model.getOffsets();
+        int n = items.size();
+        int m = offsets[n];
+        if (m > MAX_COLUMN_ENTRIES) {
+            throw new IOException("model has " + m + " neighbors, more than the "
+                                  + MAX_COLUMN_ENTRIES + " a model file column can hold");
+        }
+
+        Long2DoubleMap means = model.getItemMeans();
+        long[] meanItems = means.keySet().toLongArray();
+        LongArrays.quickSort(meanItems);
+        int k = meanItems.length;
+        ReverseNeighbors revIndex = reverse ? model.getReverseNeighbors() : null;
+        int t = revIndex != null ? revIndex.getNeighborIndex().size() : -1;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            ColumnWriter out = new ColumnWriter(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(n);
+            out.putInt(k);
+            out.putInt(m);
+            out.putInt(t);
+            out.align();
+            for (int i = 0; i < n; i++) {
+                out.putLong(items.getKey(i));
+            }
+            for (int off : offsets) {
+                out.putInt(off);
+            }
+            out.align();
+            for (long item : meanItems) {
+                out.putLong(item);
+            }
+            for (long item : meanItems) {
+                out.putDouble(means.get(item));
+            }
+            for (int pos = 0; pos < m; pos++) {
+                out.putLong(model.getNeighborId(pos));
+            }
+            for (int pos = 0; pos < m; pos++) {
+                out.putDouble(model.getNeighborSimilarity(pos));
+            }
+            if (revIndex != null) {
+                SortedKeyIndex revItems = revIndex.getNeighborIndex();
+                for (int j = 0; j < t; j++) {
+                    out.putLong(revItems.getKey(j));
+                }
+                for (int off : revIndex.getOffsets()) {
+                    out.putInt(off);
+                }
+                out.align();
+                for (int e = 0; e < m; e++) {
+                    out.putDouble(revIndex.getSimilarity(e));
+                }
+                for (int e = 0; e < m; e++) {
+                    out.putInt(revIndex.getOwner(e));
+                }
+            }
+            out.flush();
+        }
+        logger.info("wrote item-item model with {} neighbors for {} items to {}", m, n, path);
+    }
+
+    /**
+     * Open a model file.  The neighbor columns are mapped read-only, and stay valid after the file is closed.
+     *
+     * @param path The file to open.
+     * @return The model.
+     * @throws IOException if there is an error reading the file, or it is not a model file.
+     */
+    public static SimpleItemItemModel open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException(path + ": truncated header");
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + ": not an item-item model file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + ": unsupported model file version " + version);
+            }
+            int n = header.getInt();
+            int k = header.getInt();
+            int m = header.getInt();
+            int t = header.getInt();
+
+            long pos = HEADER_SIZE;
+            ByteBuffer buf = map(channel, pos, 8L * n);
+            long[] items = new long[n];
+            buf.asLongBuffer().get(items);
+            pos = align(pos + 8L * n);
+
+            buf = map(channel, pos, 4L * (n + 1));
+            int[] offsets = new int[n + 1];
+            buf.asIntBuffer().get(offsets);
+            pos = align(pos + 4L * (n + 1));
+
+            buf = map(channel, pos, 16L * k);
+            long[] meanItems = new long[k];
+            double[] means = new double[k];
+            buf.asLongBuffer().get(meanItems);
+            buf.position(8 * k);
+            buf.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(means);
+            pos += 16L * k;
+
+            ByteBuffer ids = map(channel, pos, 8L * m);
+            ByteBuffer sims = map(channel, pos + 8L * m, 8L * m);
+            pos += 16L * m;
+
+            ReverseNeighbors reverse = null;
+            if (t >= 0) {
+                buf = map(channel, pos, 8L * t);
+                long[] revItems = new long[t];
+                buf.asLongBuffer().get(revItems);
+                pos += 8L * t;
+
+                buf = map(channel, pos, 4L * (t + 1));
+                int[] revOffsets = new int[t + 1];
+                buf.asIntBuffer().get(revOffsets);
+                pos = align(pos + 4L * (t + 1));
+
+                ByteBuffer revSims = map(channel, pos, 8L * m);
+                ByteBuffer revOwners = map(channel, pos + 8L * m, 4L * m);
+                reverse = new ReverseNeighbors(SortedKeyIndex.wrap(revItems, t), revOffsets,
+                                               revOwners.asIntBuffer(), revSims.asDoubleBuffer());
+            }
+
+            logger.info("mapped item-item model with {} neighbors for {} items from {}", m, n, path);
+            return new SimpleItemItemModel(Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(meanItems, k), means),
+                                           SortedKeyIndex.wrap(items, n), offsets,
+                                           ids.asLongBuffer(), sims.asDoubleBuffer(), reverse);
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long pos, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("model column of " + size + " bytes is too large to map");
+        }
+        if (pos + size > channel.size()) {
+            throw new IOException("model file is truncated");
+        }
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+
+    private static long align(long pos) {
+        return (pos + 7) & ~7L;
+    }
+
+    /**
+     * Build an item-item model from a data source and write it to a file.
+     *
+     * <p>Usage: {@code ItemItemModelFile [--reverse] [--size N] DATA-SOURCE OUTPUT [RATINGS]}, where
+     * {@code DATA-SOURCE} is a LensKit data source file such as {@code data/movielens.yml}, and {@code RATINGS} is an
+     * optional {@linkplain PackedRatingFile packed rating file} to read the ratings from instead.  {@code --reverse}
+     * also writes the reverse neighbor index.  {@code --size} keeps {@code N} neighbors for each item, like
+     * {@link ModelSize}; it defaults to 0, which keeps them all.  A configuration that maps the file must use the
+     * same model size, since the file's neighborhoods are not truncated again.</p>
+     */
+    public static void main(String[] args) throws IOException {
+        String usage = "usage: ItemItemModelFile [--reverse] [--size N] DATA-SOURCE OUTPUT [RATINGS]";
+        boolean reverse = false;
+        int size = 0;
+        int a = 0;
+        while (a < args.length && args[a].startsWith("--")) {
+            if (args[a].equals("--reverse")) {
+                reverse = true;
+                a += 1;
+            } else if (args[a].equals("--size") && a + 1 < args.length) {
+                try {
+                    size = Integer.parseInt(args[a + 1]);
+                } catch (NumberFormatException e) {
+                    System.err.println("--size: invalid model size " + args[a + 1]);
+                    System.exit(2);
+                }
+                a += 2;
+            } else {
+                System.err.println(usage);
+                System.exit(2);
+            }
+        }
+        args = Arrays.copyOfRange(args, a, args.length);
+        if (args.length != 2 && args.length != 3) {
+            System.err.println(usage);
+            System.exit(2);
+        }
+        StaticDataSource source = args.length > 2
+                ? PackedRatingFile.loadDataSource(Paths.get(args[0]), Paths.get(args[2]))
+                : StaticDataSource.load(Paths.get(args[0]));
+        DataAccessObject dao = source.get();
+        SimpleItemItemModel model = new SparseItemItemModelProvider(dao, 0, size).get();
+        write(model, Paths.get(args[1]), reverse);
+    }
+}
@@ -0,0 +1,36 @@
+package org.lenskit.mooc.ii;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+/**
+ * Item-item model provider that maps a model file written by {@link ItemItemModelFile} instead of computing the
+ * model from the ratings.  The neighbor arrays stay on disk and are paged in as they are used, so the model is
+ * available right away and processes on the same host share its pages.  The number of neighbors in a model file is
+ * limited as described in {@link ItemItemModelFile}.
+ */
+public class MappedItemItemModelProvider implements Provider<SimpleItemItemModel> {
+    private final String path;
+
+    /**
+     * Construct the model provider.
+     *
+     * @param path The path of the model file.
+     */
+    @Inject
+    public MappedItemItemModelProvider(@ModelFile String path) {
+        this.path = path;
+    }
+
+    @Override
+    public SimpleItemItemModel get() {
+        try {
+            return ItemItemModelFile.open(Paths.get(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot open item-item model " + path, e);
+        }
+    }
+}
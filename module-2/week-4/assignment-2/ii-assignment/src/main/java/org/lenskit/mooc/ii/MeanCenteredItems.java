@@ -0,0 +1,109 @@
+package org.lenskit.mooc.ii;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.Ratings;
+import org.lenskit.util.IdBox;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.lenskit.util.math.Vectors;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The mean-centered rating vectors of all rated items, laid out by item position, with their means and norms.
+ * This is the input to the item-item model providers.
+ */
+final class MeanCenteredItems {
+    private final SortedKeyIndex index;
+    private final Long2DoubleMap means;
+    private final Long2DoubleMap[] vectors;
+    private final double[] norms;
+
+    private MeanCenteredItems(SortedKeyIndex idx, Long2DoubleMap means, Long2DoubleMap[] vectors, double[] norms) {
+        index = idx;
+        this.means = means;
+        this.vectors = vectors;
+        this.norms = norms;
+    }
+
+    /**
+     * Load the item vectors from the ratings in a DAO.
+     * @param dao The data access object.
+     * @return The item vectors.
+     */
+    static MeanCenteredItems load(DataAccessObject dao) {
+        Long2ObjectMap<Long2DoubleMap> itemVectors = new Long2ObjectOpenHashMap<>();
+        Long2DoubleMap itemMeans = new Long2DoubleOpenHashMap();
+
+        try (ObjectStream<IdBox<List<Rating>>> stream = dao.query(Rating.class)
+                .groupBy(CommonAttributes.ITEM_ID)
+                .stream()) {
+            for (IdBox<List<Rating>> item : stream) {
+                long itemId = item.getId();
+                List<Rating> itemRatings = item.getValue();
+                Long2DoubleOpenHashMap ratings = new Long2DoubleOpenHashMap(Ratings.itemRatingVector(itemRatings));
+
+                // Compute and store the item's mean.
+                double mean = Vectors.mean(ratings);
+                itemMeans.put(itemId, mean);
+
+                // Mean center the ratings.
+                for (Map.Entry<Long, Double> entry : ratings.entrySet()) {
+                    entry.setValue(entry.getValue() - mean);
+                }
+
+                itemVectors.put(itemId, LongUtils.frozenMap(ratings));
+            }
+        }
+
+        // Lay the item vectors out by position, and compute each item's norm once.
+        SortedKeyIndex idx = SortedKeyIndex.fromCollection(itemVectors.keySet());
+        int n = idx.size();
+        Long2DoubleMap[] vectors = new Long2DoubleMap[n];
+        double[] norms = new double[n];
+        for (int i = 0; i < n; i++) {
+            vectors[i] = itemVectors.get(idx.getKey(i));
+            norms[i] = Vectors.euclideanNorm(vectors[i]);
+        }
+
+        return new MeanCenteredItems(idx, LongUtils.frozenMap(itemMeans), vectors, norms);
+    }
+
+    SortedKeyIndex getIndex() {
+        return index;
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    Long2DoubleMap getItemMeans() {
+        return means;
+    }
+
+    /**
+     * Get an item's mean-centered rating vector.
+     * @param i The item position.
+     * @return The vector of the item's mean-centered ratings, keyed by user.
+     */
+    Long2DoubleMap getVector(int i) {
+        return vectors[i];
+    }
+
+    /**
+     * Get the Euclidean norm of an item's mean-centered rating vector.
+     * @param i The item position.
+     * @return The item's norm.
+     */
+    double getNorm(int i) {
+        return norms[i];
+    }
+}
@@ -0,0 +1,20 @@
+package org.lenskit.mooc.ii;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * The number of threads to use when building the item-item model.  A value of 0 uses one thread per available
+ * processor.
+ */
+@Documented
+@DefaultInteger(0)
+@Parameter(Integer.class)
+@Qualifier
+@Target({ElementType.METHOD, ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ModelBuildThreads {
+}
@@ -0,0 +1,18 @@
+package org.lenskit.mooc.ii;
+
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * The path of an item-item model file written by {@link ItemItemModelFile}, for
+ * {@link MappedItemItemModelProvider} to map.
+ */
+@Documented
+@Parameter(String.class)
+@Qualifier
+@Target({ElementType.METHOD, ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ModelFile {
+}
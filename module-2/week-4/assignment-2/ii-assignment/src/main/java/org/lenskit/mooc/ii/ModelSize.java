@@ -0,0 +1,20 @@
+package org.lenskit.mooc.ii;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * The number of neighbors to keep for each item in the item-item model.  This is independent of the number of
+ * neighbors the scorer uses for each prediction; a value of 0 keeps every neighbor with a positive similarity.
+ */
+@Documented
+@DefaultInteger(0)
+@Parameter(Integer.class)
+@Qualifier
+@Target({ElementType.METHOD, ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ModelSize {
+}
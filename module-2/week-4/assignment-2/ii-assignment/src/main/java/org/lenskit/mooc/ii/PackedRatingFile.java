@@ -0,0 +1,509 @@
+package org.lenskit.mooc.ii;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.lenskit.data.dao.file.EntitySource;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entities;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityType;
+import org.lenskit.data.entities.TypedName;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingBuilder;
+import org.lenskit.util.io.AbstractObjectStream;
+import org.lenskit.util.io.ObjectStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Packed binary cache of a data source's ratings and item tags, so they can be loaded without
+ * parsing the CSV files again.  The file is little-endian and laid out in columns:
+ *
+ * <ol>
+ *     <li>a header of six ints: the magic number, the format version, the number of ratings
+ *     (<var>n</var>), the number of item tags (<var>t</var>), the number of distinct tag strings
+ *     (<var>d</var>) and the number of bytes in the tag strings (<var>b</var>);</li>
+ *     <li>the rating ID, user ID, item ID, value and timestamp columns, 8 bytes per rating each,
+ *     sorted by user, then by item;</li>
+ *     <li>the item tag ID, item ID, user ID and timestamp columns, 8 bytes per tag each, in the order
+ *     of the source, followed by each tag's position in the tag strings, as ints;</li>
+ *     <li>the <var>d</var>+1 offsets of the tag strings, as ints, and their <var>b</var> bytes of
+ *     UTF-8 text.</li>
+ * </ol>
+ *
+ * <p>The ratings are stored in one order only.  The DAO loaded over the cache indexes the ratings
+ * by item as it is built, so a second, item-major copy of the columns would double the file without
+ * saving any work.</p>
+ *
+ * <p>Each column starts at a multiple of 8 bytes.  Opening the file decodes the distinct tag
+ * strings onto the heap and maps the rest, so rating and tag entities are built from the mapped
+ * columns as they are streamed.  The whole file is mapped as one buffer, so it is limited to 2 GiB,
+ * or about 50 million ratings.</p>
+ *
+ * <p>LensKit's data source files only know about text file sources, so the cache cannot be named
+ * in {@code movielens.yml}.  Instead, {@link #loadDataSource(Path, Path)} loads a data source file
+ * and swaps its rating and item tag sources for the cache.  The other sources, such as the movie
+ * list, are still parsed.</p>
+ */
+public final class PackedRatingFile {
+    private static final Logger logger = LoggerFactory.getLogger(PackedRatingFile.class);
+    private static final int MAGIC = 0x52415447; // "RATG"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 24;
+    static final EntityType ITEM_TAG_TYPE = EntityType.forName("item-tag");
+    static final TypedName<String> TAG = TypedName.create("tag", String.class);
+    private static final Set<TypedName<?>> TAG_ATTRIBUTES =
+            ImmutableSet.of(CommonAttributes.ENTITY_ID, CommonAttributes.ITEM_ID, CommonAttributes.USER_ID,
+                            TAG, CommonAttributes.TIMESTAMP);
+
+    private PackedRatingFile() {
+    }
+
+    /**
+     * Pack the ratings and item tags of a data source into a file.  The rating and item tag sources
+     * are read directly, without building a DAO over the whole data source.
+     *
+     * @param source The data source.
+     * @param path   The file to write.
+     * @throws IOException if there is an error reading the entities or writing the file, or an item
+     *                     tag does not have exactly its ID, item, user, tag and timestamp.
+     */
+    public static void write(StaticDataSource source, Path path) throws IOException {
+        LongArrayList ids = new LongArrayList();
+        LongArrayList users = new LongArrayList();
+        LongArrayList items = new LongArrayList();
+        DoubleArrayList values = new DoubleArrayList();
+        LongArrayList timestamps = new LongArrayList();
+        for (EntitySource src : source.getSourcesForType(CommonTypes.RATING)) {
+            try (ObjectStream<Entity> stream = src.openStream()) {
+                for (Entity e : stream) {
+                    if (!(e instanceof Rating)) {
+                        continue;
+                    }
+                    Rating r = (Rating) e;
+                    ids.add(r.getId());
+                    users.add(r.getUserId());
+                    items.add(r.getItemId());
+                    values.add(r.getValue());
+                    timestamps.add(r.getTimestamp());
+                }
+            }
+        }
+
+        int n = ids.size();
+        long[] idv = ids.elements();
+        long[] userv = users.elements();
+        long[] itemv = items.elements();
+        double[] valuev = values.elements();
+        long[] timev = timestamps.elements();
+        Arrays.quickSort(0, n, new AbstractIntComparator() {
+            @Override
+            public int compare(int a, int b) {
+                int c = Long.compare(userv[a], userv[b]);
+                return c != 0 ? c : Long.compare(itemv[a], itemv[b]);
+            }
+        }, (a, b) -> {
+            swap(idv, a, b);
+            swap(userv, a, b);
+            swap(itemv, a, b);
+            swap(timev, a, b);
+            double v = valuev[a];
+            valuev[a] = valuev[b];
+            valuev[b] = v;
+        });
+
+        LongArrayList tagIds = new LongArrayList();
+        LongArrayList tagItems = new LongArrayList();
+        LongArrayList tagUsers = new LongArrayList();
+        LongArrayList tagTimes = new LongArrayList();
+        IntArrayList tagStrings = new IntArrayList();
+        Object2IntOpenHashMap<String> dictionary = new Object2IntOpenHashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        long stringBytes = 0;
+        for (EntitySource src : source.getSourcesForType(ITEM_TAG_TYPE)) {
+            try (ObjectStream<Entity> stream = src.openStream()) {
+                for (Entity e : stream) {
+                    if (!e.getType().equals(ITEM_TAG_TYPE)) {
+                        continue;
+                    }
+                    if (!TAG_ATTRIBUTES.equals(e.getTypedAttributeNames())) {
+                        throw new IOException("cannot pack item tag with attributes " + e.getTypedAttributeNames());
+                    }
+                    String tag = e.get(TAG);
+                    if (!dictionary.containsKey(tag)) {
+                        byte[] bytes = tag.getBytes(StandardCharsets.UTF_8);
+                        dictionary.put(tag, strings.size());
+                        strings.add(bytes);
+                        stringBytes += bytes.length;
+                    }
+                    tagIds.add(e.getId());
+                    tagItems.add(e.getLong(CommonAttributes.ITEM_ID));
+                    tagUsers.add(e.getLong(CommonAttributes.USER_ID));
+                    tagTimes.add(e.getLong(CommonAttributes.TIMESTAMP));
+                    tagStrings.add(dictionary.getInt(tag));
+                }
+            }
+        }
+        int t = tagIds.size();
+        int d = strings.size();
+        if (stringBytes > Integer.MAX_VALUE) {
+            throw new IOException("tag strings take " + stringBytes + " bytes, too many to map");
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            ColumnWriter out = new ColumnWriter(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(n);
+            out.putInt(t);
+            out.putInt(d);
+            out.putInt((int) stringBytes);
+            for (long[] column : new long[][]{idv, userv, itemv}) {
+                for (int i = 0; i < n; i++) {
+                    out.putLong(column[i]);
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                out.putDouble(valuev[i]);
+            }
+            for (int i = 0; i < n; i++) {
+                out.putLong(timev[i]);
+            }
+            for (LongArrayList column : new LongArrayList[]{tagIds, tagItems, tagUsers, tagTimes}) {
+                for (int i = 0; i < t; i++) {
+                    out.putLong(column.getLong(i));
+                }
+            }
+            for (int i = 0; i < t; i++) {
+                out.putInt(tagStrings.getInt(i));
+            }
+            out.align();
+            int offset = 0;
+            for (byte[] bytes : strings) {
+                out.putInt(offset);
+                offset += bytes.length;
+            }
+            out.putInt(offset);
+            out.align();
+            for (byte[] bytes : strings) {
+                out.put(bytes);
+            }
+            out.flush();
+        }
+        logger.info("packed {} ratings and {} item tags into {}", n, t, path);
+    }
+
+    private static void swap(long[] array, int a, int b) {
+        long t = array[a];
+        array[a] = array[b];
+        array[b] = t;
+    }
+
+    /**
+     * Open the ratings of a packed rating file as an entity source.  The columns are mapped
+     * read-only, and ratings are built from them as the source is streamed.
+     *
+     * @param path The packed rating file.
+     * @return The entity source.
+     * @throws IOException if there is an error reading the file, or it is not a packed rating file.
+     */
+    public static EntitySource open(Path path) throws IOException {
+        return open(path, Collections.emptyMap(), Collections.emptyMap()).get(0);
+    }
+
+    /**
+     * Open the item tags of a packed rating file as an entity source.  The columns are mapped
+     * read-only, and item tags are built from them as the source is streamed.
+     *
+     * @param path The packed rating file.
+     * @return The entity source.
+     * @throws IOException if there is an error reading the file, or it is not a packed rating file.
+     */
+    public static EntitySource openTags(Path path) throws IOException {
+        return open(path, Collections.emptyMap(), Collections.emptyMap()).get(1);
+    }
+
+    /**
+     * Open a packed rating file.
+     *
+     * @return The rating source and the item tag source.
+     */
+    private static List<EntitySource> open(Path path, Map<String, Object> ratingMetadata,
+                                           Map<String, Object> tagMetadata) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(path + ": truncated header");
+            }
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + ": too large to map");
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt() != MAGIC) {
+                throw new IOException(path + ": not a packed rating file");
+            }
+            int version = buf.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + ": unsupported rating file version " + version);
+            }
+            int n = buf.getInt();
+            int t = buf.getInt();
+            int d = buf.getInt();
+            int b = buf.getInt();
+            long tagStart = HEADER_SIZE + 40L * n;
+            long dictStart = align(tagStart + 36L * t);
+            long textStart = align(dictStart + 4L * (d + 1));
+            if (n < 0 || t < 0 || d < 0 || b < 0 || textStart + b > channel.size()) {
+                throw new IOException(path + ": truncated columns");
+            }
+
+            int[] offsets = new int[d + 1];
+            column(buf, dictStart, 4L * (d + 1)).asIntBuffer().get(offsets);
+            ByteBuffer text = column(buf, textStart, b);
+            String[] strings = new String[d];
+            for (int i = 0; i < d; i++) {
+                byte[] bytes = new byte[offsets[i + 1] - offsets[i]];
+                text.position(offsets[i]);
+                text.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            String name = path.getFileName().toString();
+            EntitySource ratings = new PackedRatingSource(name, ratingMetadata, n,
+                                                          column(buf, HEADER_SIZE, 8L * n).asLongBuffer(),
+                                                          column(buf, HEADER_SIZE + 8L * n, 8L * n).asLongBuffer(),
+                                                          column(buf, HEADER_SIZE + 16L * n, 8L * n).asLongBuffer(),
+                                                          column(buf, HEADER_SIZE + 24L * n, 8L * n).asDoubleBuffer(),
+                                                          column(buf, HEADER_SIZE + 32L * n, 8L * n).asLongBuffer());
+            EntitySource tags = new PackedTagSource(name, tagMetadata, t,
+                                                    column(buf, tagStart, 8L * t).asLongBuffer(),
+                                                    column(buf, tagStart + 8L * t, 8L * t).asLongBuffer(),
+                                                    column(buf, tagStart + 16L * t, 8L * t).asLongBuffer(),
+                                                    column(buf, tagStart + 24L * t, 8L * t).asLongBuffer(),
+                                                    column(buf, tagStart + 32L * t, 4L * t).asIntBuffer(),
+                                                    strings);
+            return ImmutableList.of(ratings, tags);
+        }
+    }
+
+    /**
+     * Get a column of the mapped file.  The file is at most 2 GiB, so its positions fit in ints.
+     */
+    private static ByteBuffer column(ByteBuffer buf, long start, long size) {
+        ByteBuffer col = buf.duplicate();
+        col.position((int) start);
+        col.limit((int) (start + size));
+        return col.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long align(long pos) {
+        return (pos + 7) & ~7L;
+    }
+
+    /**
+     * Load a data source file, reading its ratings and item tags from a packed rating file instead
+     * of from its rating and item tag sources.  The other sources, such as the movie list, are
+     * loaded as usual.
+     *
+     * @param dataSource The data source file, such as {@code data/movielens.yml}.
+     * @param packed     The packed rating file, written by {@link #write(StaticDataSource, Path)}
+     *                   from the same data source.
+     * @return The data source.  The packed ratings and item tags carry the metadata, such as the
+     *         preference domain, of the sources they replace.
+     * @throws IOException if there is an error loading the data source or rating file.
+     */
+    public static StaticDataSource loadDataSource(Path dataSource, Path packed) throws IOException {
+        StaticDataSource base = StaticDataSource.load(dataSource);
+        StaticDataSource result = new StaticDataSource(base.getName());
+        Map<String, Object> ratingMetadata = new HashMap<>();
+        Map<String, Object> tagMetadata = new HashMap<>();
+        boolean hasTags = false;
+        for (EntitySource src : base.getSources()) {
+            if (src.getTypes().contains(CommonTypes.RATING)) {
+                ratingMetadata.putAll(src.getMetadata());
+            } else if (src.getTypes().contains(ITEM_TAG_TYPE)) {
+                tagMetadata.putAll(src.getMetadata());
+                hasTags = true;
+            } else {
+                result.addSource(src);
+            }
+        }
+        List<EntitySource> sources = open(packed, ratingMetadata, tagMetadata);
+        result.addSource(sources.get(0));
+        if (hasTags) {
+            result.addSource(sources.get(1));
+        }
+        return result;
+    }
+
+    /**
+     * Pack the ratings and item tags of a data source file.
+     *
+     * <p>Usage: {@code PackedRatingFile DATA-SOURCE OUTPUT}, where {@code DATA-SOURCE} is a LensKit
+     * data source file such as {@code data/movielens.yml}.</p>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: PackedRatingFile DATA-SOURCE OUTPUT");
+            System.exit(2);
+        }
+        write(StaticDataSource.load(Paths.get(args[0])), Paths.get(args[1]));
+    }
+
+    /**
+     * Entity source over the mapped columns of a packed rating file.
+     */
+    private static class PackedRatingSource implements EntitySource {
+        private final String name;
+        private final Map<String, Object> metadata;
+        private final int size;
+        private final LongBuffer ids;
+        private final LongBuffer users;
+        private final LongBuffer items;
+        private final DoubleBuffer values;
+        private final LongBuffer timestamps;
+
+        PackedRatingSource(String name, Map<String, Object> metadata, int size, LongBuffer ids,
+                           LongBuffer users, LongBuffer items, DoubleBuffer values, LongBuffer timestamps) {
+            this.name = name;
+            this.metadata = metadata;
+            this.size = size;
+            this.ids = ids;
+            this.users = users;
+            this.items = items;
+            this.values = values;
+            this.timestamps = timestamps;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Set<EntityType> getTypes() {
+            return ImmutableSet.of(CommonTypes.RATING);
+        }
+
+        @Override
+        public ObjectStream<Entity> openStream() {
+            return new AbstractObjectStream<Entity>() {
+                private final RatingBuilder builder = Rating.newBuilder();
+                private int pos = 0;
+
+                @Override
+                public Entity readObject() {
+                    if (pos >= size) {
+                        return null;
+                    }
+                    Rating r = builder.setId(ids.get(pos))
+                                      .setUserId(users.get(pos))
+                                      .setItemId(items.get(pos))
+                                      .setRating(values.get(pos))
+                                      .setTimestamp(timestamps.get(pos))
+                                      .build();
+                    pos += 1;
+                    return r;
+                }
+            };
+        }
+
+        @Override
+        public Map<String, Object> getMetadata() {
+            return metadata;
+        }
+    }
+
+    /**
+     * Entity source over the mapped item tag columns of a packed rating file.
+     */
+    private static class PackedTagSource implements EntitySource {
+        private final String name;
+        private final Map<String, Object> metadata;
+        private final int size;
+        private final LongBuffer ids;
+        private final LongBuffer items;
+        private final LongBuffer users;
+        private final LongBuffer timestamps;
+        private final IntBuffer tags;
+        private final String[] strings;
+
+        PackedTagSource(String name, Map<String, Object> metadata, int size, LongBuffer ids, LongBuffer items,
+                        LongBuffer users, LongBuffer timestamps, IntBuffer tags, String[] strings) {
+            this.name = name;
+            this.metadata = metadata;
+            this.size = size;
+            this.ids = ids;
+            this.items = items;
+            this.users = users;
+            this.timestamps = timestamps;
+            this.tags = tags;
+            this.strings = strings;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Set<EntityType> getTypes() {
+            return ImmutableSet.of(ITEM_TAG_TYPE);
+        }
+
+        @Override
+        public ObjectStream<Entity> openStream() {
+            return new AbstractObjectStream<Entity>() {
+                private int pos = 0;
+
+                @Override
+                public Entity readObject() {
+                    if (pos >= size) {
+                        return null;
+                    }
+                    Entity e = Entities.newBuilder(ITEM_TAG_TYPE, ids.get(pos))
+                                       .setAttribute(CommonAttributes.ITEM_ID, items.get(pos))
+                                       .setAttribute(CommonAttributes.USER_ID, users.get(pos))
+                                       .setAttribute(TAG, strings[tags.get(pos)])
+                                       .setAttribute(CommonAttributes.TIMESTAMP, timestamps.get(pos))
+                                       .build();
+                    pos += 1;
+                    return e;
+                }
+            };
+        }
+
+        @Override
+        public Map<String, Object> getMetadata() {
+            return metadata;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.lenskit.mooc.ii;
+
+import org.lenskit.LenskitConfiguration;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.RecommenderConfigurationException;
+import org.lenskit.api.ItemBasedItemRecommender;
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.RatingPredictor;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultMap;
+import org.lenskit.config.ConfigHelpers;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Runs the {@code recommend}, {@code global-recommend} and {@code predict} commands of the LensKit
+ * command line over a data source whose ratings are read from a {@linkplain PackedRatingFile packed
+ * rating file}, so the rating CSV files are not parsed again.  The output matches that of the LensKit
+ * command line.
+ *
+ * <p>Usage: {@code PackedRatingRunner COMMAND [-n N] DATA-SOURCE RATINGS CONFIG ID...}, where the
+ * IDs are users for {@code recommend}, basket items for {@code global-recommend}, and a user followed
+ * by the items to predict for {@code predict}.  As with the LensKit command line, {@code -n} sets the
+ * number of items to recommend, and defaults to 10.</p>
+ */
+public final class PackedRatingRunner {
+    private static final int DEFAULT_LIST_SIZE = 10;
+    private static final String USAGE =
+            "usage: PackedRatingRunner recommend|global-recommend|predict [-n N] DATA-SOURCE RATINGS CONFIG ID...";
+
+    private PackedRatingRunner() {
+    }
+
+    public static void main(String[] args) throws IOException, RecommenderConfigurationException {
+        List<String> params = new ArrayList<>(Arrays.asList(args));
+        int listSize = DEFAULT_LIST_SIZE;
+        if (params.size() > 2 && params.get(1).equals("-n")) {
+            try {
+                listSize = Integer.parseInt(params.get(2));
+            } catch (NumberFormatException e) {
+                System.err.println("-n: invalid list size " + params.get(2));
+                System.exit(2);
+            }
+            params.subList(1, 3).clear();
+        }
+        if (params.size() < 4) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        List<Long> ids = new ArrayList<>();
+        for (String id : params.subList(4, params.size())) {
+            ids.add(Long.parseLong(id));
+        }
+
+        DataAccessObject dao = PackedRatingFile.loadDataSource(Paths.get(params.get(1)), Paths.get(params.get(2))).get();
+        LenskitConfiguration config = ConfigHelpers.load(new File(params.get(3)));
+        try (LenskitRecommender rec = LenskitRecommender.build(config, dao)) {
+            switch (params.get(0)) {
+            case "recommend":
+                ItemRecommender irec = rec.getItemRecommender();
+                if (irec == null) {
+                    throw new RecommenderConfigurationException("no item recommender configured");
+                }
+                for (long user : ids) {
+                    System.out.format("recommendations for user %d:%n", user);
+                    printResults(dao, irec.recommendWithDetails(user, listSize, null, null), "  ");
+                }
+                break;
+            case "global-recommend":
+                ItemBasedItemRecommender brec = rec.getItemBasedItemRecommender();
+                if (brec == null) {
+                    throw new RecommenderConfigurationException("no item-based item recommender configured");
+                }
+                printResults(dao, brec.recommendRelatedItemsWithDetails(new HashSet<>(ids), listSize, null, null), "");
+                break;
+            case "predict":
+                RatingPredictor pred = rec.getRatingPredictor();
+                if (pred == null) {
+                    throw new RecommenderConfigurationException("no rating predictor configured");
+                }
+                if (ids.isEmpty()) {
+                    System.err.println("predict: no user given");
+                    System.exit(2);
+                }
+                long user = ids.get(0);
+                ResultMap preds = pred.predictWithDetails(user, ids.subList(1, ids.size()));
+                System.out.format("predictions for user %d:%n", user);
+                for (long item : ids.subList(1, ids.size())) {
+                    Result r = preds.get(item);
+                    if (r != null) {
+                        printResult(dao, r, "  ");
+                    }
+                }
+                break;
+            default:
+                System.err.println("unknown command " + params.get(0));
+                System.exit(2);
+            }
+        }
+    }
+
+    private static void printResults(DataAccessObject dao, Iterable<? extends Result> results, String indent) {
+        for (Result r : results) {
+            printResult(dao, r, indent);
+        }
+    }
+
+    private static void printResult(DataAccessObject dao, Result r, String indent) {
+        Entity item = dao.lookupEntity(CommonTypes.ITEM, r.getId());
+        if (item != null && item.hasAttribute(CommonAttributes.NAME)) {
+            System.out.format("%s%d (%s): %.3f%n", indent, r.getId(), item.get(CommonAttributes.NAME), r.getScore());
+        } else {
+            System.out.format("%s%d: %.3f%n", indent, r.getId(), r.getScore());
+        }
+    }
+}
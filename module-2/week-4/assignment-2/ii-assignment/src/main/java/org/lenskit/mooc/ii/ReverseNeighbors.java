@@ -0,0 +1,128 @@
+package org.lenskit.mooc.ii;
+
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * The transpose of an item-item model's neighborhoods: for each item that appears as a neighbor, the items whose
+ * neighborhoods contain it and their similarities.  Each neighbor's entries are a contiguous range of positions in
+ * the owner and similarity buffers, in increasing order of owner.
+ *
+ * <p>Like the neighborhoods, the owner and similarity buffers can live on the heap or be
+ * {@linkplain ItemItemModelFile memory-mapped}; the neighbor index and offsets, which have one entry per item, are
+ * always on the heap.  Only {@link SimpleItemBasedItemScorer} needs the transpose, so a model builds it the first
+ * time it is asked for.</p>
+ */
+final class ReverseNeighbors {
+    private final SortedKeyIndex neighbors;
+    private final int[] offsets;
+    private final IntBuffer owners;
+    private final DoubleBuffer similarities;
+
+    /**
+     * Create a reverse neighbor index.
+     * @param neighbors The index of items that appear as neighbors.
+     * @param offsets The start of each neighbor's entries, by position in {@code neighbors}, followed by the total
+     *                number of entries.
+     * @param owners The positions, in the model's item index, of the items whose neighborhoods contain each neighbor.
+     * @param sims The similarities between each owner and the neighbor.
+     */
+    ReverseNeighbors(SortedKeyIndex neighbors, int[] offsets, IntBuffer owners, DoubleBuffer sims) {
+        this.neighbors = neighbors;
+        this.offsets = offsets;
+        this.owners = owners;
+        similarities = sims;
+    }
+
+    /**
+     * Transpose a model's neighborhoods.  The result is on the heap, whether or not the neighborhoods are.
+     * @param rowOffsets The start of each item's neighborhood, followed by the total number of neighbors.
+     * @param ids The neighbor IDs.  Only absolute access is used.
+     * @param sims The neighbor similarities.
+     * @return The reverse neighbor index.
+     */
+    static ReverseNeighbors build(int[] rowOffsets, LongBuffer ids, DoubleBuffer sims) {
+        int m = rowOffsets[rowOffsets.length - 1];
+        long[] keys = new long[m];
+        for (int pos = 0; pos < m; pos++) {
+            keys[pos] = ids.get(pos);
+        }
+        LongArrays.radixSort(keys);
+        int t = 0;
+        for (int pos = 0; pos < m; pos++) {
+            if (t == 0 || keys[t - 1] != keys[pos]) {
+                keys[t++] = keys[pos];
+            }
+        }
+        SortedKeyIndex neighbors = SortedKeyIndex.wrap(keys, t);
+
+        // count each neighbor's entries, then place them with a counting sort
+        int[] targets = new int[m];
+        int[] offsets = new int[t + 1];
+        for (int pos = 0; pos < m; pos++) {
+            targets[pos] = neighbors.tryGetIndex(ids.get(pos));
+            offsets[targets[pos] + 1] += 1;
+        }
+        for (int j = 0; j < t; j++) {
+            offsets[j + 1] += offsets[j];
+        }
+        int[] fill = Arrays.copyOf(offsets, t);
+        int[] owners = new int[m];
+        double[] rsims = new double[m];
+        for (int i = 0; i < rowOffsets.length - 1; i++) {
+            for (int pos = rowOffsets[i]; pos < rowOffsets[i + 1]; pos++) {
+                int k = fill[targets[pos]]++;
+                owners[k] = i;
+                rsims[k] = sims.get(pos);
+            }
+        }
+        return new ReverseNeighbors(neighbors, offsets, IntBuffer.wrap(owners), DoubleBuffer.wrap(rsims));
+    }
+
+    /**
+     * Get the index of items that appear as neighbors.
+     * @return The neighbor index.
+     */
+    SortedKeyIndex getNeighborIndex() {
+        return neighbors;
+    }
+
+    /**
+     * Get the entry offsets.  The returned array is shared and must not be modified.
+     * @return The start of each neighbor's entries, followed by the total number of entries.
+     */
+    int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Get the number of entries.
+     * @return The total number of entries, which is the number of neighbors in the model.
+     */
+    int size() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * Get the owner of an entry.
+     * @param k The entry position.
+     * @return The position, in the model's item index, of the item whose neighborhood holds the entry.
+     */
+    int getOwner(int k) {
+        return owners.get(k);
+    }
+
+    /**
+     * Get the similarity of an entry.
+     * @param k The entry position.
+     * @return The similarity between the entry's owner and neighbor.
+     */
+    double getSimilarity(int k) {
+        return similarities.get(k);
+    }
+}
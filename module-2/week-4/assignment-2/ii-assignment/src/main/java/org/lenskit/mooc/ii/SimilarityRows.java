@@ -0,0 +1,260 @@
+package org.lenskit.mooc.ii;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * The rows of an item similarity matrix, stored as neighbor IDs and similarities sorted by decreasing similarity
+ * and truncated to the model size.  Rows can be computed in parallel: they are split into blocks that are processed
+ * on a fork-join pool, and each block fills in its own rows, so no locking is needed.  A symmetric matrix can be
+ * computed from its upper triangle, so each pair of items is only compared once.
+ */
+final class SimilarityRows {
+    private static final Logger logger = LoggerFactory.getLogger(SimilarityRows.class);
+    private static final long[] EMPTY_IDS = new long[0];
+    private static final double[] EMPTY_SIMS = new double[0];
+
+    /**
+     * The number of rows computed by a single task.
+     */
+    private static final int BLOCK_SIZE = 64;
+
+    private final int modelSize;
+    private final long[][] rowIds;
+    private final double[][] rowSims;
+
+    /**
+     * Create a new set of similarity rows.
+     * @param n The number of rows.
+     * @param size The maximum number of neighbors to keep in each row, or 0 to keep all of them.
+     */
+    SimilarityRows(int n, int size) {
+        Preconditions.checkArgument(size >= 0, "negative model size %s", size);
+        modelSize = size;
+        rowIds = new long[n][];
+        rowSims = new double[n][];
+    }
+
+    /**
+     * Compute all rows in parallel.
+     *
+     * @param threads The number of threads to use.
+     * @param row     The function computing a row.  It is called concurrently from several threads; the map it
+     *                returns is copied right away, so it may be reused by the calling thread.
+     */
+    void compute(int threads, IntFunction<Long2DoubleMap> row) {
+        logger.info("computing similarities for {} items with {} threads", rowIds.length, threads);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new RowBlockTask(i -> setRow(i, row.apply(i)), 0, rowIds.length));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compute all rows of a symmetric similarity matrix in parallel.  Each row function only computes the
+     * similarities of an item with the items after it, so each pair is compared once; the similarities are then
+     * copied into the rows of both items before the rows are sorted and truncated.  The untruncated upper triangle
+     * is held in memory until the rows are built.
+     *
+     * @param threads  The number of threads to use.
+     * @param items    The item index; row {@code i} holds the neighbors of item {@code items.getKey(i)}.
+     * @param upperRow The function computing the upper triangle of a row: the similarities of item {@code i} with
+     *                 the items {@code j > i}, keyed by {@code j}.  It is called concurrently from several threads;
+     *                 the map it returns is copied right away, so it may be reused by the calling thread.
+     */
+    void computeSymmetric(int threads, SortedKeyIndex items, IntFunction<Int2DoubleMap> upperRow) {
+        int n = rowIds.length;
+        Preconditions.checkArgument(items.size() == n, "index has wrong size");
+        logger.info("computing symmetric similarities for {} items with {} threads", n, threads);
+        int[][] upperItems = new int[n][];
+        double[][] upperSims = new double[n][];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new RowBlockTask(i -> {
+                Int2DoubleMap row = upperRow.apply(i);
+                int[] cols = new int[row.size()];
+                double[] sims = new double[row.size()];
+                int k = 0;
+                for (Int2DoubleMap.Entry e : row.int2DoubleEntrySet()) {
+                    Preconditions.checkState(e.getIntKey() > i, "row %s has an entry below the diagonal", i);
+                    cols[k] = e.getIntKey();
+                    sims[k] = e.getDoubleValue();
+                    k++;
+                }
+                upperItems[i] = cols;
+                upperSims[i] = sims;
+            }, 0, n));
+
+            // transpose the upper triangle to get the rest of each row
+            int[] lowerSizes = new int[n];
+            for (int i = 0; i < n; i++) {
+                for (int j : upperItems[i]) {
+                    lowerSizes[j]++;
+                }
+            }
+            int[][] lowerItems = new int[n][];
+            double[][] lowerSims = new double[n][];
+            for (int j = 0; j < n; j++) {
+                lowerItems[j] = new int[lowerSizes[j]];
+                lowerSims[j] = new double[lowerSizes[j]];
+                lowerSizes[j] = 0;
+            }
+            for (int i = 0; i < n; i++) {
+                for (int k = 0; k < upperItems[i].length; k++) {
+                    int j = upperItems[i][k];
+                    lowerItems[j][lowerSizes[j]] = i;
+                    lowerSims[j][lowerSizes[j]] = upperSims[i][k];
+                    lowerSizes[j]++;
+                }
+            }
+
+            pool.invoke(new RowBlockTask(i -> {
+                int nu = upperItems[i].length;
+                int nl = lowerItems[i].length;
+                long[] ids = new long[nu + nl];
+                double[] sims = new double[nu + nl];
+                for (int k = 0; k < nl; k++) {
+                    ids[k] = items.getKey(lowerItems[i][k]);
+                    sims[k] = lowerSims[i][k];
+                }
+                for (int k = 0; k < nu; k++) {
+                    ids[nl + k] = items.getKey(upperItems[i][k]);
+                    sims[nl + k] = upperSims[i][k];
+                }
+                // release the halves as soon as the row is assembled
+                upperItems[i] = null;
+                upperSims[i] = null;
+                lowerItems[i] = null;
+                lowerSims[i] = null;
+                setRow(i, ids, sims);
+            }, 0, n));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Set a row, sorting it by decreasing similarity and truncating it to the model size.
+     * @param i The row number.
+     * @param row The neighbor similarities.
+     */
+    void setRow(int i, Long2DoubleMap row) {
+        int n = row.size();
+        long[] ids = new long[n];
+        double[] sims = new double[n];
+        int k = 0;
+        for (Long2DoubleMap.Entry e : row.long2DoubleEntrySet()) {
+            ids[k] = e.getLongKey();
+            sims[k] = e.getDoubleValue();
+            k++;
+        }
+        setRow(i, ids, sims);
+    }
+
+    /**
+     * Set a row, sorting it by decreasing similarity and truncating it to the model size.
+     * @param i The row number.
+     * @param ids The neighbor IDs.  The array is sorted in place, and may be kept by the row.
+     * @param sims The neighbor similarities, parallel to {@code ids}.
+     */
+    private void setRow(int i, long[] ids, double[] sims) {
+        int n = ids.length;
+        Arrays.quickSort(0, n, new AbstractIntComparator() {
+            @Override
+            public int compare(int a, int b) {
+                int cmp = Double.compare(sims[b], sims[a]);
+                return cmp != 0 ? cmp : Long.compare(ids[a], ids[b]);
+            }
+        }, (a, b) -> {
+            long ti = ids[a];
+            ids[a] = ids[b];
+            ids[b] = ti;
+            double ts = sims[a];
+            sims[a] = sims[b];
+            sims[b] = ts;
+        });
+
+        if (modelSize > 0 && n > modelSize) {
+            rowIds[i] = java.util.Arrays.copyOf(ids, modelSize);
+            rowSims[i] = java.util.Arrays.copyOf(sims, modelSize);
+        } else {
+            rowIds[i] = ids;
+            rowSims[i] = sims;
+        }
+    }
+
+    /**
+     * Build an item-item model from these rows.
+     * @param means The item mean ratings.
+     * @param items The item index; row {@code i} holds the neighbors of item {@code items.getKey(i)}.
+     * @return The model.
+     */
+    SimpleItemItemModel buildModel(Long2DoubleMap means, SortedKeyIndex items) {
+        Preconditions.checkArgument(items.size() == rowIds.length, "index has wrong size");
+        int n = rowIds.length;
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            int len = rowIds[i] == null ? 0 : rowIds[i].length;
+            offsets[i + 1] = offsets[i] + len;
+        }
+
+        long[] ids = new long[offsets[n]];
+        double[] sims = new double[offsets[n]];
+        for (int i = 0; i < n; i++) {
+            long[] rIds = rowIds[i] == null ? EMPTY_IDS : rowIds[i];
+            double[] rSims = rowSims[i] == null ? EMPTY_SIMS : rowSims[i];
+            System.arraycopy(rIds, 0, ids, offsets[i], rIds.length);
+            System.arraycopy(rSims, 0, sims, offsets[i], rSims.length);
+            // release the row as soon as it is copied
+            rowIds[i] = null;
+            rowSims[i] = null;
+        }
+        logger.info("built model with {} neighbors for {} items", offsets[n], n);
+
+        return new SimpleItemItemModel(means, items, offsets, ids, sims);
+    }
+
+    /**
+     * Task processing the rows of a contiguous block of items.  Large blocks are split in half, so the fork-join
+     * pool can balance the work across its threads.
+     */
+    private static class RowBlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final IntConsumer row;
+        private final int start;
+        private final int end;
+
+        RowBlockTask(IntConsumer row, int start, int end) {
+            this.row = row;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > BLOCK_SIZE) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new RowBlockTask(row, start, mid),
+                          new RowBlockTask(row, mid, end));
+            } else {
+                for (int i = start; i < end; i++) {
+                    row.accept(i);
+                }
+            }
+        }
+    }
+}
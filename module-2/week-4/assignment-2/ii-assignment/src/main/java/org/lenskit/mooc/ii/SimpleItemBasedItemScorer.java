@@ -1,16 +1,18 @@
 package org.lenskit.mooc.ii;
 
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemBasedItemScorer;
 import org.lenskit.results.Results;
+import org.lenskit.util.collections.LongUtils;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Global item scorer to find similar items.
@@ -26,21 +28,27 @@ public class SimpleItemBasedItemScorer extends AbstractItemBasedItemScorer {
     }
 
     /**
-     * Score items with respect to a set of reference items.
+     * Score items with respect to a set of reference items.  Each item's score is the sum of its similarities to the
+     * reference items in its neighborhood.  Rather than searching every item's neighborhood for the reference
+     * items, this visits the neighborhoods that contain each reference item, using the model's reverse neighbor
+     * index, and accumulates their similarities in a map by item.  The cost depends on the reference items'
+     * popularity as neighbors and on the number of items scored, not on the number of items in the model.
+     *
      * @param basket The reference items.
      * @param items The score vector. Its domain is the items to be scored, and the scores should
      *               be stored into this vector.
      */
     @Override
     public ResultMap scoreRelatedItemsWithDetails(@Nonnull Collection<Long> basket, Collection<Long> items) {
-        List<Result> results = new ArrayList<>();
-
-        for (Long item : items) {
-            Double simSum = model.getNeighbors(item).entrySet().stream()
-                    .filter(e -> basket.contains(e.getKey()))
-                    .map(Map.Entry::getValue)
-                    .reduce(0.0, Double::sum);
-            results.add(Results.create(item, simSum));
+        Long2DoubleOpenHashMap sums = new Long2DoubleOpenHashMap();
+        LongIterator refs = LongUtils.frozenSet(basket).iterator();
+        while (refs.hasNext()) {
+            model.addReverseSimilarities(refs.nextLong(), sums);
+        }
+
+        List<Result> results = new ArrayList<>(items.size());
+        for (long item : items) {
+            results.add(Results.create(item, sums.get(item)));
         }
 
         return Results.newResultMap(results);
@@ -5,28 +5,96 @@ import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.inject.Shareable;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
 
+import javax.annotation.Nullable;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
 import java.util.Map;
 
 /**
+ * An item-item model.  The neighbors of each item are stored in parallel ID and similarity arrays, sorted by
+ * decreasing similarity; each item's neighborhood is a contiguous range of positions in those arrays.
+ *
+ * <p>The neighbor arrays are accessed through NIO buffers, so they can either live on the heap or be
+ * {@linkplain ItemItemModelFile memory-mapped} from a model file.  Serializing the model copies them to the
+ * heap.</p>
+ *
+ * <p>To score items against a basket, the model also keeps the {@linkplain ReverseNeighbors transpose} of the
+ * neighborhoods, so the neighborhoods containing the basket items can be visited directly.  The transpose is as
+ * large as the neighborhoods, so it is built on the heap the first time a basket is scored rather than with the
+ * model; a model file may store it, in which case a mapped model maps it instead.  The serialized form leaves it
+ * out.</p>
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 @Shareable
 @DefaultProvider(SimpleItemItemModelProvider.class)
 public class SimpleItemItemModel implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 3L;
 
     private final Long2DoubleMap itemMeans;
-    private final Map<Long,Long2DoubleMap> neighborhoods;
+    private final SortedKeyIndex index;
+    private final int[] offsets;
+    private final LongBuffer neighborIds;
+    private final DoubleBuffer similarities;
+    private volatile ReverseNeighbors reverseNeighbors;
 
     /**
      * Create a new item-item model.
+     * @param means The item mean ratings.
      * @param nbrhoods A mapping of items to neighborhoods.
      */
     public SimpleItemItemModel(Long2DoubleMap means, Map<Long,Long2DoubleMap> nbrhoods) {
+        SortedKeyIndex idx = SortedKeyIndex.fromCollection(nbrhoods.keySet());
+        SimilarityRows rows = new SimilarityRows(idx.size(), 0);
+        for (int i = 0; i < idx.size(); i++) {
+            rows.setRow(i, nbrhoods.get(idx.getKey(i)));
+        }
+        SimpleItemItemModel built = rows.buildModel(means, idx);
+        itemMeans = built.itemMeans;
+        index = built.index;
+        offsets = built.offsets;
+        neighborIds = built.neighborIds;
+        similarities = built.similarities;
+    }
+
+    /**
+     * Create a new item-item model from sorted neighborhood arrays.
+     * @param means The item mean ratings.
+     * @param idx The index of items with neighborhoods.
+     * @param offsets The start of each item's neighborhood in the neighbor arrays, followed by the total number of
+     *                neighbors.
+     * @param ids The neighbor IDs; each neighborhood is sorted by decreasing similarity.
+     * @param sims The neighbor similarities.
+     */
+    SimpleItemItemModel(Long2DoubleMap means, SortedKeyIndex idx, int[] offsets, long[] ids, double[] sims) {
+        this(means, idx, offsets, LongBuffer.wrap(ids), DoubleBuffer.wrap(sims), null);
+    }
+
+    /**
+     * Create a new item-item model from sorted neighborhood buffers.
+     * @param means The item mean ratings.
+     * @param idx The index of items with neighborhoods.
+     * @param offsets The start of each item's neighborhood in the neighbor buffers, followed by the total number of
+     *                neighbors.
+     * @param ids The neighbor IDs; each neighborhood is sorted by decreasing similarity.  Only absolute access is
+     *            used, so the buffer is shared rather than copied.
+     * @param sims The neighbor similarities.
+     * @param reverse The transpose of the neighborhoods, or {@code null} to build it when it is first needed.
+     */
+    SimpleItemItemModel(Long2DoubleMap means, SortedKeyIndex idx, int[] offsets, LongBuffer ids, DoubleBuffer sims,
+                        @Nullable ReverseNeighbors reverse) {
         itemMeans = LongUtils.frozenMap(means);
-        neighborhoods = nbrhoods;
+        index = idx;
+        this.offsets = offsets;
+        neighborIds = ids;
+        similarities = sims;
+        reverseNeighbors = reverse;
     }
 
     /**
@@ -39,14 +107,150 @@ public class SimpleItemItemModel implements Serializable {
 
     /**
      * Get the neighbors of an item.
-     * @return The neighbors of the item, sorted by decreasing score.
+     * @return The neighbors of the item, as a map from neighbor IDs to similarities.  Use
+     *         {@link #getNeighborhoodStart(long)} and the position accessors to visit them by decreasing similarity.
      */
     public Long2DoubleMap getNeighbors(long item) {
-        Long2DoubleMap nbrs = neighborhoods.get(item);
-        if (nbrs == null) {
-            return new Long2DoubleOpenHashMap();
-        } else {
-            return nbrs;
+        int start = getNeighborhoodStart(item);
+        int end = getNeighborhoodEnd(item);
+        long[] ids = new long[end - start];
+        double[] sims = new double[end - start];
+        for (int pos = start; pos < end; pos++) {
+            ids[pos - start] = neighborIds.get(pos);
+            sims[pos - start] = similarities.get(pos);
+        }
+        return Long2DoubleSortedArrayMap.wrapUnsorted(ids, sims);
+    }
+
+    /**
+     * Get the position of the first (most similar) neighbor of an item.
+     * @param item The item ID.
+     * @return The position of the item's first neighbor.  If the item has no neighbors, this is equal to
+     *         {@link #getNeighborhoodEnd(long)}.
+     */
+    public int getNeighborhoodStart(long item) {
+        int i = index.tryGetIndex(item);
+        return i >= 0 ? offsets[i] : 0;
+    }
+
+    /**
+     * Get the position just past the last (least similar) neighbor of an item.
+     * @param item The item ID.
+     * @return The end of the item's neighborhood.
+     */
+    public int getNeighborhoodEnd(long item) {
+        int i = index.tryGetIndex(item);
+        return i >= 0 ? offsets[i + 1] : 0;
+    }
+
+    /**
+     * Get the ID of the neighbor at a position.
+     * @param pos The neighbor position.
+     * @return The neighbor's item ID.
+     */
+    public long getNeighborId(int pos) {
+        return neighborIds.get(pos);
+    }
+
+    /**
+     * Get the similarity of the neighbor at a position.
+     * @param pos The neighbor position.
+     * @return The similarity between the neighbor and the item whose neighborhood contains it.
+     */
+    public double getNeighborSimilarity(int pos) {
+        return similarities.get(pos);
+    }
+
+    /**
+     * Get the index of items with neighborhoods.
+     * @return The item index.
+     */
+    SortedKeyIndex getItemIndex() {
+        return index;
+    }
+
+    /**
+     * Get the neighborhood offsets.  The returned array is shared and must not be modified.
+     * @return The start of each item's neighborhood, by item position, followed by the total number of neighbors.
+     */
+    int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Get the transpose of the neighborhoods, building it if the model does not have it yet.
+     * @return The reverse neighbor index.
+     */
+    ReverseNeighbors getReverseNeighbors() {
+        ReverseNeighbors reverse = reverseNeighbors;
+        if (reverse == null) {
+            synchronized (this) {
+                reverse = reverseNeighbors;
+                if (reverse == null) {
+                    reverse = ReverseNeighbors.build(offsets, neighborIds, similarities);
+                    reverseNeighbors = reverse;
+                }
+            }
+        }
+        return reverse;
+    }
+
+    /**
+     * Add the similarities of an item to the items whose neighborhoods contain it.  For each item that has
+     * {@code neighbor} in its neighborhood, this adds their similarity to the item's entry in {@code sums}.
+     *
+     * @param neighbor The neighbor item ID.
+     * @param sums     The similarity sums, by item ID.
+     */
+    void addReverseSimilarities(long neighbor, Long2DoubleOpenHashMap sums) {
+        ReverseNeighbors reverse = getReverseNeighbors();
+        int t = reverse.getNeighborIndex().tryGetIndex(neighbor);
+        if (t < 0) {
+            return;
+        }
+        int[] revOffsets = reverse.getOffsets();
+        for (int k = revOffsets[t]; k < revOffsets[t + 1]; k++) {
+            sums.addTo(index.getKey(reverse.getOwner(k)), reverse.getSimilarity(k));
+        }
+    }
+
+    private Object writeReplace() {
+        int n = offsets[offsets.length - 1];
+        long[] ids = new long[n];
+        double[] sims = new double[n];
+        for (int pos = 0; pos < n; pos++) {
+            ids[pos] = neighborIds.get(pos);
+            sims[pos] = similarities.get(pos);
+        }
+        return new SerializedForm(itemMeans, index, offsets, ids, sims);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("item-item models are deserialized from their serialized form");
+    }
+
+    /**
+     * The serialized form of the model, with the neighbor buffers copied into arrays.
+     */
+    private static class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Long2DoubleMap means;
+        private final SortedKeyIndex index;
+        private final int[] offsets;
+        private final long[] ids;
+        private final double[] sims;
+
+        SerializedForm(Long2DoubleMap means, SortedKeyIndex index, int[] offsets, long[] ids, double[] sims) {
+            this.means = means;
+            this.index = index;
+            this.offsets = offsets;
+            this.ids = ids;
+            this.sims = sims;
+        }
+
+        private Object readResolve() {
+            return new SimpleItemItemModel(means, index, offsets, ids, sims);
         }
     }
 }
@@ -1,43 +1,38 @@
 package org.lenskit.mooc.ii;
 
-import com.google.common.collect.Maps;
-import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
-import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
-import it.unimi.dsi.fastutil.longs.LongSet;
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 import org.lenskit.data.dao.DataAccessObject;
-import org.lenskit.data.entities.CommonAttributes;
-import org.lenskit.data.entities.CommonTypes;
-import org.lenskit.data.ratings.Rating;
-import org.lenskit.data.ratings.Ratings;
 import org.lenskit.inject.Transient;
-import org.lenskit.util.IdBox;
-import org.lenskit.util.collections.LongUtils;
-import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.SortedKeyIndex;
 import org.lenskit.util.math.Vectors;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
-import java.util.List;
-import java.util.Map;
 
 /**
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class SimpleItemItemModelProvider implements Provider<SimpleItemItemModel> {
-    private static final Logger logger = LoggerFactory.getLogger(SimpleItemItemModelProvider.class);
-
     private final DataAccessObject dao;
+    private final int threadCount;
+    private final int modelSize;
 
     /**
      * Construct the model provider.
      *
      * @param dao The data access object.
+     * @param threads The number of threads to use for computing similarities (0 for one per processor).
+     * @param size The number of neighbors to keep for each item (0 to keep all of them).
      */
     @Inject
-    public SimpleItemItemModelProvider(@Transient DataAccessObject dao) {
+    public SimpleItemItemModelProvider(@Transient DataAccessObject dao,
+                                       @ModelBuildThreads int threads,
+                                       @ModelSize int size) {
+        Preconditions.checkArgument(threads >= 0, "negative thread count %s", threads);
         this.dao = dao;
+        modelSize = size;
+        threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
     }
 
     /**
@@ -47,61 +42,30 @@ public class SimpleItemItemModelProvider implements Provider<SimpleItemItemModel
      */
     @Override
     public SimpleItemItemModel get() {
-        Map<Long, Long2DoubleMap> itemVectors = Maps.newHashMap();
-        Long2DoubleMap itemMeans = new Long2DoubleOpenHashMap();
-
-        try (ObjectStream<IdBox<List<Rating>>> stream = dao.query(Rating.class)
-                .groupBy(CommonAttributes.ITEM_ID)
-                .stream()) {
-            for (IdBox<List<Rating>> item : stream) {
-                long itemId = item.getId();
-                List<Rating> itemRatings = item.getValue();
-                Long2DoubleOpenHashMap ratings = new Long2DoubleOpenHashMap(Ratings.itemRatingVector(itemRatings));
-
-                // Compute and store the item's mean.
-                double mean = Vectors.mean(ratings);
-                itemMeans.put(itemId, mean);
-
-                // Mean center the ratings.
-                for (Map.Entry<Long, Double> entry : ratings.entrySet()) {
-                    entry.setValue(entry.getValue() - mean);
-                }
-
-                itemVectors.put(itemId, LongUtils.frozenMap(ratings));
-            }
-        }
-
-        // Map items to vectors (maps) of item similarities.
-        Map<Long, Long2DoubleMap> itemSimilarities = Maps.newHashMap();
-
-        LongSet items = dao.getEntityIds(CommonTypes.ITEM);
-
-        for (long i : items) {
-            for (long j : items) {
-                if (i != j) {
-                    Long2DoubleMap iNeighbors = itemSimilarities.computeIfAbsent(i, k -> new Long2DoubleOpenHashMap());
-                    Long2DoubleMap jNeighbors = itemSimilarities.computeIfAbsent(j, k -> new Long2DoubleOpenHashMap());
-
-                    if (iNeighbors.containsKey(j) || jNeighbors.containsKey(i)) {
-                        continue;
-                    }
-
-                    Long2DoubleMap iRatings = itemVectors.get(i);
-                    Long2DoubleMap jRatings = itemVectors.get(j);
-
-                    // Cosine similarity between the two items
-                    double sim = Vectors.dotProduct(iRatings, jRatings)
-                            / (Vectors.euclideanNorm(iRatings) * Vectors.euclideanNorm(jRatings));
-
-                    // Only store neighbors with positive similarities
-                    if (sim > 0) {
-                        iNeighbors.put(j, sim);
-                        jNeighbors.put(i, sim);
-                    }
+        MeanCenteredItems vectors = MeanCenteredItems.load(dao);
+        SortedKeyIndex items = vectors.getIndex();
+        int n = items.size();
+
+        // each thread reuses its own accumulator for the rows it computes
+        ThreadLocal<Int2DoubleOpenHashMap> accumulators = ThreadLocal.withInitial(Int2DoubleOpenHashMap::new);
+        SimilarityRows rows = new SimilarityRows(n, modelSize);
+        // cosine similarity is symmetric, so each pair is only compared once, from the row of its first item
+        rows.computeSymmetric(threadCount, items, i -> {
+            Int2DoubleOpenHashMap neighbors = accumulators.get();
+            neighbors.clear();
+            for (int j = i + 1; j < n; j++) {
+                // Cosine similarity between the two items
+                double sim = Vectors.dotProduct(vectors.getVector(i), vectors.getVector(j))
+                        / (vectors.getNorm(i) * vectors.getNorm(j));
+
+                // Only store neighbors with positive similarities
+                if (sim > 0) {
+                    neighbors.put(j, sim);
                 }
             }
-        }
+            return neighbors;
+        });
 
-        return new SimpleItemItemModel(LongUtils.frozenMap(itemMeans), itemSimilarities);
+        return rows.buildModel(vectors.getItemMeans(), items);
     }
 }
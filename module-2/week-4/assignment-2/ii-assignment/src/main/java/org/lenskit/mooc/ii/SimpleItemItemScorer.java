@@ -1,6 +1,9 @@
 package org.lenskit.mooc.ii;
 
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMaps;
 import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
@@ -9,14 +12,21 @@ import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.entities.CommonAttributes;
 import org.lenskit.data.ratings.Rating;
 import org.lenskit.results.Results;
+import org.lenskit.util.IdBox;
+import org.lenskit.util.io.ObjectStream;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
@@ -42,15 +52,165 @@ public class SimpleItemItemScorer extends AbstractItemScorer {
      */
     @Override
     public ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items) {
+        return scoreWithRatings(getUserRatingVector(user), items);
+    }
+
+    /**
+     * Score items for many users at once.  The requests are merged against a single pass over the ratings grouped
+     * by user, so neither the requests nor the users' ratings need to be held in memory, and the users are scored
+     * concurrently.  Only a few users are in flight at a time: each user's scores are handed to the sink as soon as
+     * they are computed.
+     *
+     * @param requests The users to score, with the items to score for each, in increasing order of user ID.  Each
+     *                 request is read only when the previous ones have been queued for scoring.
+     * @param threads  The number of threads to score with (0 for one per processor).
+     * @param sink     The sink receiving each user's scores, in no particular order.  It is called from the worker
+     *                 threads, but never by two of them at once.
+     * @throws InterruptedException if the thread is interrupted while waiting for scoring to finish.
+     * @throws IllegalArgumentException if the requests are not in increasing order of user ID.
+     * @throws IllegalStateException if the DAO does not group the ratings in increasing order of user ID.
+     */
+    public void scoreUsers(Iterator<? extends IdBox<? extends Collection<Long>>> requests, int threads,
+                           BatchScoreSink sink) throws InterruptedException {
+        try (ObjectStream<IdBox<List<Rating>>> stream = dao.query(Rating.class)
+                                                          .groupBy(CommonAttributes.USER_ID)
+                                                          .stream()) {
+            scoreUsers(requests, stream.iterator(), threads, sink);
+        }
+    }
+
+    /**
+     * Score items for many users, merging the requests against the users' ratings.
+     *
+     * @param histories The users' ratings, grouped by user in increasing order of user ID.  A user whose group
+     *                  the merge has already passed is looked up in the DAO instead, so a group that comes too late
+     *                  is never mistaken for a user with no ratings; a group that comes after one with a greater
+     *                  user ID is an error.
+     * @see #scoreUsers(Iterator, int, BatchScoreSink)
+     */
+    void scoreUsers(Iterator<? extends IdBox<? extends Collection<Long>>> requests,
+                    Iterator<IdBox<List<Rating>>> histories, int threads,
+                    BatchScoreSink sink) throws InterruptedException {
+        Preconditions.checkArgument(threads >= 0, "negative thread count %s", threads);
+        int threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        // bound the users waiting to be scored, so the requests do not run ahead of the workers
+        Semaphore pending = new Semaphore(threadCount * 4);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Object sinkLock = new Object();
+
+        try {
+            // the groups come in increasing order of user ID, so walk them alongside the requests
+            IdBox<List<Rating>> history = nextHistory(histories, null);
+            boolean first = true;
+            long lastUser = 0;
+            while (requests.hasNext() && failure.get() == null) {
+                IdBox<? extends Collection<Long>> request = requests.next();
+                long user = request.getId();
+                Preconditions.checkArgument(first || user > lastUser,
+                                            "request for user %s follows user %s", user, lastUser);
+                first = false;
+                lastUser = user;
+
+                while (history != null && history.getId() < user) {
+                    history = nextHistory(histories, history);
+                }
+                Long2DoubleMap ratings;
+                if (history != null && history.getId() == user) {
+                    ratings = new Long2DoubleOpenHashMap();
+                    for (Rating r : history.getValue()) {
+                        ratings.put(r.getItemId(), r.getValue());
+                    }
+                } else if (history == null && !histories.hasNext()) {
+                    // every group has been read, and none was this user's
+                    ratings = Long2DoubleMaps.EMPTY_MAP;
+                } else {
+                    // the user has no ratings, or their group has not come yet; only the DAO can tell
+                    ratings = getUserRatingVector(user);
+                }
+                submit(pool, pending, failure, sink, sinkLock, user, ratings, request.getValue());
+            }
+        } catch (Throwable t) {
+            // the merge failed: stop the workers instead of waiting for them, so the caller sees this error at once
+            pool.shutdownNow();
+            throw t;
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            throw e;
+        }
+
+        Throwable err = failure.get();
+        if (err != null) {
+            Throwables.propagateIfPossible(err);
+            throw new RuntimeException("error scoring users", err);
+        }
+    }
+
+    /**
+     * Read the next user's ratings, checking that the groups come in increasing order of user ID.  Otherwise the
+     * merge would skip the ratings of users whose groups come after a greater user's.
+     *
+     * @param histories The users' ratings, grouped by user.
+     * @param last      The group read last, or {@code null} at the start.
+     * @return The next group, or {@code null} if there are no more.
+     * @throws IllegalStateException if the next group's user ID is not greater than the last one's.
+     */
+    @Nullable
+    private static IdBox<List<Rating>> nextHistory(Iterator<IdBox<List<Rating>>> histories,
+                                                   @Nullable IdBox<List<Rating>> last) {
+        if (!histories.hasNext()) {
+            return null;
+        }
+        IdBox<List<Rating>> next = histories.next();
+        if (last != null && next.getId() <= last.getId()) {
+            throw new IllegalStateException(String.format("ratings of user %d follow those of user %d, "
+                                                                  + "but must be grouped in increasing order of user ID",
+                                                          next.getId(), last.getId()));
+        }
+        return next;
+    }
+
+    /**
+     * Queue a user to be scored, waiting if too many users are already queued.
+     */
+    private void submit(ExecutorService pool, Semaphore pending, AtomicReference<Throwable> failure,
+                        BatchScoreSink sink, Object sinkLock, long user, Long2DoubleMap ratings,
+                        Collection<Long> items) throws InterruptedException {
+        pending.acquire();
+        pool.execute(() -> {
+            try {
+                ResultMap scores = scoreWithRatings(ratings, items);
+                synchronized (sinkLock) {
+                    sink.accept(user, scores);
+                }
+            } catch (Throwable th) {
+                failure.compareAndSet(null, th);
+            } finally {
+                pending.release();
+            }
+        });
+    }
+
+    /**
+     * Score items from a user's ratings.
+     *
+     * @param ratings The user's ratings.
+     * @param items   The items to score.
+     * @return The scores.
+     */
+    private ResultMap scoreWithRatings(Long2DoubleMap ratings, Collection<Long> items) {
         Long2DoubleMap itemMeans = model.getItemMeans();
-        Long2DoubleMap ratings = getUserRatingVector(user);
 
         Long2DoubleMap normRatings = normalizeRatings(ratings, itemMeans);
 
         List<Result> results = new ArrayList<>();
 
         for (long item : items) {
-            results.add(calculateItemScore(item, model.getNeighbors(item), normRatings, itemMeans.get(item)));
+            results.add(calculateItemScore(item, normRatings, itemMeans.get(item)));
         }
 
         return Results.newResultMap(results);
@@ -58,19 +218,23 @@ public class SimpleItemItemScorer extends AbstractItemScorer {
     }
 
     private Long2DoubleMap normalizeRatings(Long2DoubleMap ratings, Long2DoubleMap itemMeans) {
-        Long2DoubleMap normRatings = new Long2DoubleOpenHashMap();
-        for (Map.Entry<Long, Double> entry : ratings.entrySet()) {
-            long item = entry.getKey();
-            double rating = entry.getValue();
-            double mean = itemMeans.get(item);
-            normRatings.put(item, rating - mean);
+        Long2DoubleOpenHashMap normRatings = new Long2DoubleOpenHashMap(ratings.size());
+        // unrated items look up as NaN, so one lookup tells us both whether and how the user rated an item
+        normRatings.defaultReturnValue(Double.NaN);
+        for (Long2DoubleMap.Entry entry : ratings.long2DoubleEntrySet()) {
+            long item = entry.getLongKey();
+            normRatings.put(item, entry.getDoubleValue() - itemMeans.get(item));
         }
         return normRatings;
     }
 
+    /**
+     * Score an item from the user's ratings of its most similar neighbors.  The model stores each neighborhood
+     * sorted by decreasing similarity, so this walks it in order and stops as soon as it has found
+     * {@link #neighborhoodSize} neighbors the user has rated.
+     */
     private Result calculateItemScore(
             long item,
-            Long2DoubleMap neighbors,
             Long2DoubleMap normalizedRatings,
             double itemMeanRating) {
 
@@ -78,18 +242,16 @@ public class SimpleItemItemScorer extends AbstractItemScorer {
         double weightedSumOfNeighbors = 0.0;
         double sumOfSimilarities = 0.0;
 
-        for (Map.Entry<Long, Double> neighborSim : neighbors.entrySet().stream()
-                .filter(e -> normalizedRatings.containsKey(e.getKey()))
-                .sorted(Map.Entry.<Long, Double>comparingByValue().reversed())
-                .collect(Collectors.toList())) {
-            // Use at most 20 neighbors to score each item
-            if (contributions >= neighborhoodSize) {
-                break;
+        int end = model.getNeighborhoodEnd(item);
+        // Use at most 20 neighbors to score each item
+        for (int pos = model.getNeighborhoodStart(item); pos < end && contributions < neighborhoodSize; pos++) {
+            double rating = normalizedRatings.get(model.getNeighborId(pos));
+            if (Double.isNaN(rating)) {
+                continue;
             }
-            Long neighborId = neighborSim.getKey();
-            Double neighborSimilarity = neighborSim.getValue();
+            double neighborSimilarity = model.getNeighborSimilarity(pos);
 
-            weightedSumOfNeighbors += neighborSimilarity * normalizedRatings.get(neighborId);
+            weightedSumOfNeighbors += neighborSimilarity * rating;
             sumOfSimilarities += neighborSimilarity;
             contributions++;
         }
@@ -0,0 +1,158 @@
+package org.lenskit.mooc.ii;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.inject.Transient;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Item-item model provider that only visits co-rated item pairs.  It builds an inverted index from each user to the
+ * items they rated, and accumulates the dot product of item X with every item Y by walking the items rated by X's
+ * users.  Item pairs with no users in common are never touched, so the cost is proportional to the number of
+ * co-ratings rather than the square of the number of items.
+ *
+ * <p>This computes the same cosine similarities over mean-centered item vectors as
+ * {@link SimpleItemItemModelProvider}, and produces the same neighborhoods.</p>
+ */
+public class SparseItemItemModelProvider implements Provider<SimpleItemItemModel> {
+    private final DataAccessObject dao;
+    private final int threadCount;
+    private final int modelSize;
+
+    /**
+     * Construct the model provider.
+     *
+     * @param dao The data access object.
+     * @param threads The number of threads to use for computing similarities (0 for one per processor).
+     * @param size The number of neighbors to keep for each item (0 to keep all of them).
+     */
+    @Inject
+    public SparseItemItemModelProvider(@Transient DataAccessObject dao,
+                                       @ModelBuildThreads int threads,
+                                       @ModelSize int size) {
+        Preconditions.checkArgument(threads >= 0, "negative thread count %s", threads);
+        this.dao = dao;
+        modelSize = size;
+        threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    public SimpleItemItemModel get() {
+        MeanCenteredItems vectors = MeanCenteredItems.load(dao);
+        SortedKeyIndex items = vectors.getIndex();
+        int n = items.size();
+
+        // Invert the item vectors: for each user, the positions of the items they rated and their centered ratings.
+        Long2IntMap userIds = new Long2IntOpenHashMap();
+        userIds.defaultReturnValue(-1);
+        List<IntArrayList> userItemLists = new ArrayList<>();
+        List<DoubleArrayList> userValueLists = new ArrayList<>();
+        // each item's vector, by user position rather than user ID
+        int[][] itemUsers = new int[n][];
+        double[][] itemValues = new double[n][];
+        for (int i = 0; i < n; i++) {
+            Long2DoubleMap vec = vectors.getVector(i);
+            itemUsers[i] = new int[vec.size()];
+            itemValues[i] = new double[vec.size()];
+            int k = 0;
+            for (Long2DoubleMap.Entry e : vec.long2DoubleEntrySet()) {
+                int u = userIds.get(e.getLongKey());
+                if (u < 0) {
+                    u = userItemLists.size();
+                    userIds.put(e.getLongKey(), u);
+                    userItemLists.add(new IntArrayList());
+                    userValueLists.add(new DoubleArrayList());
+                }
+                userItemLists.get(u).add(i);
+                userValueLists.get(u).add(e.getDoubleValue());
+                itemUsers[i][k] = u;
+                itemValues[i][k] = e.getDoubleValue();
+                k++;
+            }
+        }
+        int[][] userItems = new int[userItemLists.size()][];
+        double[][] userValues = new double[userItemLists.size()][];
+        for (int u = 0; u < userItems.length; u++) {
+            userItems[u] = userItemLists.get(u).toIntArray();
+            userValues[u] = userValueLists.get(u).toDoubleArray();
+        }
+
+        // each thread reuses its own dense dot-product accumulator for the rows it computes
+        ThreadLocal<DotAccumulator> accumulators = ThreadLocal.withInitial(() -> new DotAccumulator(n));
+        SimilarityRows rows = new SimilarityRows(n, modelSize);
+        rows.compute(threadCount, i -> {
+            DotAccumulator acc = accumulators.get();
+            int[] users = itemUsers[i];
+            double[] values = itemValues[i];
+            for (int k = 0; k < users.length; k++) {
+                int[] coItems = userItems[users[k]];
+                double[] coValues = userValues[users[k]];
+                for (int m = 0; m < coItems.length; m++) {
+                    if (coItems[m] != i) {
+                        acc.add(coItems[m], values[k] * coValues[m]);
+                    }
+                }
+            }
+
+            Long2DoubleOpenHashMap neighbors = new Long2DoubleOpenHashMap(acc.size);
+            for (int t = 0; t < acc.size; t++) {
+                int j = acc.touched[t];
+                // Cosine similarity between the two items
+                double sim = acc.sums[j] / (vectors.getNorm(i) * vectors.getNorm(j));
+                // Only store neighbors with positive similarities
+                if (sim > 0) {
+                    neighbors.put(items.getKey(j), sim);
+                }
+            }
+            acc.clear();
+            return neighbors;
+        });
+
+        return rows.buildModel(vectors.getItemMeans(), items);
+    }
+
+    /**
+     * Dense accumulator for the dot products of one item with all others, which remembers the entries it touched
+     * so it can be cleared in time proportional to them.
+     */
+    private static class DotAccumulator {
+        final double[] sums;
+        final boolean[] seen;
+        final int[] touched;
+        int size;
+
+        DotAccumulator(int n) {
+            sums = new double[n];
+            seen = new boolean[n];
+            touched = new int[n];
+        }
+
+        void add(int j, double v) {
+            if (!seen[j]) {
+                seen[j] = true;
+                touched[size++] = j;
+            }
+            sums[j] += v;
+        }
+
+        void clear() {
+            for (int t = 0; t < size; t++) {
+                int j = touched[t];
+                sums[j] = 0;
+                seen[j] = false;
+            }
+            size = 0;
+        }
+    }
+}
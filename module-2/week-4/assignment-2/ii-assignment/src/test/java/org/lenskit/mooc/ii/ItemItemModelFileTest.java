@@ -0,0 +1,127 @@
+package org.lenskit.mooc.ii;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonTypes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Round-trip tests for the item-item model file: write a model, map it back, and compare the neighborhoods, means
+ * and reverse neighbor index with those of the original model.
+ */
+public class ItemItemModelFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DataAccessObject dao;
+    private List<Long> items;
+
+    @Before
+    public void createData() {
+        dao = ItemItemTestData.createDAO();
+        items = new ArrayList<>(dao.getEntityIds(CommonTypes.ITEM));
+        // an item the model does not know
+        items.add(999L);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (int size : new int[]{0, 5}) {
+            SimpleItemItemModel model = new SparseItemItemModelProvider(dao, 1, size).get();
+            Path file = folder.newFile("model-" + size + ".bin").toPath();
+            ItemItemModelFile.write(model, file, true);
+            SimpleItemItemModel mapped = ItemItemModelFile.open(file);
+
+            ItemItemTestData.assertSameModel(model, mapped, items, 0);
+            assertThat(mapped.getItemIndex().keySet(), equalTo(model.getItemIndex().keySet()));
+            assertThat(mapped.getOffsets(), equalTo(model.getOffsets()));
+
+            ReverseNeighbors expected = model.getReverseNeighbors();
+            ReverseNeighbors actual = mapped.getReverseNeighbors();
+            assertThat(actual.getNeighborIndex().keySet(), equalTo(expected.getNeighborIndex().keySet()));
+            assertThat(actual.getOffsets(), equalTo(expected.getOffsets()));
+            assertThat(actual.size(), equalTo(expected.size()));
+            for (int k = 0; k < expected.size(); k++) {
+                assertThat(actual.getOwner(k), equalTo(expected.getOwner(k)));
+                assertThat(actual.getSimilarity(k), equalTo(expected.getSimilarity(k)));
+            }
+        }
+    }
+
+    @Test
+    public void testWithoutReverseIndex() throws IOException {
+        SimpleItemItemModel model = new SparseItemItemModelProvider(dao, 1, 5).get();
+        Path full = folder.newFile("full.bin").toPath();
+        Path plain = folder.newFile("plain.bin").toPath();
+        ItemItemModelFile.write(model, full, true);
+        ItemItemModelFile.write(model, plain);
+        // the reverse index has an entry of 12 bytes for each neighbor
+        int m = model.getOffsets()[model.getItemIndex().size()];
+        assertThat(Files.size(plain), lessThanOrEqualTo(Files.size(full) - 12L * m));
+
+        // the mapped model builds the same reverse index on the heap
+        SimpleItemItemModel mapped = ItemItemModelFile.open(plain);
+        ItemItemTestData.assertSameModel(model, mapped, items, 0);
+        ReverseNeighbors expected = model.getReverseNeighbors();
+        ReverseNeighbors actual = mapped.getReverseNeighbors();
+        assertThat(actual.getNeighborIndex().keySet(), equalTo(expected.getNeighborIndex().keySet()));
+        assertThat(actual.getOffsets(), equalTo(expected.getOffsets()));
+        for (int k = 0; k < expected.size(); k++) {
+            assertThat(actual.getOwner(k), equalTo(expected.getOwner(k)));
+            assertThat(actual.getSimilarity(k), equalTo(expected.getSimilarity(k)));
+        }
+    }
+
+    @Test
+    public void testProvider() throws IOException {
+        SimpleItemItemModel model = new SparseItemItemModelProvider(dao, 1, 0).get();
+        Path file = folder.newFile("model.bin").toPath();
+        ItemItemModelFile.write(model, file);
+        SimpleItemItemModel mapped = new MappedItemItemModelProvider(file.toString()).get();
+        ItemItemTestData.assertSameModel(model, mapped, items, 0);
+    }
+
+    @Test
+    public void testEmptyModel() throws IOException {
+        SimpleItemItemModel model = new SimpleItemItemModel(new Long2DoubleOpenHashMap(),
+                                                            new HashMap<>());
+        Path file = folder.newFile("empty.bin").toPath();
+        ItemItemModelFile.write(model, file);
+        SimpleItemItemModel mapped = ItemItemModelFile.open(file);
+        assertThat(mapped.getItemMeans().size(), equalTo(0));
+        assertThat(mapped.getNeighbors(1).size(), equalTo(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectOtherFiles() throws IOException {
+        Path file = folder.newFile("other.txt").toPath();
+        Files.write(file, Arrays.asList("this is not a model file", "but it is long enough to hold a header"),
+                    StandardCharsets.UTF_8);
+        ItemItemModelFile.open(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectTruncatedFiles() throws IOException {
+        SimpleItemItemModel model = new SparseItemItemModelProvider(dao, 1, 0).get();
+        Path file = folder.newFile("model.bin").toPath();
+        ItemItemModelFile.write(model, file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+        ItemItemModelFile.open(file);
+    }
+}
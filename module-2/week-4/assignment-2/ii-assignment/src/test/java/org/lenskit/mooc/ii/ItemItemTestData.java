@@ -0,0 +1,87 @@
+package org.lenskit.mooc.ii;
+
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Small rating data set shared by the item-item tests.
+ */
+final class ItemItemTestData {
+    static final int USERS = 40;
+    static final int ITEMS = 60;
+    /**
+     * The number of copied items: item {@code ITEMS + i} is rated exactly like item {@code i}, for {@code i} up to
+     * this, so every item's similarities to the two tie.
+     */
+    static final int COPIES = 2;
+
+    private ItemItemTestData() {
+    }
+
+    /**
+     * Create the test ratings.  Each user rates about half the items, with half-star ratings, except for user 1, who
+     * rates every item, so it has more rated neighbors than the scorer uses.
+     * @return The data access object.
+     */
+    static DataAccessObject createDAO() {
+        Random rng = new Random(42);
+        EntityFactory factory = new EntityFactory();
+        List<Entity> ratings = new ArrayList<>();
+        for (long user = 1; user <= USERS; user++) {
+            for (long item = 1; item <= ITEMS; item++) {
+                if (user == 1 || rng.nextBoolean()) {
+                    double value = 0.5 * (1 + rng.nextInt(10));
+                    ratings.add(factory.rating(user, item, value));
+                    if (item <= COPIES) {
+                        ratings.add(factory.rating(user, item + ITEMS, value));
+                    }
+                }
+            }
+        }
+        StaticDataSource data = new StaticDataSource("test");
+        data.addSource(ratings);
+        data.addDerivedEntity(CommonTypes.USER, CommonTypes.RATING, CommonAttributes.USER_ID);
+        data.addDerivedEntity(CommonTypes.ITEM, CommonTypes.RATING, CommonAttributes.ITEM_ID);
+        return data.get();
+    }
+
+    /**
+     * Check that two models have the same neighborhoods, in the same order, and the same item means.
+     * @param expected The expected model.
+     * @param actual The model to check.
+     * @param items The items to check.
+     * @param epsilon The tolerance for similarities.
+     */
+    static void assertSameModel(SimpleItemItemModel expected, SimpleItemItemModel actual,
+                                Iterable<Long> items, double epsilon) {
+        assertThat(actual.getItemMeans().keySet(), equalTo(expected.getItemMeans().keySet()));
+        for (long item : expected.getItemMeans().keySet()) {
+            assertThat(actual.getItemMeans().get(item), closeTo(expected.getItemMeans().get(item), epsilon));
+        }
+        for (long item : items) {
+            int start = expected.getNeighborhoodStart(item);
+            int size = expected.getNeighborhoodEnd(item) - start;
+            int astart = actual.getNeighborhoodStart(item);
+            assertThat("neighbors of " + item, actual.getNeighborhoodEnd(item) - astart, equalTo(size));
+            for (int k = 0; k < size; k++) {
+                assertThat("neighbor " + k + " of " + item,
+                           actual.getNeighborId(astart + k), equalTo(expected.getNeighborId(start + k)));
+                assertThat("similarity " + k + " of " + item,
+                           actual.getNeighborSimilarity(astart + k),
+                           closeTo(expected.getNeighborSimilarity(start + k), epsilon));
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.lenskit.mooc.ii;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.EntitySource;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entities;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.io.ObjectStream;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Round-trip tests for the packed rating file: pack the ratings and tags of a data source file, open
+ * the packed file, and compare the entities and metadata with those of the original source.
+ */
+public class PackedRatingFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dataFile;
+    private Path packFile;
+
+    @Before
+    public void createData() throws IOException {
+        // unsorted ratings with fractional values and timestamps, so the sort and every column are checked
+        Random rng = new Random(42);
+        List<String> ratings = new ArrayList<>();
+        ratings.add("userId,movieId,rating,timestamp");
+        for (int i = 0; i < 500; i++) {
+            ratings.add(String.format("%d,%d,%s,%d", 1 + rng.nextInt(50), 1 + rng.nextInt(100),
+                                      0.5 * (1 + rng.nextInt(10)), 1000000000L + rng.nextInt(100000000)));
+        }
+        Path root = folder.getRoot().toPath();
+        Files.write(root.resolve("ratings.csv"), ratings, StandardCharsets.UTF_8);
+        Files.write(root.resolve("movies.csv"),
+                    Arrays.asList("movieId,title", "1,Toy Story (1995)", "2,Jumanji (1995)"),
+                    StandardCharsets.UTF_8);
+        // repeated tags, so the dictionary is shared, and a non-ASCII tag, so the strings are UTF-8
+        Files.write(root.resolve("tags.csv"),
+                    Arrays.asList("movieId,userId,tag,timestamp",
+                                  "1,15,pixar,1138537770",
+                                  "2,20,fantasy,1188263880",
+                                  "1,20,pixar,1188263881",
+                                  "2,15,Ça va,1138537771"),
+                    StandardCharsets.UTF_8);
+        dataFile = root.resolve("movielens.yml");
+        Files.write(dataFile, Arrays.asList(
+                "ratings:",
+                "  type: textfile",
+                "  file: ratings.csv",
+                "  format: csv",
+                "  entity_type: rating",
+                "  header: true",
+                "  metadata:",
+                "    domain:",
+                "      minimum: 0.5",
+                "      maximum: 5.0",
+                "      precision: 0.5",
+                "movies:",
+                "  type: textfile",
+                "  file: movies.csv",
+                "  format: csv",
+                "  entity_type: item",
+                "  header: true",
+                "  columns: [id, name]",
+                "tags:",
+                "  type: textfile",
+                "  file: tags.csv",
+                "  format: csv",
+                "  entity_type: item-tag",
+                "  header: true",
+                "  columns:",
+                "  - name: item",
+                "    type: long",
+                "  - name: user",
+                "    type: long",
+                "  - name: tag",
+                "    type: string",
+                "  - name: timestamp",
+                "    type: long"), StandardCharsets.UTF_8);
+        packFile = root.resolve("ratings.pack");
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        StaticDataSource source = StaticDataSource.load(dataFile);
+        List<Entity> expected = readRatings(source.getSourcesForType(CommonTypes.RATING).get(0));
+        assertThat(expected, hasSize(500));
+
+        PackedRatingFile.write(source, packFile);
+        List<Entity> actual = readRatings(PackedRatingFile.open(packFile));
+        assertThat(actual, hasSize(expected.size()));
+        // the packed ratings are sorted by user, then by item
+        for (int i = 1; i < actual.size(); i++) {
+            Rating prev = (Rating) actual.get(i - 1);
+            Rating cur = (Rating) actual.get(i);
+            assertThat(prev.getUserId(), lessThanOrEqualTo(cur.getUserId()));
+            if (prev.getUserId() == cur.getUserId()) {
+                assertThat(prev.getItemId(), lessThanOrEqualTo(cur.getItemId()));
+            }
+        }
+
+        Comparator<Entity> byId = Comparator.comparingLong(Entity::getId);
+        expected.sort(byId);
+        actual.sort(byId);
+        for (int i = 0; i < expected.size(); i++) {
+            Rating e = (Rating) expected.get(i);
+            Rating a = (Rating) actual.get(i);
+            assertThat(a.getId(), equalTo(e.getId()));
+            assertThat(a.getUserId(), equalTo(e.getUserId()));
+            assertThat(a.getItemId(), equalTo(e.getItemId()));
+            assertThat(a.getValue(), equalTo(e.getValue()));
+            assertThat(a.getTimestamp(), equalTo(e.getTimestamp()));
+            assertThat(a, equalTo(e));
+        }
+    }
+
+    @Test
+    public void testTagRoundTrip() throws IOException {
+        StaticDataSource source = StaticDataSource.load(dataFile);
+        List<Entity> expected = readRatings(source.getSourcesForType(PackedRatingFile.ITEM_TAG_TYPE).get(0));
+        assertThat(expected, hasSize(4));
+
+        PackedRatingFile.write(source, packFile);
+        // the tags keep the order of the source
+        assertThat(readRatings(PackedRatingFile.openTags(packFile)), contains(expected.toArray()));
+    }
+
+    @Test
+    public void testLoadDataSource() throws IOException {
+        StaticDataSource source = StaticDataSource.load(dataFile);
+        PackedRatingFile.write(source, packFile);
+        StaticDataSource packed = PackedRatingFile.loadDataSource(dataFile, packFile);
+
+        EntitySource ratings = source.getSourcesForType(CommonTypes.RATING).get(0);
+        List<EntitySource> packedRatings = packed.getSourcesForType(CommonTypes.RATING);
+        assertThat(packedRatings, hasSize(1));
+        assertThat(packedRatings.get(0).getMetadata(), equalTo(ratings.getMetadata()));
+        assertThat(packedRatings.get(0).getMetadata(), hasKey("domain"));
+        assertThat(packed.getSourcesForType(CommonTypes.ITEM), hasSize(1));
+        List<EntitySource> packedTags = packed.getSourcesForType(PackedRatingFile.ITEM_TAG_TYPE);
+        assertThat(packedTags, hasSize(1));
+
+        DataAccessObject dao = source.get();
+        DataAccessObject packedDao = packed.get();
+        assertThat(packedDao.query(Rating.class).get(),
+                   containsInAnyOrder(dao.query(Rating.class).get().toArray()));
+        assertThat(packedDao.getEntityIds(CommonTypes.ITEM), equalTo(dao.getEntityIds(CommonTypes.ITEM)));
+        assertThat(packedDao.getEntityIds(CommonTypes.USER), equalTo(dao.getEntityIds(CommonTypes.USER)));
+        assertThat(packedDao.query(PackedRatingFile.ITEM_TAG_TYPE).get(),
+                   containsInAnyOrder(dao.query(PackedRatingFile.ITEM_TAG_TYPE).get().toArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectTagWithoutTimestamp() throws IOException {
+        StaticDataSource source = new StaticDataSource("test");
+        source.addSource(Collections.singletonList(
+                Entities.newBuilder(PackedRatingFile.ITEM_TAG_TYPE, 1)
+                        .setAttribute(CommonAttributes.ITEM_ID, 1L)
+                        .setAttribute(CommonAttributes.USER_ID, 15L)
+                        .setAttribute(PackedRatingFile.TAG, "pixar")
+                        .build()));
+        PackedRatingFile.write(source, packFile);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectOtherFiles() throws IOException {
+        PackedRatingFile.open(dataFile);
+    }
+
+    private static List<Entity> readRatings(EntitySource source) throws IOException {
+        List<Entity> ratings = new ArrayList<>();
+        try (ObjectStream<Entity> stream = source.openStream()) {
+            for (Entity e : stream) {
+                ratings.add(e);
+            }
+        }
+        return ratings;
+    }
+}
@@ -0,0 +1,86 @@
+package org.lenskit.mooc.ii;
+
+import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lenskit.api.ResultMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonTypes;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests the item-based scorer, which uses the reverse neighbor index, against summing each item's similarities to
+ * the basket over its neighborhood.
+ */
+public class SimpleItemBasedItemScorerTest {
+    private static final double EPSILON = 1.0e-9;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DataAccessObject dao;
+    private List<Long> items;
+    private List<List<Long>> baskets;
+
+    @Before
+    public void createData() {
+        dao = ItemItemTestData.createDAO();
+        items = new ArrayList<>(dao.getEntityIds(CommonTypes.ITEM));
+        // an item the model does not know
+        items.add(999L);
+        baskets = ImmutableList.of(ImmutableList.of(5L),
+                                   ImmutableList.of(1L, 2L, 3L),
+                                   ImmutableList.of(1L, (long) ItemItemTestData.ITEMS + 1),
+                                   ImmutableList.of(7L, 7L, 999L),
+                                   ImmutableList.of(999L),
+                                   ImmutableList.of());
+    }
+
+    @Test
+    public void testBuiltModel() {
+        for (int size : new int[]{0, 5}) {
+            checkScores(new SparseItemItemModelProvider(dao, 1, size).get());
+        }
+    }
+
+    @Test
+    public void testMappedModel() throws IOException {
+        for (int size : new int[]{0, 5}) {
+            Path file = folder.newFile("model-" + size + ".bin").toPath();
+            ItemItemModelFile.write(new SparseItemItemModelProvider(dao, 1, size).get(), file);
+            checkScores(ItemItemModelFile.open(file));
+            // with the reverse index mapped from the file rather than built
+            ItemItemModelFile.write(new SparseItemItemModelProvider(dao, 1, size).get(), file, true);
+            checkScores(ItemItemModelFile.open(file));
+        }
+    }
+
+    private void checkScores(SimpleItemItemModel model) {
+        SimpleItemBasedItemScorer scorer = new SimpleItemBasedItemScorer(model);
+        for (List<Long> basket : baskets) {
+            ResultMap scores = scorer.scoreRelatedItemsWithDetails(basket, items);
+            assertThat(scores.keySet(), equalTo(new HashSet<>(items)));
+            for (long item : items) {
+                Long2DoubleMap nbrs = model.getNeighbors(item);
+                double expected = 0;
+                for (long ref : new HashSet<>(basket)) {
+                    expected += nbrs.get(ref);
+                }
+                assertThat("score of " + item + " for " + basket,
+                           scores.getScore(item), closeTo(expected, EPSILON));
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.lenskit.mooc.ii;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.ratings.Rating;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the all-pairs item-item model provider: its similarities against a direct computation of the mean-centered
+ * cosine, and the order and truncation of its neighborhoods.
+ */
+public class SimpleItemItemModelProviderTest {
+    private static final double EPSILON = 1.0e-9;
+
+    private DataAccessObject dao;
+    private List<Long> items;
+
+    @Before
+    public void createData() {
+        dao = ItemItemTestData.createDAO();
+        items = new ArrayList<>(dao.getEntityIds(CommonTypes.ITEM));
+    }
+
+    @Test
+    public void testSimilarities() {
+        Map<Long, Long2DoubleMap> expected = computeSimilarities(dao);
+        SimpleItemItemModel model = new SimpleItemItemModelProvider(dao, 1, 0).get();
+        for (long item : items) {
+            Long2DoubleMap nbrs = model.getNeighbors(item);
+            assertThat("neighbors of " + item, nbrs.keySet(), equalTo(expected.get(item).keySet()));
+            for (Long2DoubleMap.Entry e : expected.get(item).long2DoubleEntrySet()) {
+                assertThat(nbrs.get(e.getLongKey()), closeTo(e.getDoubleValue(), EPSILON));
+            }
+        }
+    }
+
+    @Test
+    public void testNeighborOrder() {
+        SimpleItemItemModel model = new SimpleItemItemModelProvider(dao, 2, 0).get();
+        checkOrder(model);
+
+        // the public constructor sorts unordered neighborhoods the same way
+        Map<Long, Long2DoubleMap> sims = computeSimilarities(dao);
+        SimpleItemItemModel built = new SimpleItemItemModel(model.getItemMeans(), sims);
+        checkOrder(built);
+        ItemItemTestData.assertSameModel(model, built, items, EPSILON);
+    }
+
+    @Test
+    public void testTruncation() {
+        SimpleItemItemModel full = new SimpleItemItemModelProvider(dao, 1, 0).get();
+        int splitTies = 0;
+        for (int size = 1; size <= items.size(); size++) {
+            SimpleItemItemModel model = new SimpleItemItemModelProvider(dao, 1, size).get();
+            assertThat(model.getItemMeans(), equalTo(full.getItemMeans()));
+            for (long item : items) {
+                int start = full.getNeighborhoodStart(item);
+                int kept = Math.min(size, full.getNeighborhoodEnd(item) - start);
+                int tstart = model.getNeighborhoodStart(item);
+                // the truncated neighborhood is the head of the full one
+                assertThat(model.getNeighborhoodEnd(item) - tstart, equalTo(kept));
+                for (int k = 0; k < kept; k++) {
+                    assertThat(model.getNeighborId(tstart + k), equalTo(full.getNeighborId(start + k)));
+                    assertThat(model.getNeighborSimilarity(tstart + k),
+                               equalTo(full.getNeighborSimilarity(start + k)));
+                }
+                if (kept == size && start + kept < full.getNeighborhoodEnd(item)
+                        && full.getNeighborSimilarity(start + kept - 1) == full.getNeighborSimilarity(start + kept)) {
+                    splitTies++;
+                }
+            }
+        }
+        // the copied items make some sizes cut between tied neighbors, which keep the lower ID
+        assertThat(splitTies, greaterThan(0));
+    }
+
+    private void checkOrder(SimpleItemItemModel model) {
+        for (long item : items) {
+            for (int pos = model.getNeighborhoodStart(item) + 1; pos < model.getNeighborhoodEnd(item); pos++) {
+                double prev = model.getNeighborSimilarity(pos - 1);
+                double cur = model.getNeighborSimilarity(pos);
+                assertThat(cur, lessThanOrEqualTo(prev));
+                if (cur == prev) {
+                    assertThat(model.getNeighborId(pos), greaterThan(model.getNeighborId(pos - 1)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute the positive mean-centered cosine similarities between all pairs of items.
+     */
+    private static Map<Long, Long2DoubleMap> computeSimilarities(DataAccessObject dao) {
+        Map<Long, Map<Long, Double>> ratings = new HashMap<>();
+        for (Rating r : dao.query(Rating.class).get()) {
+            ratings.computeIfAbsent(r.getItemId(), i -> new HashMap<>()).put(r.getUserId(), r.getValue());
+        }
+        Map<Long, Map<Long, Double>> centered = new HashMap<>();
+        for (Map.Entry<Long, Map<Long, Double>> e : ratings.entrySet()) {
+            double mean = e.getValue().values().stream().mapToDouble(Double::doubleValue).average().getAsDouble();
+            Map<Long, Double> vec = new HashMap<>();
+            e.getValue().forEach((u, v) -> vec.put(u, v - mean));
+            centered.put(e.getKey(), vec);
+        }
+
+        Map<Long, Long2DoubleMap> sims = new HashMap<>();
+        for (Map.Entry<Long, Map<Long, Double>> ie : centered.entrySet()) {
+            Long2DoubleMap row = new Long2DoubleOpenHashMap();
+            for (Map.Entry<Long, Map<Long, Double>> je : centered.entrySet()) {
+                if (ie.getKey().equals(je.getKey())) {
+                    continue;
+                }
+                double dot = 0;
+                for (Map.Entry<Long, Double> r : ie.getValue().entrySet()) {
+                    Double other = je.getValue().get(r.getKey());
+                    if (other != null) {
+                        dot += r.getValue() * other;
+                    }
+                }
+                double sim = dot / (norm(ie.getValue()) * norm(je.getValue()));
+                if (sim > 0) {
+                    row.put((long) je.getKey(), sim);
+                }
+            }
+            sims.put(ie.getKey(), row);
+        }
+        return sims;
+    }
+
+    private static double norm(Map<Long, Double> vec) {
+        double ssq = 0;
+        for (double v : vec.values()) {
+            ssq += v * v;
+        }
+        return Math.sqrt(ssq);
+    }
+}
@@ -0,0 +1,211 @@
+package org.lenskit.mooc.ii;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.IdBox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the item-item scorer against a direct computation of the item-item score from the model's neighborhoods.
+ */
+public class SimpleItemItemScorerTest {
+    private static final int NEIGHBORHOOD_SIZE = 20;
+    private static final double EPSILON = 1.0e-9;
+
+    private DataAccessObject dao;
+    private List<Long> items;
+
+    @Before
+    public void createData() {
+        dao = ItemItemTestData.createDAO();
+        items = new ArrayList<>(dao.getEntityIds(CommonTypes.ITEM));
+        // an item the model does not know
+        items.add(999L);
+    }
+
+    @Test
+    public void testScores() {
+        for (int size : new int[]{0, 5}) {
+            SimpleItemItemModel model = new SparseItemItemModelProvider(dao, 1, size).get();
+            SimpleItemItemScorer scorer = new SimpleItemItemScorer(model, dao);
+            for (long user : dao.getEntityIds(CommonTypes.USER)) {
+                checkScores(model, getRatings(user), scorer.scoreWithDetails(user, items));
+            }
+        }
+    }
+
+    @Test
+    public void testNeighborhoodSize() {
+        // user 1 rated every item, so the scorer has to stop at its neighborhood size
+        SimpleItemItemModel model = new SparseItemItemModelProvider(dao, 1, 0).get();
+        int cut = 0;
+        for (long item : items) {
+            if (model.getNeighbors(item).size() > NEIGHBORHOOD_SIZE) {
+                cut++;
+            }
+        }
+        assertThat(cut, greaterThan(0));
+        checkScores(model, getRatings(1), new SimpleItemItemScorer(model, dao).scoreWithDetails(1, items));
+    }
+
+    @Test
+    public void testUnknownUser() {
+        SimpleItemItemModel model = new SparseItemItemModelProvider(dao, 1, 0).get();
+        ResultMap scores = new SimpleItemItemScorer(model, dao).scoreWithDetails(999, items);
+        assertThat(scores.size(), equalTo(items.size()));
+        for (Result r : scores) {
+            // with no rated neighbors, the score is undefined
+            assertTrue(Double.isNaN(r.getScore()));
+        }
+    }
+
+    @Test
+    public void testScoreUsers() throws InterruptedException {
+        SimpleItemItemModel model = new SparseItemItemModelProvider(dao, 1, 0).get();
+        SimpleItemItemScorer scorer = new SimpleItemItemScorer(model, dao);
+
+        // users in increasing order, skipping some, with candidates in no particular order
+        Random rng = new Random(42);
+        List<IdBox<List<Long>>> requests = new ArrayList<>();
+        for (long user = 1; user <= ItemItemTestData.USERS; user += 1 + rng.nextInt(2)) {
+            List<Long> candidates = new ArrayList<>(items);
+            Collections.shuffle(candidates, rng);
+            requests.add(IdBox.create(user, candidates.subList(0, rng.nextInt(candidates.size()))));
+        }
+        // a user with no candidates, and users with no ratings
+        requests.set(1, IdBox.create(requests.get(1).getId(), Collections.emptyList()));
+        requests.add(IdBox.create(500L, items));
+        requests.add(IdBox.create(1000L, items));
+
+        for (int threads : new int[]{1, 4}) {
+            Map<Long, ResultMap> results = new HashMap<>();
+            scorer.scoreUsers(requests.iterator(), threads, (user, scores) -> {
+                assertThat(results.put(user, scores), nullValue());
+            });
+            assertThat(results.size(), equalTo(requests.size()));
+            for (IdBox<List<Long>> request : requests) {
+                ResultMap expected = scorer.scoreWithDetails(request.getId(), request.getValue());
+                ResultMap actual = results.get(request.getId());
+                assertThat(actual.keySet(), equalTo(expected.keySet()));
+                for (Result r : expected) {
+                    // boxed NaNs are equal, so this also checks undefined scores
+                    assertThat(actual.getScore(r.getId()), equalTo(r.getScore()));
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testScoreUsersOutOfOrder() throws InterruptedException {
+        SimpleItemItemModel model = new SparseItemItemModelProvider(dao, 1, 0).get();
+        SimpleItemItemScorer scorer = new SimpleItemItemScorer(model, dao);
+        List<IdBox<List<Long>>> requests = new ArrayList<>();
+        requests.add(IdBox.create(2L, items));
+        requests.add(IdBox.create(1L, items));
+        scorer.scoreUsers(requests.iterator(), 2, (user, scores) -> { });
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testScoreUsersUnorderedGroups() throws InterruptedException {
+        SimpleItemItemModel model = new SparseItemItemModelProvider(dao, 1, 0).get();
+        SimpleItemItemScorer scorer = new SimpleItemItemScorer(model, dao);
+        List<IdBox<List<Long>>> requests = new ArrayList<>();
+        for (long user = 1; user <= ItemItemTestData.USERS; user++) {
+            requests.add(IdBox.create(user, items));
+        }
+        // users 3 and 4 swapped, so merging would skip user 3's ratings
+        List<IdBox<List<Rating>>> histories = getHistories();
+        Collections.swap(histories, 2, 3);
+        scorer.scoreUsers(requests.iterator(), histories.iterator(), 2, (user, scores) -> { });
+    }
+
+    @Test
+    public void testScoreUsersLateGroup() throws InterruptedException {
+        SimpleItemItemModel model = new SparseItemItemModelProvider(dao, 1, 0).get();
+        SimpleItemItemScorer scorer = new SimpleItemItemScorer(model, dao);
+        List<IdBox<List<Long>>> requests = new ArrayList<>();
+        requests.add(IdBox.create(3L, items));
+        requests.add(IdBox.create(4L, items));
+        // user 5's group comes before users 3 and 4; the merge stops before it sees that they are out of order
+        List<IdBox<List<Rating>>> histories = getHistories();
+        histories.add(2, histories.remove(4));
+        assertThat(histories.get(2).getId(), equalTo(5L));
+
+        Map<Long, ResultMap> results = new HashMap<>();
+        scorer.scoreUsers(requests.iterator(), histories.iterator(), 1, results::put);
+        assertThat(results.size(), equalTo(2));
+        for (long user : new long[]{3, 4}) {
+            ResultMap expected = scorer.scoreWithDetails(user, items);
+            for (Result r : expected) {
+                assertThat(results.get(user).getScore(r.getId()), equalTo(r.getScore()));
+            }
+            checkScores(model, getRatings(user), results.get(user));
+        }
+    }
+
+    private List<IdBox<List<Rating>>> getHistories() {
+        List<IdBox<List<Rating>>> histories = new ArrayList<>(dao.query(Rating.class)
+                                                                 .groupBy(CommonAttributes.USER_ID)
+                                                                 .get());
+        histories.sort(Comparator.comparingLong(IdBox::getId));
+        return histories;
+    }
+
+    /**
+     * Check a user's scores against the item-item score, computed from the user's ratings of the most similar
+     * neighbors of each item.
+     */
+    private static void checkScores(SimpleItemItemModel model, Map<Long, Double> ratings, ResultMap scores) {
+        Long2DoubleMap means = model.getItemMeans();
+        for (Result r : scores) {
+            long item = r.getId();
+            Long2DoubleMap nbrs = model.getNeighbors(item);
+            List<Long> rated = new ArrayList<>();
+            for (long nbr : nbrs.keySet()) {
+                if (ratings.containsKey(nbr)) {
+                    rated.add(nbr);
+                }
+            }
+            rated.sort(Comparator.comparingDouble((Long n) -> -nbrs.get((long) n))
+                                 .thenComparingLong(n -> n));
+            double num = 0;
+            double den = 0;
+            for (long nbr : rated.subList(0, Math.min(NEIGHBORHOOD_SIZE, rated.size()))) {
+                num += nbrs.get(nbr) * (ratings.get(nbr) - means.get(nbr));
+                den += nbrs.get(nbr);
+            }
+            double expected = means.get(item) + num / den;
+            if (Double.isNaN(expected)) {
+                assertTrue("score of " + item, Double.isNaN(r.getScore()));
+            } else {
+                assertThat("score of " + item, r.getScore(), closeTo(expected, EPSILON));
+            }
+        }
+    }
+
+    private Map<Long, Double> getRatings(long user) {
+        Map<Long, Double> ratings = new HashMap<>();
+        for (Rating r : dao.query(Rating.class).withAttribute(CommonAttributes.USER_ID, user).get()) {
+            ratings.put(r.getItemId(), r.getValue());
+        }
+        return ratings;
+    }
+}
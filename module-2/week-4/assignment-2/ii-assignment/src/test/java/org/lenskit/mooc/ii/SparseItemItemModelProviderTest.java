@@ -0,0 +1,66 @@
+package org.lenskit.mooc.ii;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonTypes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests that the sparse model provider builds the same model as the all-pairs provider.
+ */
+public class SparseItemItemModelProviderTest {
+    private static final double EPSILON = 1.0e-9;
+
+    private DataAccessObject dao;
+    private List<Long> items;
+
+    @Before
+    public void createData() {
+        dao = ItemItemTestData.createDAO();
+        items = new ArrayList<>(dao.getEntityIds(CommonTypes.ITEM));
+    }
+
+    @Test
+    public void testFullModel() {
+        SimpleItemItemModel expected = new SimpleItemItemModelProvider(dao, 1, 0).get();
+        for (int threads : new int[]{1, 3}) {
+            SimpleItemItemModel actual = new SparseItemItemModelProvider(dao, threads, 0).get();
+            ItemItemTestData.assertSameModel(expected, actual, items, EPSILON);
+        }
+    }
+
+    @Test
+    public void testTruncatedModel() {
+        // every size up to the largest neighborhood, so some sizes cut between the tied neighbors of copied items
+        for (int size = 1; size <= items.size(); size++) {
+            SimpleItemItemModel expected = new SimpleItemItemModelProvider(dao, 1, size).get();
+            SimpleItemItemModel actual = new SparseItemItemModelProvider(dao, 2, size).get();
+            ItemItemTestData.assertSameModel(expected, actual, items, EPSILON);
+        }
+    }
+
+    @Test
+    public void testTies() {
+        SimpleItemItemModel model = new SparseItemItemModelProvider(dao, 1, 0).get();
+        int ties = 0;
+        for (long item : items) {
+            for (int pos = model.getNeighborhoodStart(item) + 1; pos < model.getNeighborhoodEnd(item); pos++) {
+                if (model.getNeighborSimilarity(pos - 1) == model.getNeighborSimilarity(pos)) {
+                    // tied neighbors are in increasing order of ID
+                    assertThat(model.getNeighborId(pos - 1), lessThan(model.getNeighborId(pos)));
+                    ties++;
+                }
+            }
+        }
+        // the copied items make sure there are ties to check
+        assertThat(ties, greaterThan(0));
+    }
+}